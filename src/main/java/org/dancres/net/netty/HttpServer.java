@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HttpServer {
 
@@ -33,6 +34,67 @@ public class HttpServer {
         void process(HttpRequest aRequest, HttpResponse aResponse);
     }
 
+    /**
+     * A response whose sending has been deferred beyond the return from <code>Handler.process</code>.
+     */
+    public interface Deferred {
+        /**
+         * Send the response as it now stands, subsequent invocations are ignored.
+         */
+        void complete();
+    }
+
+    private static final ThreadLocal<Deferral> _current = new ThreadLocal<>();
+
+    /**
+     * Invoked by a handler from within <code>process</code> to indicate that the response will be completed later
+     * (e.g. to implement long-polling). The response is not sent on return from <code>process</code> but when
+     * <code>complete</code> is invoked.
+     *
+     * @return the means to complete the response of the request currently being processed by this thread
+     * @throws IllegalStateException if the thread is not processing a request
+     */
+    public static Deferred defer() {
+        Deferral myDeferral = _current.get();
+
+        if (myDeferral == null)
+            throw new IllegalStateException("Not processing a request");
+
+        myDeferral._deferred = true;
+        return myDeferral._completion;
+    }
+
+    /**
+     * Process a request on behalf of some other transport (e.g. one that is in-memory) such that handlers may
+     * <code>defer</code> their response as they would for a request received by a server.
+     *
+     * @param aProcessing invokes the handler
+     * @param aCompletion sends the response, to be returned by <code>defer</code>
+     * @return <code>true</code> if the handler deferred its response, else the response should be sent on return
+     */
+    public static boolean process(Runnable aProcessing, Deferred aCompletion) {
+        Deferral myDeferral = new Deferral(aCompletion);
+
+        _current.set(myDeferral);
+
+        try {
+            aProcessing.run();
+        } finally {
+            _current.remove();
+        }
+
+        return myDeferral._deferred;
+    }
+
+    private static class Deferral {
+        private final Deferred _completion;
+        private boolean _deferred = false;
+
+        Deferral(Deferred aCompletion) {
+            _completion = aCompletion;
+        }
+    }
+
     private final NioServerSocketChannelFactory _channelFactory = new NioServerSocketChannelFactory(
             Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
 
@@ -89,20 +151,82 @@ public class HttpServer {
         return myChannel;
     }
 
+    /**
+     * A request and its response, which is sent on completion.
+     */
+    private static class Exchange implements Deferred {
+        private final Channel _channel;
+        private final HttpRequest _request;
+        private final HttpResponse _response;
+        private final AtomicBoolean _completed = new AtomicBoolean(false);
+
+        Exchange(Channel aChannel, HttpRequest aRequest, HttpResponse aResponse) {
+            _channel = aChannel;
+            _request = aRequest;
+            _response = aResponse;
+        }
+
+        public void complete() {
+            if (! _completed.compareAndSet(false, true))
+                return;
+
+            boolean keepAlive = HttpHeaders.isKeepAlive(_request);
+
+            if (keepAlive) {
+                // Add 'Content-Length' header only for a keep-alive connection.
+                _response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, _response.getContent().readableBytes());
+            }
+
+            // Encode the cookie.
+            String cookieString = _request.getHeader(HttpHeaders.Names.COOKIE);
+            if (cookieString != null) {
+                Set<Cookie> cookies = (new CookieDecoder()).decode(cookieString);
+                if(!cookies.isEmpty()) {
+                    // Reset the cookies if necessary.
+                    CookieEncoder cookieEncoder = new CookieEncoder(true);
+                    for (Cookie cookie : cookies) {
+                        cookieEncoder.addCookie(cookie);
+                    }
+                    _response.addHeader(HttpHeaders.Names.SET_COOKIE, cookieEncoder.encode());
+                }
+            }
+
+            // Write the myResponse.
+            ChannelFuture future = _channel.write(_response);
+
+            // Close the non-keep-alive connection after the write operation is done.
+            if (!keepAlive) {
+                future.addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+    }
+
     class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         public void messageReceived(ChannelHandlerContext aCtx, MessageEvent anE) {
             HttpRequest myRequest = (HttpRequest) anE.getMessage();
-            boolean keepAlive = HttpHeaders.isKeepAlive(myRequest);
             List<String> componentPaths = paths(new QueryStringDecoder(myRequest.getUri()).getPath());
             HttpResponse myResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            Exchange myExchange = new Exchange(anE.getChannel(), myRequest, myResponse);
             boolean handled = false;
+            boolean deferred = false;
 
             for (String c : componentPaths) {
                 if (! handled) {
                     Handler myHandler = _handlers.get(c);
                     
                     if (myHandler != null) {
-                        myHandler.process(myRequest, myResponse);
+                        Deferral myDeferral = new Deferral(myExchange);
+
+                        _current.set(myDeferral);
+
+                        try {
+                            myHandler.process(myRequest, myResponse);
+                        } finally {
+                            _current.remove();
+                        }
+
+                        deferred = myDeferral._deferred;
+
                         handled = true;
                         break;
                     }
@@ -146,32 +270,8 @@ public class HttpServer {
                 myResponse.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/plain charset=UTF-8");
             }
 
-            if (keepAlive) {
-                // Add 'Content-Length' header only for a keep-alive connection.
-                myResponse.setHeader(HttpHeaders.Names.CONTENT_LENGTH, myResponse.getContent().readableBytes());
-            }
-
-            // Encode the cookie.
-            String cookieString = myRequest.getHeader(HttpHeaders.Names.COOKIE);
-            if (cookieString != null) {
-                Set<Cookie> cookies = (new CookieDecoder()).decode(cookieString);
-                if(!cookies.isEmpty()) {
-                    // Reset the cookies if necessary.
-                    CookieEncoder cookieEncoder = new CookieEncoder(true);
-                    for (Cookie cookie : cookies) {
-                        cookieEncoder.addCookie(cookie);
-                    }
-                    myResponse.addHeader(HttpHeaders.Names.SET_COOKIE, cookieEncoder.encode());
-                }
-            }
-
-            // Write the myResponse.
-            ChannelFuture future = anE.getChannel().write(myResponse);
-
-            // Close the non-keep-alive connection after the write operation is done.
-            if (!keepAlive) {
-                future.addListener(ChannelFutureListener.CLOSE);
-            }
+            if (! deferred)
+                myExchange.complete();
         }
 
 
@@ -0,0 +1,94 @@
+package org.dancres.peers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from attribute key and value to the names of the peers that carry it, allowing peers to be found
+ * by attribute at a cost proportional to the number of matches rather than the size of the directory.
+ */
+class AttributeIndex {
+    private final Map<String, Directory.Entry> _directory;
+    private final Map<String, Map<String, Set<String>>> _index = new HashMap<>();
+    private final Map<String, Map<String, String>> _indexed = new HashMap<>();
+
+    /**
+     * @param aDirectory is the (concurrently updated) directory to index
+     */
+    AttributeIndex(Map<String, Directory.Entry> aDirectory) {
+        _directory = aDirectory;
+    }
+
+    /**
+     * Bring the index up to date for a peer after its directory entry has been changed. The index is updated from the
+     * entry currently held in the directory (rather than the entry the caller stored) so that, no matter how concurrent
+     * changes are ordered, the last refresh reflects the latest state.
+     *
+     * @param aPeerName is the name of the peer to index
+     */
+    synchronized void refresh(String aPeerName) {
+        Directory.Entry myCurrent = _directory.get(aPeerName);
+        Map<String, String> myPrevious = _indexed.get(aPeerName);
+        Map<String, String> myAttrs = (myCurrent == null) ? null : myCurrent.getAttributes();
+
+        if ((myPrevious == myAttrs) || ((myPrevious != null) && (myPrevious.equals(myAttrs))))
+            return;
+
+        if (myPrevious != null) {
+            for (Map.Entry<String, String> kv : myPrevious.entrySet()) {
+                Map<String, Set<String>> myValues = _index.get(kv.getKey());
+                Set<String> myPeers = myValues.get(kv.getValue());
+
+                myPeers.remove(aPeerName);
+
+                if (myPeers.isEmpty()) {
+                    myValues.remove(kv.getValue());
+
+                    if (myValues.isEmpty())
+                        _index.remove(kv.getKey());
+                }
+            }
+
+            _indexed.remove(aPeerName);
+        }
+
+        if (myAttrs != null) {
+            for (Map.Entry<String, String> kv : myAttrs.entrySet()) {
+                Map<String, Set<String>> myValues = _index.get(kv.getKey());
+
+                if (myValues == null) {
+                    myValues = new HashMap<>();
+                    _index.put(kv.getKey(), myValues);
+                }
+
+                Set<String> myPeers = myValues.get(kv.getValue());
+
+                if (myPeers == null) {
+                    myPeers = new HashSet<>();
+                    myValues.put(kv.getValue(), myPeers);
+                }
+
+                myPeers.add(aPeerName);
+            }
+
+            _indexed.put(aPeerName, myAttrs);
+        }
+    }
+
+    /**
+     * @return the names of the peers that have an attribute <code>aKey</code> with value <code>aValue</code>
+     */
+    synchronized Set<String> find(String aKey, String aValue) {
+        Map<String, Set<String>> myValues = _index.get(aKey);
+
+        if (myValues == null)
+            return Collections.emptySet();
+
+        Set<String> myPeers = myValues.get(aValue);
+
+        return (myPeers == null) ? Collections.<String>emptySet() : new HashSet<>(myPeers);
+    }
+}
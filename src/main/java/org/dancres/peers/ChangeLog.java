@@ -0,0 +1,209 @@
+package org.dancres.peers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A bounded, in-memory log of the changes made to a <code>Directory</code> such that those not taking part in gossip
+ * can follow membership by asking for the changes since the last they saw. Each change is assigned a sequence number,
+ * once the log is full the oldest changes are discarded and a follower that has fallen that far behind must start
+ * over from a copy of the directory. Followers may wait for changes, they're informed as soon as there are any. Waiters
+ * are informed in a lane of their own such that appending to the log is not delayed by however many there are.
+ */
+class ChangeLog {
+    private static final Logger _logger = LoggerFactory.getLogger(ChangeLog.class);
+
+    enum Kind {NEW, UPDATED, DEAD}
+
+    /**
+     * Informed of the changes following those it has already seen, once there are some.
+     */
+    interface Waiter {
+        /**
+         * @param aChanges are the changes, <code>null</code> if the waiter has fallen too far behind
+         * @param aSequence is the sequence number of the last change
+         */
+        void changed(List<Change> aChanges, long aSequence);
+    }
+
+    static class Change {
+        private final Kind _kind;
+        private final Directory.Entry _entry;
+        private final transient long _sequence;
+
+        Change(Kind aKind, Directory.Entry anEntry, long aSequence) {
+            _kind = aKind;
+            _entry = anEntry;
+            _sequence = aSequence;
+        }
+
+        Kind getKind() {
+            return _kind;
+        }
+
+        Directory.Entry getEntry() {
+            return _entry;
+        }
+
+        long getSequence() {
+            return _sequence;
+        }
+    }
+
+    private final Change[] _changes;
+    private final Scheduler.Lane _lane;
+    private long _sequence = 0;
+    private final Set<Pending> _waiters = new LinkedHashSet<>();
+
+    /**
+     * @param aCapacity is the number of changes to retain
+     * @param aLane is the lane in which to inform waiters of appended changes
+     */
+    ChangeLog(int aCapacity, Scheduler.Lane aLane) {
+        _changes = new Change[aCapacity];
+        _lane = aLane;
+    }
+
+    /**
+     * Append the outcome of a merge to the log and schedule waiters to be informed. Waiters are handed the same list
+     * of changes, which they must not modify.
+     */
+    void append(List<Directory.Entry> aNewPeers, List<Directory.Entry> anUpdatedPeers,
+                List<Directory.Entry> aDeadPeers) {
+        if (aNewPeers.isEmpty() && anUpdatedPeers.isEmpty() && aDeadPeers.isEmpty())
+            return;
+
+        final List<Pending> myWaiters;
+        final List<Change> myChanges;
+        final long mySequence;
+
+        synchronized(this) {
+            long myPrevious = _sequence;
+
+            for (Directory.Entry myEntry : aNewPeers)
+                add(Kind.NEW, myEntry);
+
+            for (Directory.Entry myEntry : anUpdatedPeers)
+                add(Kind.UPDATED, myEntry);
+
+            for (Directory.Entry myEntry : aDeadPeers)
+                add(Kind.DEAD, myEntry);
+
+            // Waiters have all seen up to the previous change, thus all are informed of the same changes
+            //
+            myWaiters = new ArrayList<>(_waiters);
+            _waiters.clear();
+            myChanges = since(myPrevious);
+            mySequence = _sequence;
+        }
+
+        if (myWaiters.isEmpty())
+            return;
+
+        Runnable myInform = new Runnable() {
+            public void run() {
+                for (Pending myPending : myWaiters)
+                    myPending._waiter.changed(myChanges, mySequence);
+            }
+        };
+
+        try {
+            _lane.schedule(myInform, 0);
+        } catch (IllegalStateException anISE) {
+            // Scheduler shutdown, answer the waiters here rather than leave them hanging
+            //
+            _logger.debug("Scheduler shutdown, informing waiters directly");
+            myInform.run();
+        }
+    }
+
+    private void add(Kind aKind, Directory.Entry anEntry) {
+        ++_sequence;
+        _changes[(int) (_sequence % _changes.length)] = new Change(aKind, anEntry, _sequence);
+    }
+
+    /**
+     * @return the sequence number of the most recent change
+     */
+    synchronized long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * @param aSince is the sequence number of the last change seen
+     * @return the changes that follow, <code>null</code> if they're no longer all held
+     */
+    synchronized List<Change> since(long aSince) {
+        if ((aSince > _sequence) || (aSince < _sequence - _changes.length))
+            return null;
+
+        List<Change> myChanges = new ArrayList<>((int) (_sequence - aSince));
+
+        for (long i = aSince + 1; i <= _sequence; i++)
+            myChanges.add(_changes[(int) (i % _changes.length)]);
+
+        return myChanges;
+    }
+
+    /**
+     * Inform the waiter of the changes that follow <code>aSince</code>, immediately if there are any (or it has fallen
+     * too far behind) else when there are.
+     *
+     * @return an object that can be passed to <code>cancel</code> to inform the waiter without changes
+     */
+    Object await(long aSince, Waiter aWaiter) {
+        Pending myPending = new Pending(aSince, aWaiter);
+
+        synchronized(this) {
+            if (aSince == _sequence) {
+                _waiters.add(myPending);
+                return myPending;
+            }
+        }
+
+        inform(myPending);
+        return myPending;
+    }
+
+    /**
+     * Stop waiting, informing the waiter there are no changes if it is yet to be informed.
+     */
+    void cancel(Object aPending) {
+        Pending myPending = (Pending) aPending;
+
+        synchronized(this) {
+            if (! _waiters.remove(myPending))
+                return;
+        }
+
+        myPending._waiter.changed(Collections.<Change>emptyList(), myPending._since);
+    }
+
+    private void inform(Pending aPending) {
+        List<Change> myChanges;
+        long mySequence;
+
+        synchronized(this) {
+            myChanges = since(aPending._since);
+            mySequence = _sequence;
+        }
+
+        aPending._waiter.changed(myChanges, mySequence);
+    }
+
+    private static class Pending {
+        private final long _since;
+        private final Waiter _waiter;
+
+        Pending(long aSince, Waiter aWaiter) {
+            _since = aSince;
+            _waiter = aWaiter;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.dancres.peers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delivers the outcome of <code>Directory</code> merges to listeners. Changes are coalesced per peer until the next
+ * flush such that listeners see at most one change for each peer (e.g. a peer that appears and is updated is reported
+ * only as new) and only receive notification when something actually changed. At most one flush is outstanding at a
+ * time and pending changes are bounded by the number of peers thus a slow listener delays notification but cannot
+ * cause an unbounded backlog. The keys reported as changed for a peer accumulate across coalesced changes.
+ */
+class ChangeNotifier {
+    private static final Logger _logger = LoggerFactory.getLogger(ChangeNotifier.class);
+
+    private enum Kind {NEW, UPDATED, DEAD}
+
+    private final Directory _directory;
+    private final Scheduler.Lane _lane;
+    private final List<Directory.Listener> _listeners;
+    private final List<Directory.GossipListener> _gossipListeners;
+
+    private List<Map<String, Change>> _ready = new LinkedList<>();
+    private Map<String, Change> _pending = new LinkedHashMap<>();
+    private boolean _scheduled = false;
+    private long _window = 0;
+
+    /**
+     * @param aDirectory is the directory reported to listeners
+     * @param aScheduler is the scheduler on which to run notifications
+     * @param aLane is the lane in which to run notifications
+     * @param aListeners are notified of changes to peers
+     * @param aGossipListeners are notified after each flush
+     */
+    ChangeNotifier(Directory aDirectory, Scheduler aScheduler, String aLane, List<Directory.Listener> aListeners,
+                   List<Directory.GossipListener> aGossipListeners) {
+        _directory = aDirectory;
+        _lane = aScheduler.lane(aLane);
+        _listeners = aListeners;
+        _gossipListeners = aGossipListeners;
+    }
+
+    /**
+     * @param aWindow is the time in milliseconds to wait after a merge before notifying listeners, merges within the
+     *                window are coalesced.
+     */
+    synchronized void setWindow(long aWindow) {
+        _window = aWindow;
+    }
+
+    /**
+     * Record the outcome of a merge, scheduling notification if it is not already pending.
+     */
+    synchronized void merged(List<Directory.Entry> aNewPeers, List<Directory.Entry> anUpdatedPeers,
+                             List<Directory.Entry> aDeadPeers) {
+        for (Directory.Entry myEntry : aNewPeers)
+            coalesce(Kind.NEW, myEntry);
+
+        for (Directory.Entry myEntry : anUpdatedPeers)
+            coalesce(Kind.UPDATED, myEntry);
+
+        for (Directory.Entry myEntry : aDeadPeers)
+            coalesce(Kind.DEAD, myEntry);
+
+        if (! _scheduled) {
+            _scheduled = true;
+
+            try {
+                _lane.schedule(new Flush(), _window);
+            } catch (IllegalStateException anISE) {
+                _logger.debug("Scheduler shutdown, no further notifications");
+                _scheduled = false;
+            }
+        }
+    }
+
+    private class Flush implements Runnable {
+        public void run() {
+            List<Map<String, Change>> myChanges;
+
+            synchronized (ChangeNotifier.this) {
+                myChanges = _ready;
+                myChanges.add(_pending);
+                _ready = new LinkedList<>();
+                _pending = new LinkedHashMap<>();
+                _scheduled = false;
+            }
+
+            for (Map<String, Change> myBatch : myChanges)
+                deliver(myBatch);
+
+            for (Directory.GossipListener l : _gossipListeners) {
+                l.gossiped(_directory);
+            }
+        }
+    }
+
+    private void coalesce(Kind aKind, Directory.Entry anEntry) {
+        String myName = anEntry.getPeerName();
+        Change myPrevious = _pending.get(myName);
+
+        if (myPrevious == null) {
+            _pending.put(myName, new Change(aKind, anEntry));
+        } else if (myPrevious._kind == Kind.DEAD) {
+            // A peer that died and has come back must be reported as dead and then new so close off the current batch
+            //
+            _ready.add(_pending);
+            _pending = new LinkedHashMap<>();
+            _pending.put(myName, new Change(aKind, anEntry));
+        } else if (aKind == Kind.DEAD) {
+            // A peer that was new and then died is of no interest to listeners
+            //
+            if (myPrevious._kind == Kind.NEW)
+                _pending.remove(myName);
+            else
+                _pending.put(myName, new Change(Kind.DEAD, anEntry));
+        } else {
+            _pending.put(myName, new Change(myPrevious._kind, accumulate(myPrevious, anEntry)));
+        }
+    }
+
+    /**
+     * @return the entry with the keys changed since the peer was last reported, all keys for a peer that is new
+     */
+    private Directory.Entry accumulate(Change aPrevious, Directory.Entry anEntry) {
+        Set<String> myChanged;
+
+        if (aPrevious._kind == Kind.NEW) {
+            myChanged = anEntry.getAttributes().keySet();
+        } else {
+            myChanged = new HashSet<>(aPrevious._entry.getChangedKeys());
+            myChanged.addAll(anEntry.getChangedKeys());
+        }
+
+        return new Directory.Entry(anEntry, myChanged);
+    }
+
+    private void deliver(Map<String, Change> aChanges) {
+        if (! aChanges.isEmpty()) {
+            List<Directory.Entry> myNewPeers = new LinkedList<>();
+            List<Directory.Entry> myUpdatedPeers = new LinkedList<>();
+            List<Directory.Entry> myDeadPeers = new LinkedList<>();
+
+            for (Change myChange : aChanges.values()) {
+                switch (myChange._kind) {
+                    case NEW : myNewPeers.add(myChange._entry); break;
+                    case UPDATED : myUpdatedPeers.add(myChange._entry); break;
+                    case DEAD : myDeadPeers.add(myChange._entry); break;
+                }
+            }
+
+            for (Directory.Listener l : _listeners) {
+                l.updated(_directory, myNewPeers, myUpdatedPeers, myDeadPeers);
+            }
+        }
+    }
+
+    private static class Change {
+        private final Kind _kind;
+        private final Directory.Entry _entry;
+
+        Change(Kind aKind, Directory.Entry anEntry) {
+            _kind = aKind;
+            _entry = anEntry;
+        }
+    }
+}
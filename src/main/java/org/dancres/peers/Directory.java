@@ -5,21 +5,31 @@ import com.google.gson.reflect.TypeToken;
 import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
+import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.metrics.Metrics;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.lang.reflect.Type;
+import java.net.URI;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Directory service that lives atop a set of peers. These peers are used to maintain the directory via gossip.
@@ -30,6 +40,14 @@ import java.util.concurrent.*;
  * <p>A directory service tracks information across all known peers. The information provided is entirely user-defined
  * via attributes. Liveness tests are supported via timestamps, versioning of attributes is encouraged.</p>
  *
+ * <p>Clients that don't take part in gossip can follow membership by long-polling
+ * <code>GET &lt;peer&gt;/directory/changes?born=&lt;born&gt;&amp;since=&lt;sequence&gt;&amp;wait=&lt;ms&gt;</code>. The
+ * response carries the directory's born time, the sequence number of the last change and the peers that were new,
+ * whose attributes changed or that died since the given sequence number (heartbeats alone are not changes). The
+ * response is sent as soon as there are changes or after the wait (default 30 seconds) with none. A first poll, or
+ * one that has fallen too far behind or follows a previous incarnation of the directory, is told to reset and
+ * given every peer as new.</p>
+ *
  * TODO: Add support for dead node elimination
  */
 public class Directory implements Peer.Service {
@@ -39,11 +57,318 @@ public class Directory implements Peer.Service {
         private final long _born;
         private final long _timestamp;
 
-        Entry(String aName, Map<String, String> anAttrs, long aTimestamp, long aBorn) {
+        /**
+         * The time, by the owning peer's clock, at which each attribute was last changed. An attribute that has been
+         * removed has a version but no value. <code>null</code> for entries from peers that don't version attributes.
+         */
+        private final Map<String, Long> _versions;
+
+        /**
+         * <code>0</code> for a complete entry. Otherwise the entry is partial, carrying only those attributes changed
+         * after this version, and can only be applied to an entry whose attributes are at least as recent.
+         */
+        private final long _base;
+
+        /**
+         * Local sequence number assigned when the entry was merged into this directory. Never transmitted, used to
+         * work out which entries a gossip partner has yet to see.
+         */
+        private final transient long _version;
+
+        /**
+         * Set for entries restored from a snapshot that have yet to be refreshed by gossip. Never transmitted.
+         */
+        private final transient boolean _suspect;
+
+        /**
+         * The local sequence number at which each attribute last changed, used to work out which attributes a gossip
+         * partner has yet to see. Never transmitted.
+         */
+        private final transient Map<String, Long> _changedAt;
+
+        /**
+         * The keys of the attributes changed by the merge that produced this entry. Never transmitted.
+         */
+        private final transient Set<String> _changed;
+
+        /**
+         * Create a complete, unversioned entry as a peer would publish it, e.g. to exercise a
+         * <code>FailureDetector</code>.
+         *
+         * @param aName is the name (address) of the peer
+         * @param anAttrs are the peer's attributes
+         * @param aTimestamp is the time at which the peer last updated the entry
+         * @param aBorn is the time at which the peer's directory was created
+         */
+        public Entry(String aName, Map<String, String> anAttrs, long aTimestamp, long aBorn) {
+            this(aName, anAttrs, null, aTimestamp, aBorn, 0);
+        }
+
+        Entry(String aName, Map<String, String> anAttrs, Map<String, Long> aVersions, long aTimestamp, long aBorn,
+              long aBase) {
+            this(aName, anAttrs, aVersions, aTimestamp, aBorn, aBase, 0, false, null, null);
+        }
+
+        Entry(String aName, Map<String, String> anAttrs, long aTimestamp, long aBorn, long aVersion,
+              boolean isSuspect) {
+            this(aName, anAttrs, null, aTimestamp, aBorn, 0, aVersion, isSuspect, null, null);
+        }
+
+        private Entry(String aName, Map<String, String> anAttrs, Map<String, Long> aVersions, long aTimestamp,
+                      long aBorn, long aBase, long aVersion, boolean isSuspect, Map<String, Long> aChangedAt,
+                      Set<String> aChanged) {
             _peerName = aName;
             _attributes = anAttrs;
+            _versions = aVersions;
             _timestamp = aTimestamp;
             _born = aBorn;
+            _base = aBase;
+            _version = aVersion;
+            _suspect = isSuspect;
+            _changedAt = aChangedAt;
+            _changed = aChanged;
+        }
+
+        /**
+         * Create the first entry for a peer in the directory, all of its attributes having changed
+         */
+        Entry(Entry anEntry, long aVersion) {
+            this(anEntry._peerName, anEntry._attributes, anEntry._versions, anEntry._timestamp, anEntry._born, 0,
+                    aVersion, false, changedAt(anEntry, aVersion), anEntry._attributes.keySet());
+        }
+
+        /**
+         * Copy an entry for reporting to listeners with the keys changed since the peer was last reported
+         */
+        Entry(Entry anEntry, Set<String> aChanged) {
+            this(anEntry._peerName, anEntry._attributes, anEntry._versions, anEntry._timestamp, anEntry._born,
+                    anEntry._base, anEntry._version, anEntry._suspect, anEntry._changedAt, aChanged);
+        }
+
+        /**
+         * Create the template for the owning peer's own entry, stamping each attribute added, removed or changed
+         * since the previous template.
+         *
+         * @param aPrevious is the previous template or <code>null</code> if there is none
+         * @param aStamp is the owning peer's time, more recent than any previous stamp
+         * @param aVersion is the local sequence number of the change
+         */
+        static Entry owned(Entry aPrevious, String aName, Map<String, String> anAttrs, long aBorn, long aStamp,
+                           long aVersion) {
+            Set<String> myChanged = (aPrevious == null) ? anAttrs.keySet() : changed(aPrevious._attributes, anAttrs);
+            Map<String, Long> myVersions = (aPrevious == null) ? new HashMap<String, Long>() :
+                    new HashMap<>(aPrevious._versions);
+            Map<String, Long> myChangedAt = (aPrevious == null) ? new HashMap<String, Long>() :
+                    new HashMap<>(aPrevious._changedAt);
+
+            for (String myKey : myChanged) {
+                myVersions.put(myKey, aStamp);
+                myChangedAt.put(myKey, aVersion);
+            }
+
+            return new Entry(aName, anAttrs, myVersions, aStamp, aBorn, 0, aVersion, false, myChangedAt, myChanged);
+        }
+
+        /**
+         * @return a copy of the owning peer's template entry with a fresh timestamp
+         */
+        Entry refresh(long aTimestamp) {
+            return new Entry(_peerName, _attributes, _versions, aTimestamp, _born, 0, _version, false, _changedAt,
+                    _changed);
+        }
+
+        private static Map<String, Long> changedAt(Entry anEntry, long aVersion) {
+            Map<String, Long> myChangedAt = new HashMap<>();
+
+            for (String myKey : anEntry._attributes.keySet())
+                myChangedAt.put(myKey, aVersion);
+
+            if (anEntry._versions != null)
+                for (String myKey : anEntry._versions.keySet())
+                    myChangedAt.put(myKey, aVersion);
+
+            return myChangedAt;
+        }
+
+        /**
+         * @return <code>true</code> if the update carries nothing the current entry doesn't already hold, as when a
+         * partner echoes back an entry it was sent.
+         */
+        static boolean unchanged(Entry aCurrent, Entry anUpdate) {
+            if ((aCurrent._suspect) || (aCurrent._born != anUpdate._born) ||
+                    (aCurrent._timestamp != anUpdate._timestamp))
+                return false;
+
+            if (! anUpdate.isPartial())
+                return (aCurrent._attributes.equals(anUpdate._attributes)) &&
+                        (Objects.equals(aCurrent._versions, anUpdate._versions));
+
+            if ((anUpdate._versions == null) || (aCurrent._versions == null))
+                return false;
+
+            for (Map.Entry<String, Long> kv : anUpdate._versions.entrySet()) {
+                Long myVersion = aCurrent._versions.get(kv.getKey());
+
+                if ((myVersion == null) || (myVersion < kv.getValue()))
+                    return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Create a successor to an entry from a more recent one, sharing its name and, if they're unchanged, its
+         * attributes such that a long-lived directory holds one copy of each rather than one per update. A partial
+         * update is applied on top of the current attributes.
+         *
+         * @return the successor or <code>null</code> if the update is partial and the current entry isn't recent
+         * enough (or is from a different incarnation of the peer) for it to be applied.
+         */
+        static Entry successor(Entry aCurrent, Entry anUpdate, long aVersion) {
+            boolean isSameIncarnation = (! aCurrent._suspect) && (aCurrent._born == anUpdate._born);
+
+            if (anUpdate.isPartial()) {
+                if ((! isSameIncarnation) || (anUpdate._versions == null) || (aCurrent._versions == null) ||
+                        (aCurrent._changedAt == null) || (aCurrent.getAttributesVersion() < anUpdate._base))
+                    return null;
+
+                return apply(aCurrent, anUpdate, aVersion);
+            }
+
+            if (! isSameIncarnation)
+                return new Entry(aCurrent._peerName, anUpdate._attributes, anUpdate._versions, anUpdate._timestamp,
+                        anUpdate._born, 0, aVersion, false, changedAt(anUpdate, aVersion),
+                        changed(aCurrent._attributes, anUpdate._attributes));
+
+            Set<String> myChanged = aCurrent._attributes.equals(anUpdate._attributes) ?
+                    Collections.<String>emptySet() : changed(aCurrent._attributes, anUpdate._attributes);
+            Map<String, Long> myVersions = ((anUpdate._versions != null) &&
+                    (anUpdate._versions.equals(aCurrent._versions))) ? aCurrent._versions : anUpdate._versions;
+
+            // An attribute may be re-versioned (e.g. removed again) without its value changing, a partner must still
+            // be sent the new version
+            //
+            Set<String> myStamped = new HashSet<>(myChanged);
+
+            if ((myVersions != null) && (myVersions != aCurrent._versions))
+                for (Map.Entry<String, Long> kv : myVersions.entrySet())
+                    if ((aCurrent._versions == null) || (! kv.getValue().equals(aCurrent._versions.get(kv.getKey()))))
+                        myStamped.add(kv.getKey());
+
+            Map<String, Long> myChangedAt = aCurrent._changedAt;
+
+            if (! myStamped.isEmpty()) {
+                myChangedAt = new HashMap<>(aCurrent._changedAt);
+
+                for (String myKey : myStamped)
+                    myChangedAt.put(myKey, aVersion);
+            }
+
+            return new Entry(aCurrent._peerName, myChanged.isEmpty() ? aCurrent._attributes : anUpdate._attributes,
+                    myVersions, anUpdate._timestamp, anUpdate._born, 0, aVersion, false, myChangedAt, myChanged);
+        }
+
+        /**
+         * Apply those attributes of a partial update that are more recent than the current ones
+         */
+        private static Entry apply(Entry aCurrent, Entry anUpdate, long aVersion) {
+            Map<String, String> myAttrs = null;
+            Map<String, Long> myVersions = null;
+            Map<String, Long> myChangedAt = null;
+            Set<String> myChanged = new HashSet<>();
+
+            for (Map.Entry<String, Long> kv : anUpdate._versions.entrySet()) {
+                String myKey = kv.getKey();
+                Long myCurrent = aCurrent._versions.get(myKey);
+
+                if ((myCurrent != null) && (myCurrent >= kv.getValue()))
+                    continue;
+
+                if (myVersions == null) {
+                    myAttrs = new HashMap<>(aCurrent._attributes);
+                    myVersions = new HashMap<>(aCurrent._versions);
+                    myChangedAt = new HashMap<>(aCurrent._changedAt);
+                }
+
+                String myValue = anUpdate._attributes.get(myKey);
+                String myPrevious = (myValue == null) ? myAttrs.remove(myKey) : myAttrs.put(myKey, myValue);
+
+                if ((myValue == null) ? (myPrevious != null) : (! myValue.equals(myPrevious)))
+                    myChanged.add(myKey);
+
+                myVersions.put(myKey, kv.getValue());
+                myChangedAt.put(myKey, aVersion);
+            }
+
+            // Nothing more recent, just a heartbeat
+            //
+            if (myVersions == null)
+                return new Entry(aCurrent._peerName, aCurrent._attributes, aCurrent._versions, anUpdate._timestamp,
+                        anUpdate._born, 0, aVersion, false, aCurrent._changedAt, Collections.<String>emptySet());
+
+            return new Entry(aCurrent._peerName, myChanged.isEmpty() ? aCurrent._attributes : myAttrs, myVersions,
+                    anUpdate._timestamp, anUpdate._born, 0, aVersion, false, myChangedAt, myChanged);
+        }
+
+        /**
+         * @return the keys of attributes that have been added, removed or changed
+         */
+        private static Set<String> changed(Map<String, String> aBefore, Map<String, String> anAfter) {
+            Set<String> myChanged = new HashSet<>();
+
+            for (Map.Entry<String, String> kv : anAfter.entrySet())
+                if (! kv.getValue().equals(aBefore.get(kv.getKey())))
+                    myChanged.add(kv.getKey());
+
+            for (String myKey : aBefore.keySet())
+                if (! anAfter.containsKey(myKey))
+                    myChanged.add(myKey);
+
+            return myChanged;
+        }
+
+        /**
+         * @param aSince is the local sequence number up to which a gossip partner has seen this directory
+         * @return this entry or, if the partner has seen an earlier copy of it, a partial entry carrying only the
+         * attributes changed since.
+         */
+        Entry since(long aSince) {
+            if ((aSince == 0) || (_versions == null) || (_changedAt == null))
+                return this;
+
+            Map<String, String> myAttrs = new HashMap<>();
+            Map<String, Long> myVersions = new HashMap<>();
+            long myBase = 0;
+
+            // Attributes that aren't versioned can't be sent partially
+            //
+            if (! _versions.keySet().containsAll(_attributes.keySet()))
+                return this;
+
+            for (Map.Entry<String, Long> kv : _versions.entrySet()) {
+                String myKey = kv.getKey();
+                long myVersion = kv.getValue();
+                Long myChangedAt = _changedAt.get(myKey);
+
+                if (myChangedAt == null)
+                    return this;
+
+                if (myChangedAt <= aSince) {
+                    myBase = Math.max(myBase, myVersion);
+                } else {
+                    myVersions.put(myKey, myVersion);
+
+                    if (_attributes.containsKey(myKey))
+                        myAttrs.put(myKey, _attributes.get(myKey));
+                }
+            }
+
+            // Partner hasn't seen any of the attributes
+            //
+            if (myBase == 0)
+                return this;
+
+            return new Entry(_peerName, myAttrs, myVersions, _timestamp, _born, myBase, _version, false, null, null);
         }
 
         public String getPeerName() {
@@ -58,10 +383,63 @@ public class Directory implements Peer.Service {
             return _attributes;
         }
 
+        /**
+         * @return the time, by the owning peer's clock, at which each attribute was last changed (including those
+         * since removed) or <code>null</code> if the owning peer doesn't version attributes.
+         */
+        public Map<String, Long> getAttributeVersions() {
+            return _versions;
+        }
+
+        /**
+         * @return the keys of attributes added, removed or changed. For entries passed to a <code>Listener</code>,
+         * the change since the peer was last reported (all keys for a new peer), otherwise the change made by the
+         * merge that produced the entry.
+         */
+        public Set<String> getChangedKeys() {
+            return (_changed == null) ? Collections.<String>emptySet() : Collections.unmodifiableSet(_changed);
+        }
+
         public long getBorn() {
             return _born;
         }
 
+        long getVersion() {
+            return _version;
+        }
+
+        /**
+         * @return <code>true</code> if the entry carries only some of the peer's attributes
+         */
+        boolean isPartial() {
+            return _base != 0;
+        }
+
+        /**
+         * @return the time, by the owning peer's clock, of the most recent change to attributes
+         */
+        long getAttributesVersion() {
+            long myLatest = 0;
+
+            if (_versions != null)
+                for (long myVersion : _versions.values())
+                    myLatest = Math.max(myLatest, myVersion);
+
+            return myLatest;
+        }
+
+        long getBase() {
+            return _base;
+        }
+
+        /**
+         * @return <code>true</code> if this entry was restored from a snapshot and has not been refreshed by gossip
+         * since, thus the peer may no longer be alive.
+         */
+        public boolean isSuspect() {
+            return _suspect;
+        }
+
         public boolean equals(Object anObject) {
             if (anObject instanceof Entry) {
                 Entry myOther = (Entry) anObject;
@@ -75,34 +453,113 @@ public class Directory implements Peer.Service {
 
         public String toString() {
             return "Directory.Entry: " + _peerName +
-                    " born: " + _born + " tstamp: " + _timestamp +
+                    " born: " + _born + " tstamp: " + _timestamp + (_suspect ? " suspect" : "") +
+                    (isPartial() ? " partial from: " + _base : "") +
                     " attributes:" + _attributes;
         }
     }
 
     private static final long DEFAULT_GOSSIP_PERIOD = 5000;
     private static final long DEFAULT_NODE_OVERDUE_TIME = 30000;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    private static final int DEFAULT_INTERNED_STRINGS = 8192;
     private static final String MOUNT_POINT = "/directory";
+    private static final String LANE = "directory";
+    private static final String SNAPSHOT_LANE = "directory.snapshot";
+    private static final String NOTIFY_LANE = "directory.notify";
+    private static final String FOLLOW_LANE = "directory.follow";
+    private static final String DIGEST_POINT = MOUNT_POINT + "/digest";
+    private static final String PUSH_POINT = MOUNT_POINT + "/push";
+    private static final String QUERY_POINT = MOUNT_POINT + "/query";
+    private static final String CHANGES_POINT = MOUNT_POINT + "/changes";
+    private static final int DEFAULT_CHANGE_LOG_SIZE = 4096;
+    private static final long DEFAULT_CHANGES_WAIT = 30000;
+    private static final String SWIM_POINT = MOUNT_POINT + "/swim";
+    private static final int DEFAULT_SWIM_HELPERS = 3;
+    private static final int DEFAULT_SUSPICION_PERIODS = 5;
+
+    /**
+     * Headers used to negotiate delta exchanges. A peer that doesn't understand them simply ignores them and
+     * falls back to full exchanges.
+     */
+    private static final String BORN_HEADER = "X-Directory-Born";
+    private static final String PARTNER_BORN_HEADER = "X-Directory-Partner-Born";
+    private static final String SINCE_HEADER = "X-Directory-Since";
+    private static final String VERSION_HEADER = "X-Directory-Version";
+    private static final String VERSIONED_HEADER = "X-Directory-Versioned";
+
+    /**
+     * The form of exchange used by <code>GossipTask</code>:
+     *
+     * <ul>
+     *     <li><code>FULL</code> - send the entire directory every round (the default).</li>
+     *     <li><code>DELTA</code> - send only those entries that have changed since the last successful exchange with
+     *     the selected partner, reverting to a full exchange if the partner is unknown or has restarted. Of an entry
+     *     the partner has seen before, only the attributes changed since are sent, provided the partner has said
+     *     (in its response to a previous exchange) that it supports partial entries.</li>
+     *     <li><code>DIGEST</code> - send a digest of peer names and timestamps, the partner responds with those
+     *     entries that are missing or stale in the digest and a list of entries it wants which are then pushed to it.
+     *     All partners must support this form of exchange.</li>
+     *     <li><code>SWIM</code> - rather than exchanging directories, probe one peer per period (indirectly via
+     *     helpers if a direct probe fails) and piggyback changes in membership on probe traffic. Peers that fail probes
+     *     are suspected and then declared dead if they don't refute the suspicion, time-based expiry of entries is
+     *     disabled. All partners must support this form of exchange.</li>
+     * </ul>
+     */
+    public enum Exchange {FULL, DELTA, DIGEST, SWIM}
 
     private static final Logger _logger = LoggerFactory.getLogger(Directory.class);
 
+    /**
+     * Gson instances are thread-safe and expensive to build, likewise the reflective type tokens
+     */
+    private static final Gson GSON = new Gson();
+    private static final Type DIGEST_TYPE = new TypeToken<Map<String, Long>>() {}.getType();
+
     private final PeerSet _peers;
+    private final PeerSelector _selector;
     private final Peer _peer;
     private final Peer.ServiceDispatcher _dispatcher;
-    private final long _birthTime = System.currentTimeMillis();
+    private final long _birthTime;
     private final List<AttributeProducer> _producers = new CopyOnWriteArrayList<>();
+    private volatile Produced _produced = null;
+
+    /**
+     * Template for this peer's own entry, with attribute versions, guarded by <code>stamp</code>
+     */
+    private volatile Entry _self = null;
+    private long _clock = 0;
     private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+    private final List<GossipListener> _gossipListeners = new CopyOnWriteArrayList<>();
+    private final ChangeNotifier _notifier;
     private final long _gossipPeriod;
-    private final long _nodeOverdueTime;
+    private final GossipScheduler _scheduler;
+    private final FailureDetector _detector;
+    private final AtomicLong _versions = new AtomicLong(0);
+    private final ExpiryIndex _expiries = new ExpiryIndex();
+    private final ConcurrentMap<String, Exchanged> _exchanged = new ConcurrentHashMap<>();
+    private volatile Exchange _exchange = Exchange.FULL;
+    private final GossipStatistics _statistics = new GossipStatistics();
+    private volatile int _fanout = 1;
+    private volatile long _exchangeTimeout = 0;
+    private final InFlight _inFlight = new InFlight(DEFAULT_MAX_IN_FLIGHT);
+    private final SwimProtocol _swim;
+    private volatile File _snapshotFile = null;
+    private volatile long _snapshotPeriod = 0;
+    private final List<String> _restored = new LinkedList<>();
 
-    private final Executor _notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
-        public Thread newThread(Runnable r) {
-            Thread myDaemon = new Thread(r);
+    /**
+     * Partners known to accept directories in binary form, all others are sent JSON
+     */
+    private final Set<String> _binaryPartners = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-            myDaemon.setDaemon(true);
-            return myDaemon;
-        }
-    });
+    /**
+     * Partners known to accept attribute versions and partial entries, all others are sent complete entries and the
+     * unversioned binary format
+     */
+    private final Set<String> _versionedPartners =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final RequestCompression _compression = new RequestCompression();
 
     public String getAddress() {
         return MOUNT_POINT;
@@ -124,6 +581,10 @@ public class Directory implements Peer.Service {
     }
 
     private final ConcurrentMap<String, Entry> _directory = new ConcurrentHashMap<>();
+    private final Interner _interner = new Interner(DEFAULT_INTERNED_STRINGS);
+    private final ChangeLog _changes;
+    private final AtomicReference<Feed> _lastFeed = new AtomicReference<>();
+    private final AttributeIndex _index = new AttributeIndex(_directory);
 
     /**
      * Creates a gossip-based directory on the specified peer (invokes <code>Peer.add</code> at construction).
@@ -143,208 +604,1351 @@ public class Directory implements Peer.Service {
      * @param aPeerSet is the set of peers that will co-operate in providing the directory service (which may be a
      *                 subset of the peers registered with and using the directory service).
      * @param aGossipPeriod the period of time in milliseconds between gossip rounds.
+     * @param aNodeOverdueTime the period of time in milliseconds after which a peer that has not updated its entry is
+     *                         considered dead.
      */
     public Directory(Peer aPeer, PeerSet aPeerSet, long aGossipPeriod, long aNodeOverdueTime) {
+        this(aPeer, aPeerSet, aGossipPeriod, new OverdueDetector(aNodeOverdueTime));
+    }
+
+    /**
+     * Creates a gossip-based directory on the specified peer (invokes <code>Peer.add</code> at construction).
+     *
+     * @param aPeer is the peer that will be advertised by this directory service.
+     * @param aPeerSet is the set of peers that will co-operate in providing the directory service (which may be a
+     *                 subset of the peers registered with and using the directory service).
+     * @param aGossipPeriod the period of time in milliseconds between gossip rounds.
+     * @param aDetector decides when a peer that has not updated its entry is considered dead.
+     */
+    public Directory(Peer aPeer, PeerSet aPeerSet, long aGossipPeriod, FailureDetector aDetector) {
         _peers = aPeerSet;
         _peer = aPeer;
+        _birthTime = now();
+        _selector = new PeerSelector(aPeerSet, aPeer.getURI(), PeerSelector.Strategy.ROUND_ROBIN);
         _dispatcher = new Dispatcher();
         _peer.add(this);
         _gossipPeriod = aGossipPeriod;
-        _nodeOverdueTime = aNodeOverdueTime;
+        _detector = aDetector;
+        _scheduler = new GossipScheduler(aPeer.getScheduler(), LANE, new GossipTask(), _statistics, aGossipPeriod);
+        _notifier = new ChangeNotifier(this, aPeer.getScheduler(), NOTIFY_LANE, _listeners, _gossipListeners);
+        _changes = new ChangeLog(DEFAULT_CHANGE_LOG_SIZE, aPeer.getScheduler().lane(FOLLOW_LANE));
+        _swim = new SwimProtocol(this, aPeer, aPeerSet, _statistics, SWIM_POINT, _birthTime);
+        _swim.configure(DEFAULT_SWIM_HELPERS, aGossipPeriod / 2, DEFAULT_SUSPICION_PERIODS * aGossipPeriod);
     }
 
     /**
-     * Ask the directory service to commence publishing of local peer details and collection of data about other peers.
+     * Select the form of exchange to use when gossiping. Peers running <code>FULL</code> and <code>DELTA</code>
+     * interoperate, <code>DIGEST</code> and <code>SWIM</code> must be used by all peers.
+     *
+     * @param anExchange is the form of exchange to use, should be set prior to invoking <code>start</code>.
      */
-    public void start() {
-        _peer.getTimer().schedule(new GossipTask(), 0, _gossipPeriod);
+    public void setExchange(Exchange anExchange) {
+        _exchange = anExchange;
     }
 
     /**
-     * @return the attributes associated with this peer
+     * Configure the number of peers contacted in each gossip round. Exchanges with each peer proceed concurrently,
+     * higher fan-out trades bandwidth for faster propagation.
+     *
+     * @param aFanout is the number of peers to contact per round (default 1).
+     * @param aMaxInFlight is the maximum number of exchanges that may be outstanding at once. Exchanges beyond this
+     *                     limit are skipped for the round (default 8).
+     * @param aTimeout is the time in milliseconds after which an exchange is abandoned, <code>0</code> leaves it to
+     *                 the client default. Should be set prior to invoking <code>start</code>.
      */
-    public Map<String, String> getAttributes() {
-        HashMap<String, String> myAttrs = new HashMap<>();
+    public void setFanout(int aFanout, int aMaxInFlight, long aTimeout) {
+        if ((aFanout < 1) || (aMaxInFlight < 1))
+            throw new IllegalArgumentException("Fanout and in-flight limit must be at least 1");
 
-        for (AttributeProducer ap : _producers) {
-            myAttrs.putAll(ap.produce());
-        }
+        _fanout = aFanout;
+        _inFlight.setLimit(aMaxInFlight);
+        _exchangeTimeout = aTimeout;
+    }
 
-        return myAttrs;
+    /**
+     * Select the means by which gossip partners are chosen each round.
+     *
+     * @param aStrategy is the means of selection (default <code>ROUND_ROBIN</code> such that every peer is contacted
+     *                  within N rounds).
+     */
+    public void setSelection(PeerSelector.Strategy aStrategy) {
+        _selector.setStrategy(aStrategy);
     }
 
     /**
-     * @return a directory of known peers
+     * Configure the <code>SWIM</code> form of exchange.
+     *
+     * @param aHelpers is the number of peers asked to probe a peer that fails to answer a direct probe (default 3).
+     * @param aProbeTimeout is the time in milliseconds to wait for an answer to a direct probe (default half the gossip
+     *                      period).
+     * @param aSuspicionTimeout is the time in milliseconds a suspected peer has to refute suspicion before being
+     *                          declared dead (default five gossip periods).
      */
-    public Map<String, Entry> getDirectory() {
-        HashMap<String, Entry> myEntries = new HashMap<>(_directory);
+    public void setSwim(int aHelpers, long aProbeTimeout, long aSuspicionTimeout) {
+        _swim.configure(aHelpers, aProbeTimeout, aSuspicionTimeout);
+    }
 
-        myEntries.put(_peer.getAddress(),
-                new Entry(_peer.getAddress(),
-                        getAttributes(),
-                        System.currentTimeMillis(),
-                        _birthTime));
+    /**
+     * Make the gossip period adaptive. A change in local attributes or in the directory triggers a round almost
+     * immediately and resets the period to the minimum, while the directory is stable the period doubles after each
+     * round up to the maximum. The maximum should be comfortably less than the node overdue time otherwise stable
+     * peers will be considered dead. Not applicable to the <code>SWIM</code> exchange which probes at a fixed period.
+     *
+     * @param aMinimum is the period in milliseconds following a change
+     * @param aMaximum is the period in milliseconds once the directory has been stable for a while. By default both
+     *                 are the gossip period passed at construction. Should be set prior to invoking <code>start</code>.
+     */
+    public void setAdaptivePeriod(long aMinimum, long aMaximum) {
+        if ((aMinimum < 1) || (aMaximum < aMinimum))
+            throw new IllegalArgumentException("Minimum must be at least 1 and no greater than maximum");
 
-        return myEntries;
+        _scheduler.setPeriod(aMinimum, aMaximum);
     }
 
-    public void add(AttributeProducer aProducer) {
-        _producers.add(aProducer);
+    /**
+     * Inform the directory that local attributes have changed such that, if the gossip period is adaptive, they are
+     * gossiped promptly rather than at the end of the current period.
+     */
+    public void attributesChanged() {
+        _scheduler.changed();
     }
 
-    public void add(Listener aListener) {
-        _listeners.add(aListener);
+    /**
+     * Configure the delay between a merge and notification of listeners. Changes arising from merges within this
+     * window are coalesced into a single notification, trading latency for fewer listener invocations.
+     *
+     * @param aWindow is the delay in milliseconds (default 0).
+     */
+    public void setNotificationWindow(long aWindow) {
+        _notifier.setWindow(aWindow);
     }
 
-    private void merge(Map<String, Entry> aRemoteDirectory) {
-        final List<Entry> myUpdatedPeers = new LinkedList<>();
-        final List<Entry> myNewPeers = new LinkedList<>();
+    /**
+     * Configure compression of the directories and digests sent to partners, which is used only with partners that
+     * advertise they accept it (see <code>RequestCompression</code>).
+     *
+     * @param aThreshold is the size in bytes above which bodies are compressed, less than <code>0</code> disables
+     *                   compression (default <code>RequestCompression.DEFAULT_THRESHOLD</code>).
+     */
+    public void setCompression(int aThreshold) {
+        _compression.setThreshold(aThreshold);
+    }
 
-        for (Map.Entry<String, Directory.Entry> kv : aRemoteDirectory.entrySet()) {
+    /**
+     * Record gossip activity with the specified metrics (see <code>GossipStatistics</code> for the metrics recorded)
+     * rather than a private set. Should be set prior to invoking <code>start</code>. Directories sharing the metrics
+     * in this way record into the same counters and histograms, see <code>setMetrics(Metrics, String)</code> to keep
+     * them apart.
+     */
+    public void setMetrics(Metrics aMetrics) {
+        setMetrics(aMetrics, GossipStatistics.DEFAULT_PREFIX);
+    }
 
-            // Ignore my own directory
-            //
-            if (!kv.getKey().equals(_peer.getAddress())) {
-                boolean mySuccess = false;
+    /**
+     * Record gossip activity with the specified metrics under names starting with the specified prefix rather than
+     * <code>directory</code>, such that several directories (e.g. of co-located services) can share the metrics.
+     * Should be set prior to invoking <code>start</code>.
+     *
+     * @param aPrefix is prepended to the name of each metric, for example the peer's address.
+     */
+    public void setMetrics(Metrics aMetrics, String aPrefix) {
+        _statistics.bind(aMetrics, aPrefix);
+    }
 
-                do {
-                    Entry myCurrent = _directory.get(kv.getKey());
+    /**
+     * @return statistics describing gossip activity for this directory
+     */
+    public GossipStatistics getStatistics() {
+        return _statistics;
+    }
 
-                    if (myCurrent == null) {
+    /**
+     * Ask the directory service to commence publishing of local peer details and collection of data about other peers.
+     */
+    public void start() {
+        announceRestored();
 
-                        if (_directory.putIfAbsent(kv.getKey(), kv.getValue()) == null) {
-                            mySuccess = true;
-                            myNewPeers.add(kv.getValue());
-                        }
+        if (_exchange == Exchange.SWIM)
+            _scheduler.setPeriod(_gossipPeriod, _gossipPeriod);
 
-                    } else if (myCurrent.getTimestamp() <= kv.getValue().getTimestamp()) {
+        _scheduler.start();
 
-                        if (_directory.replace(kv.getKey(), myCurrent, kv.getValue())) {
-                            mySuccess = true;
-                            myUpdatedPeers.add(kv.getValue());
-                        }
+        if (_snapshotFile != null)
+            _peer.getScheduler().lane(SNAPSHOT_LANE).schedule(new SnapshotTask(), _snapshotPeriod, _snapshotPeriod,
+                    0);
+    }
 
-                    } else {
-                        break;
-                    }
-                } while (! mySuccess);
-            }
+    /**
+     * Restore the directory from a snapshot (if present) and, once started, periodically snapshot the directory to
+     * the same file. Restored entries are marked as suspect and are not passed on to other peers, they are reported to
+     * listeners as new peers when <code>start</code> is invoked. A restored entry is replaced when gossip yields a more
+     * recent one and is otherwise considered dead once the grace period has passed (or, for the <code>SWIM</code>
+     * exchange which should be selected first, once it fails to answer probes).
+     *
+     * @param aFile is the file to restore from and snapshot to. A corrupt snapshot is ignored.
+     * @param aPeriod is the time in milliseconds between snapshots
+     * @param aGrace is the time in milliseconds to wait for gossip to refresh a restored entry. Should be set prior to
+     *               invoking <code>start</code>.
+     */
+    public void enableSnapshots(File aFile, long aPeriod, long aGrace) {
+        _snapshotFile = aFile;
+        _snapshotPeriod = aPeriod;
+
+        List<Entry> mySnapshot;
+
+        try {
+            mySnapshot = DirectorySnapshot.read(aFile);
+        } catch (IOException anIOE) {
+            _logger.warn("Couldn't restore snapshot: " + aFile, anIOE);
+            return;
         }
 
-        // Hunt down dead nodes
-        //
-        final List<Entry> myDeadPeers = new LinkedList<>();
+        long myDeadline = now() + aGrace;
 
-        for (Map.Entry<String, Entry> kv : _directory.entrySet()) {
-            _logger.debug("Dead node check: " + kv.getKey() + " -> " + kv.getValue());
-            _logger.debug("Dead node check time: " + kv.getValue().getTimestamp() + ", " + System.currentTimeMillis());
+        for (Entry myEntry : mySnapshot) {
+            if (myEntry.getPeerName().equals(_peer.getAddress()))
+                continue;
 
-            if ((kv.getValue().getTimestamp() + _nodeOverdueTime) < System.currentTimeMillis()) {
-                _logger.debug("Removing: " + kv.getKey());
+            // Restored entries have version 0 and thus will not be sent to gossip partners
+            //
+            Entry myRestored = new Entry(myEntry.getPeerName(), myEntry.getAttributes(), myEntry.getTimestamp(),
+                    myEntry.getBorn(), 0, true);
 
-                _directory.remove(kv.getKey());
-                myDeadPeers.add(kv.getValue());
-            }
-        }
+            if (_directory.putIfAbsent(myRestored.getPeerName(), myRestored) == null) {
+                _index.refresh(myRestored.getPeerName());
 
-        _notifier.execute(new Runnable() {
-            public void run() {
-                for (Listener l : _listeners) {
-                    l.updated(Directory.this, myNewPeers, myUpdatedPeers, myDeadPeers);
+                if (_exchange != Exchange.SWIM)
+                    _expiries.schedule(myRestored, myDeadline);
+
+                synchronized(_restored) {
+                    _restored.add(myRestored.getPeerName());
                 }
             }
-        });
+        }
+
+        _logger.info("Restored " + mySnapshot.size() + " entries from: " + aFile);
     }
 
-    private class Dispatcher implements Peer.ServiceDispatcher {
-        public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
-            if (aRequest.getMethod().equals(HttpMethod.POST)) {
+    /**
+     * Report entries restored from a snapshot as new to listeners. The current entry is reported in case gossip has
+     * already refreshed it.
+     */
+    private void announceRestored() {
+        List<Entry> myRestored = new LinkedList<>();
 
-                Map<String, Entry> myDirectorySnapshot = getDirectory();
-                String myJsonRemoteDir = aRequest.getContent().toString(CharsetUtil.UTF_8);
+        synchronized(_restored) {
+            for (String myName : _restored) {
+                Entry myEntry = _directory.get(myName);
 
-                _logger.debug("Received a directory " + myJsonRemoteDir);
+                if (myEntry != null)
+                    myRestored.add(myEntry);
+            }
 
-                Gson myGson = new Gson();
-                Type myMapType = new TypeToken<Map<String, Entry>>() {}.getType();
-                Map<String, Entry> myRemoteDir = myGson.fromJson(myJsonRemoteDir, myMapType);
+            _restored.clear();
+        }
 
-                _logger.debug("Unpacked: " + myRemoteDir);
+        if (! myRestored.isEmpty()) {
+            _notifier.merged(myRestored, Collections.<Entry>emptyList(), Collections.<Entry>emptyList());
+            _changes.append(myRestored, Collections.<Entry>emptyList(), Collections.<Entry>emptyList());
+        }
+    }
 
-                merge(myRemoteDir);
+    /**
+     * @return the (unmodifiable) attributes associated with this peer. Attributes from a
+     * <code>VersionedAttributeProducer</code> are cached until its version changes.
+     */
+    public Map<String, String> getAttributes() {
+        AttributeProducer[] myProducers = _producers.toArray(new AttributeProducer[0]);
+        Produced myCached = _produced;
+        Produced myProduced = new Produced(myProducers);
+        boolean isChanged = (myCached == null) || (myCached.size() != myProducers.length);
+
+        for (int i = 0; i < myProducers.length; i++) {
+            AttributeProducer myProducer = myProducers[i];
+
+            if (myProducer instanceof VersionedAttributeProducer) {
+                // Obtain the version ahead of producing such that a concurrent change is caught next time around
+                //
+                long myVersion = ((VersionedAttributeProducer) myProducer).getVersion();
+                Map<String, String> myAttrs = (myCached == null) ? null : myCached.find(myProducer, myVersion);
+
+                if (myAttrs == null) {
+                    myAttrs = myProducer.produce();
+                    isChanged = true;
+                } else if (myCached.indexOf(myProducer) != i) {
+                    isChanged = true;
+                }
 
-                aResponse.setContent(ChannelBuffers.copiedBuffer(myGson.toJson(myDirectorySnapshot),
-                        CharsetUtil.UTF_8));
-                aResponse.setStatus(HttpResponseStatus.OK);
+                myProduced.set(i, myVersion, myAttrs);
             } else {
-                aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+                myProduced.set(i, 0, myProducer.produce());
+                isChanged = true;
             }
         }
+
+        if (! isChanged)
+            return myCached.getAttributes();
+
+        if ((myCached == null) || (! myCached.getAttributes().equals(myProduced.getAttributes()))) {
+            Entry mySelf = stamp(myProduced.getAttributes());
+
+            _scheduler.changed();
+
+            if (myCached != null)
+                _changes.append(Collections.<Entry>emptyList(), Collections.singletonList(
+                        mySelf.refresh(now())), Collections.<Entry>emptyList());
+        }
+
+        _produced = myProduced;
+        return myProduced.getAttributes();
     }
 
-    private class GossipTask extends TimerTask {
-        public void run() {
-            final Gson myGson = new Gson();
-            AsyncHttpClient myClient = _peer.getClient();
+    /**
+     * @return a directory of known peers, including those restored from a snapshot
+     */
+    public Map<String, Entry> getDirectory() {
+        HashMap<String, Entry> myEntries = new HashMap<>(_directory);
 
-            try {
-                myClient.preparePost(PeerSets.randomSelect(_peers, _peer.getURI()).toString() +
-                        MOUNT_POINT).setBody(
-                        myGson.toJson(getDirectory())).execute(new AsyncCompletionHandler<Response>() {
+        myEntries.put(_peer.getAddress(), self());
+
+        return myEntries;
+    }
 
-                    public Response onCompleted(Response aResponse) throws Exception {
-                        _logger.debug("Response status: " + aResponse.getStatusCode());
+    /**
+     * @param aSince is the version after which entries are of interest, <code>0</code> yields all entries other than
+     *               those restored from a snapshot (which are version <code>0</code>).
+     * @return the entries merged into the directory after <code>aSince</code> along with the entry for this peer,
+     * those with versioned attributes that were also present at <code>aSince</code> being partial.
+     */
+    Map<String, Entry> getDirectory(long aSince) {
+        HashMap<String, Entry> myEntries = new HashMap<>();
 
-                        // Give up if we didn't get a positive answer
-                        //
-                        if (aResponse.getStatusCode() != 200) {
-                            _logger.debug("No directory - dead node run");
+        for (Entry myEntry : entries(aSince))
+            myEntries.put(myEntry.getPeerName(), myEntry);
 
-                            // Force a dead-node cycle, even though there is no directory to merge
-                            //
-                            merge(new HashMap<String, Entry>());
-                            return aResponse;
-                        }
+        return myEntries;
+    }
 
-                        Type myMapType = new TypeToken<Map<String, Entry>>() {}.getType();
-                        String myResponseDir = aResponse.getResponseBody();
+    /**
+     * As for <code>getDirectory(long)</code> but the entries are drawn from the directory as they are iterated
+     * rather than copied up front.
+     */
+    Iterable<Entry> entries(long aSince) {
+        return entries(aSince, true);
+    }
 
-                        _logger.debug("Received directory " + myResponseDir);
+    /**
+     * @param isPartial indicates whether entries may be partial, otherwise they're complete (though still only those
+     *                  merged after <code>aSince</code>) for a partner that doesn't support partial entries.
+     */
+    Iterable<Entry> entries(final long aSince, final boolean isPartial) {
+        return new Iterable<Entry>() {
+            public Iterator<Entry> iterator() {
+                final Iterator<Entry> myEntries = _directory.values().iterator();
 
-                        try {
-                            Map<String, Entry> myRemoteDir = myGson.fromJson(myResponseDir, myMapType);
+                return new Iterator<Entry>() {
+                    private Entry _next = null;
+                    private boolean _selfDone = false;
 
-                            _logger.debug("Unpacked: " + myRemoteDir);
+                    public boolean hasNext() {
+                        while ((_next == null) && (myEntries.hasNext())) {
+                            Entry myEntry = myEntries.next();
 
-                            merge(myRemoteDir);
+                            if (myEntry.getVersion() > aSince)
+                                _next = isPartial ? myEntry.since(aSince) : myEntry;
+                        }
 
-                        } catch (Exception anE) {
-                            _logger.error("Error in unpack", anE);
+                        if ((_next == null) && (! _selfDone)) {
+                            _next = isPartial ? self().since(aSince) : self();
+                            _selfDone = true;
                         }
 
-                        return aResponse;
+                        return _next != null;
+                    }
+
+                    public Entry next() {
+                        if (! hasNext())
+                            throw new NoSuchElementException();
+
+                        Entry myNext = _next;
+
+                        _next = null;
+                        return myNext;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
                     }
-                });
-            } catch (IOException anIOE) {
-                _logger.error("Received exception", anIOE);
+                };
             }
-        }
+        };
     }
 
     /**
-     * Attributes to be published in the <code>Directory</code> of a particular peer are supplied by instances of
-     * <code>AttributeProducer</code>. Typically there'd be one of these per network service running on the peer.
+     * @return the current time according to the peer's scheduler, from which entries are timestamped and liveness is
+     * judged such that a directory driven by a virtual scheduler sees time pass as its gossip rounds do.
      */
-    public interface AttributeProducer {
-        Map<String, String> produce();
+    private long now() {
+        return _peer.getScheduler().now();
+    }
+
+    private Entry self() {
+        getAttributes();
+
+        return _self.refresh(now());
     }
 
     /**
-     * Implementors of this interface will receive information about changes in the <code>Directory</code> membership.
-     * Specifically when new nodes appear, existing nodes update their attributes or nodes disappear.
+     * Version those of this peer's attributes that have changed. Versions are taken from a clock that never goes
+     * backwards such that a partner can always tell which of two copies of an attribute is the more recent.
+     *
+     * @return the template for this peer's own entry
      */
-    public interface Listener {
-        public void updated(Directory aDirectory, List<Entry> aNewPeers, List<Entry> anUpdatedPeers,
-                            List<Entry> aDeadPeers);
+    private synchronized Entry stamp(Map<String, String> anAttrs) {
+        Entry myPrevious = _self;
+
+        if ((myPrevious != null) && (myPrevious.getAttributes().equals(anAttrs)))
+            return myPrevious;
+
+        _clock = Math.max(now(), _clock + 1);
+        _self = Entry.owned(myPrevious, _peer.getAddress(), anAttrs, _birthTime, _clock, _versions.incrementAndGet());
+
+        return _self;
+    }
+
+    /**
+     * Find the peers (including this one) that have an attribute with the specified value. Cost is proportional to
+     * the number of matches rather than the size of the directory.
+     *
+     * @param aKey is the name of the attribute
+     * @param aValue is the value the attribute must have
+     * @return the entries of the matching peers keyed by peer name
+     */
+    public Map<String, Entry> find(String aKey, String aValue) {
+        HashMap<String, Entry> myEntries = new HashMap<>();
+
+        for (String myName : _index.find(aKey, aValue)) {
+            Entry myEntry = _directory.get(myName);
+
+            // Index may have been changed since find, re-check against the current entry
+            //
+            if ((myEntry != null) && (aValue.equals(myEntry.getAttributes().get(aKey))))
+                myEntries.put(myName, myEntry);
+        }
+
+        if (aValue.equals(getAttributes().get(aKey)))
+            myEntries.put(_peer.getAddress(), self());
+
+        return myEntries;
+    }
+
+    public void add(AttributeProducer aProducer) {
+        _producers.add(aProducer);
+    }
+
+    public void add(Listener aListener) {
+        _listeners.add(aListener);
+    }
+
+    public void add(GossipListener aListener) {
+        _gossipListeners.add(aListener);
+    }
+
+    Entry get(String aPeerName) {
+        return _directory.get(aPeerName);
+    }
+
+    int size() {
+        return _directory.size();
+    }
+
+    /**
+     * @return the names of the peers in the directory, excluding ourselves
+     */
+    Set<String> names() {
+        return new HashSet<>(_directory.keySet());
+    }
+
+    /**
+     * Remove an entry, notifying listeners of the peer's death, provided it hasn't been replaced in the meantime.
+     */
+    void remove(Entry anEntry) {
+        if (_directory.remove(anEntry.getPeerName(), anEntry)) {
+            _index.refresh(anEntry.getPeerName());
+            _detector.forget(anEntry.getPeerName());
+            _notifier.merged(Collections.<Entry>emptyList(), Collections.<Entry>emptyList(),
+                    Collections.singletonList(anEntry));
+            _changes.append(Collections.<Entry>emptyList(), Collections.<Entry>emptyList(),
+                    Collections.singletonList(anEntry));
+        }
+    }
+
+    void merge(Map<String, Entry> aRemoteDirectory) {
+        merge(aRemoteDirectory.values().iterator());
+    }
+
+    /**
+     * Merge entries one at a time as they are produced by the iterator (e.g. as they are decoded). Should the iterator
+     * fail, the entries merged up to that point are retained and reported to listeners.
+     *
+     * @return the number of partial entries that couldn't be applied because they were sent on the basis of a copy
+     * of the entry that this directory no longer holds (e.g. the peer has been considered dead in the meantime).
+     */
+    int merge(Iterator<Entry> aRemoteEntries) {
+        List<Entry> myUpdatedPeers = new LinkedList<>();
+        List<Entry> myNewPeers = new LinkedList<>();
+        List<Entry> myChangedPeers = new LinkedList<>();
+        long myNow = now();
+        long myStart = System.nanoTime();
+        int myInapplicable = 0;
+
+        try {
+            while (aRemoteEntries.hasNext()) {
+                Entry myRemote = aRemoteEntries.next();
+
+                // Ignore my own entry
+                //
+                if ((myRemote == null) || (myRemote.getPeerName().equals(_peer.getAddress())))
+                    continue;
+
+                boolean mySuccess = false;
+
+                do {
+                    Entry myCurrent = _directory.get(myRemote.getPeerName());
+
+                    /*
+                     * Version is assigned ahead of the entry becoming visible so a concurrent delta may miss it.
+                     * That's harmless as the entry's owner will refresh it, causing it to be merged and sent again.
+                     */
+                    if (myCurrent == null) {
+                        // Can't build an entry from some of its attributes
+                        //
+                        if (myRemote.isPartial()) {
+                            ++myInapplicable;
+                            break;
+                        }
+
+                        Entry myNew = new Entry(myRemote, _versions.incrementAndGet());
+
+                        if (_directory.putIfAbsent(myRemote.getPeerName(), myNew) == null) {
+                            mySuccess = true;
+                            _index.refresh(myRemote.getPeerName());
+                            myNewPeers.add(myNew);
+
+                            if (_exchange != Exchange.SWIM)
+                                _expiries.schedule(myNew, _detector.deadline(myNew));
+
+                            _statistics.propagated(myNow - myNew.getTimestamp());
+                        }
+
+                    } else if (myCurrent.getTimestamp() <= myRemote.getTimestamp()) {
+                        // Re-versioning an entry we already hold would have it sent in every subsequent delta
+                        //
+                        if (Entry.unchanged(myCurrent, myRemote))
+                            break;
+
+                        Entry myNew = Entry.successor(myCurrent, myRemote, _versions.incrementAndGet());
+
+                        if (myNew == null) {
+                            ++myInapplicable;
+                            break;
+                        }
+
+                        if (_directory.replace(myRemote.getPeerName(), myCurrent, myNew)) {
+                            mySuccess = true;
+                            _index.refresh(myRemote.getPeerName());
+                            myUpdatedPeers.add(myNew);
+
+                            if (_exchange != Exchange.SWIM)
+                                _expiries.schedule(myNew, _detector.deadline(myNew));
+
+                            // Most updates are heartbeats, only a change in attributes warrants gossiping sooner
+                            //
+                            if (! myNew.getChangedKeys().isEmpty())
+                                myChangedPeers.add(myNew);
+
+                            if (myCurrent.getTimestamp() < myNew.getTimestamp())
+                                _statistics.propagated(myNow - myNew.getTimestamp());
+                        }
+
+                    } else {
+                        break;
+                    }
+                } while (! mySuccess);
+            }
+        } finally {
+            // Hunt down dead nodes, an expired entry that's since been replaced will have been rescheduled
+            //
+            List<Entry> myDeadPeers = new LinkedList<>();
+
+            for (Entry myExpired : _expiries.expired(myNow)) {
+                if (_directory.remove(myExpired.getPeerName(), myExpired)) {
+                    _logger.debug("Removing: " + myExpired.getPeerName());
+
+                    _index.refresh(myExpired.getPeerName());
+                    _detector.forget(myExpired.getPeerName());
+                    myDeadPeers.add(myExpired);
+                }
+            }
+
+            if ((! myChangedPeers.isEmpty()) || (! myNewPeers.isEmpty()) || (! myDeadPeers.isEmpty()))
+                _scheduler.changed();
+
+            if (myInapplicable != 0)
+                _logger.debug("Couldn't apply partial entries: " + myInapplicable);
+
+            _notifier.merged(myNewPeers, myUpdatedPeers, myDeadPeers);
+            _changes.append(myNewPeers, myChangedPeers, myDeadPeers);
+            _statistics.merged((System.nanoTime() - myStart) / 1000, myNewPeers.size(), myUpdatedPeers.size(),
+                    myDeadPeers.size());
+        }
+
+        return myInapplicable;
+    }
+
+    /**
+     * Record the outcome of a successful delta exchange with a partner such that the next exchange can be limited to
+     * the entries that have changed in the interim.
+     *
+     * @param aPartner is the address of the partner
+     * @param aLast is the record of the previous exchange with the partner or <code>null</code> if there was none
+     * @param aSent is the version of our directory that was sent to the partner
+     * @param aResponse is the partner's response
+     */
+    private void exchanged(String aPartner, Exchanged aLast, long aSent, Response aResponse) {
+        String myBorn = aResponse.getHeader(BORN_HEADER);
+        String myVersion = aResponse.getHeader(VERSION_HEADER);
+
+        // Partner doesn't do deltas, stick to full exchanges
+        //
+        if ((myBorn == null) || (myVersion == null)) {
+            _exchanged.remove(aPartner);
+            return;
+        }
+
+        long myPartnerBorn = Long.parseLong(myBorn);
+
+        // If the partner has restarted it has lost what we previously sent, next time we must send everything
+        //
+        long mySent = ((aLast == null) || (aLast.getBorn() == myPartnerBorn)) ? aSent : 0;
+
+        _exchanged.put(aPartner, new Exchanged(myPartnerBorn, Long.parseLong(myVersion), mySent));
+    }
+
+    /**
+     * Record of the last successful delta exchange with a partner.
+     */
+    private static class Exchanged {
+        private final long _born;
+        private final long _received;
+        private final long _sent;
+
+        /**
+         * @param aBorn is the birth time of the partner, used to detect restarts
+         * @param aReceived is the version of the partner's directory we have received
+         * @param aSent is the version of our directory the partner has received
+         */
+        Exchanged(long aBorn, long aReceived, long aSent) {
+            _born = aBorn;
+            _received = aReceived;
+            _sent = aSent;
+        }
+
+        long getBorn() {
+            return _born;
+        }
+
+        long getReceived() {
+            return _received;
+        }
+
+        long getSent() {
+            return _sent;
+        }
+    }
+
+    /**
+     * The reply to a digest: the entries the digest lacks or holds stale copies of and the names of the entries that
+     * are newer in the digest than locally.
+     */
+    private static class Reconciliation {
+        private final Map<String, Entry> _entries;
+        private final Set<String> _wanted;
+
+        Reconciliation(Map<String, Entry> anEntries, Set<String> aWanted) {
+            _entries = anEntries;
+            _wanted = aWanted;
+        }
+
+        Map<String, Entry> getEntries() {
+            return _entries;
+        }
+
+        Set<String> getWanted() {
+            return _wanted;
+        }
+    }
+
+    /**
+     * @return a digest of peer names and timestamps for the current directory
+     */
+    private Map<String, Long> digest() {
+        Map<String, Long> myDigest = new HashMap<>();
+
+        for (Entry myEntry : entries(0))
+            myDigest.put(myEntry.getPeerName(), myEntry.getTimestamp());
+
+        return myDigest;
+    }
+
+    /**
+     * @param aDigest is the digest received from a partner
+     * @return the entries the partner is missing or has stale copies of and the names of those we are missing or have
+     * stale copies of.
+     */
+    private Reconciliation reconcile(Map<String, Long> aDigest) {
+        Map<String, Entry> myDirectory = getDirectory(0);
+        Map<String, Entry> myEntries = new HashMap<>();
+        Set<String> myWanted = new HashSet<>();
+
+        for (Entry myEntry : myDirectory.values()) {
+            Long myTheirs = aDigest.get(myEntry.getPeerName());
+
+            if ((myTheirs == null) || (myTheirs < myEntry.getTimestamp()))
+                myEntries.put(myEntry.getPeerName(), myEntry);
+        }
+
+        for (Map.Entry<String, Long> kv : aDigest.entrySet()) {
+            Entry myOurs = myDirectory.get(kv.getKey());
+
+            if ((myOurs == null) || (myOurs.getTimestamp() < kv.getValue()))
+                myWanted.add(kv.getKey());
+        }
+
+        return new Reconciliation(myEntries, myWanted);
+    }
+
+    private class Dispatcher implements Peer.ServiceDispatcher {
+        public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+            if (aRequest.getMethod().equals(HttpMethod.GET) && aServicePath.startsWith(QUERY_POINT)) {
+                Map<String, List<String>> myParams = new QueryStringDecoder(aRequest.getUri()).getParameters();
+
+                if ((! myParams.containsKey("key")) || (! myParams.containsKey("value"))) {
+                    aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+                } else {
+                    Map<String, Entry> myMatches =
+                            find(myParams.get("key").get(0), myParams.get("value").get(0));
+
+                    aResponse.setContent(ChannelBuffers.copiedBuffer(GSON.toJson(myMatches),
+                            CharsetUtil.UTF_8));
+                    aResponse.setStatus(HttpResponseStatus.OK);
+                }
+            } else if (aRequest.getMethod().equals(HttpMethod.GET) && aServicePath.startsWith(CHANGES_POINT)) {
+                follow(aRequest, aResponse);
+            } else if (! aRequest.getMethod().equals(HttpMethod.POST)) {
+                aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+            } else if (aServicePath.startsWith(SWIM_POINT)) {
+                _swim.dispatch(new QueryStringDecoder(aServicePath).getPath().substring(SWIM_POINT.length()),
+                        aRequest, aResponse);
+            } else if (aServicePath.startsWith(DIGEST_POINT)) {
+                Map<String, Long> myDigest =
+                        GSON.fromJson(aRequest.getContent().toString(CharsetUtil.UTF_8), DIGEST_TYPE);
+
+                _logger.debug("Received digest: " + myDigest);
+
+                aResponse.setContent(ChannelBuffers.copiedBuffer(GSON.toJson(reconcile(myDigest)),
+                        CharsetUtil.UTF_8));
+                aResponse.setStatus(HttpResponseStatus.OK);
+            } else if (aServicePath.startsWith(PUSH_POINT)) {
+                if (merge(unpack(aRequest)) != 0)
+                    _exchanged.clear();
+
+                aResponse.setStatus(HttpResponseStatus.OK);
+            } else {
+
+                long myVersion = _versions.get();
+                boolean isVersioned = (aRequest.getHeader(VERSIONED_HEADER) != null);
+                Iterable<Entry> myEntries = entries(since(aRequest), isVersioned);
+
+                // Encode our answer ahead of merging so as not to send back what we were just sent. Answer in binary
+                // form if the requester can accept it, otherwise stick to JSON. Partial entries and attribute
+                // versions only if the requester has said it supports them
+                //
+                String myAccept = aRequest.getHeader(HttpHeaders.Names.ACCEPT);
+
+                if ((myAccept != null) && (myAccept.contains(EntryCodec.CONTENT_TYPE))) {
+                    aResponse.setHeader(HttpHeaders.Names.CONTENT_TYPE, EntryCodec.CONTENT_TYPE);
+                    aResponse.setContent(EntryCodec.encode(myEntries, _directory.size() + 1, isVersioned));
+                } else {
+                    aResponse.setContent(JsonEntryCodec.encode(myEntries, _directory.size() + 1));
+                }
+
+                // We can't tell which partner sent entries we couldn't apply, so send complete entries to all of
+                // them next time which in turn leads them to do likewise
+                //
+                if (merge(unpack(aRequest)) != 0)
+                    _exchanged.clear();
+
+                aResponse.setHeader(BORN_HEADER, Long.toString(_birthTime));
+                aResponse.setHeader(VERSION_HEADER, Long.toString(myVersion));
+                aResponse.setHeader(VERSIONED_HEADER, "true");
+                aResponse.setStatus(HttpResponseStatus.OK);
+            }
+        }
+
+        /**
+         * Answer a follower with the changes since those it last saw, waiting for some if there are none. A follower
+         * that is new, too far behind or following a previous incarnation of this directory is sent every entry (as
+         * new) and told to reset.
+         */
+        private void follow(HttpRequest aRequest, final HttpResponse aResponse) {
+            Map<String, List<String>> myParams = new QueryStringDecoder(aRequest.getUri()).getParameters();
+            long mySince;
+            long myWait;
+            boolean isCurrent;
+
+            try {
+                mySince = myParams.containsKey("since") ? Long.parseLong(myParams.get("since").get(0)) : 0;
+                myWait = myParams.containsKey("wait") ? Long.parseLong(myParams.get("wait").get(0)) :
+                        DEFAULT_CHANGES_WAIT;
+                isCurrent = myParams.containsKey("born") &&
+                        (Long.parseLong(myParams.get("born").get(0)) == _birthTime);
+            } catch (NumberFormatException aNFE) {
+                aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            aResponse.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+
+            if (! isCurrent) {
+                aResponse.setContent(resetFeed());
+                return;
+            }
+
+            final HttpServer.Deferred myDeferred = HttpServer.defer();
+            final AtomicReference<Scheduler.Task> myTimeout = new AtomicReference<>();
+            final AtomicBoolean isAnswered = new AtomicBoolean(false);
+
+            final Object myPending = _changes.await(mySince, new ChangeLog.Waiter() {
+                public void changed(List<ChangeLog.Change> aChanges, long aSequence) {
+                    isAnswered.set(true);
+
+                    Scheduler.Task myTask = myTimeout.get();
+
+                    if (myTask != null)
+                        myTask.cancel();
+
+                    aResponse.setContent((aChanges == null) ? resetFeed() : feed(aChanges, aSequence));
+                    myDeferred.complete();
+                }
+            });
+
+            if (isAnswered.get())
+                return;
+
+            try {
+                myTimeout.set(_peer.getScheduler().lane(FOLLOW_LANE).schedule(new Runnable() {
+                    public void run() {
+                        _changes.cancel(myPending);
+                    }
+                }, Math.max(0, myWait)));
+            } catch (IllegalStateException anISE) {
+                // The peer has been stopped and there will be no more changes
+                //
+                _changes.cancel(myPending);
+                return;
+            }
+
+            // Answered whilst the timeout was being scheduled
+            //
+            if (isAnswered.get())
+                myTimeout.get().cancel();
+        }
+
+        /**
+         * @return the entries carried by the request, decoded according to its content type as they are iterated
+         */
+        private Iterator<Entry> unpack(HttpRequest aRequest) {
+            if (EntryCodec.CONTENT_TYPE.equals(aRequest.getHeader(HttpHeaders.Names.CONTENT_TYPE)))
+                return EntryCodec.decode(aRequest.getContent(), _interner);
+            else
+                return JsonEntryCodec.decode(aRequest.getContent(), _interner);
+        }
+
+        /**
+         * @return the version of our directory the requester has already seen or <code>0</code> if it has no record
+         * of us or we've restarted since it last heard from us.
+         */
+        private long since(HttpRequest aRequest) {
+            String myPartnerBorn = aRequest.getHeader(PARTNER_BORN_HEADER);
+            String mySince = aRequest.getHeader(SINCE_HEADER);
+
+            if ((myPartnerBorn == null) || (mySince == null) || (Long.parseLong(myPartnerBorn) != _birthTime))
+                return 0;
+
+            return Long.parseLong(mySince);
+        }
+    }
+
+    /**
+     * @return the encoded changes. Followers waiting on the same version are handed the same list of changes, which
+     * is encoded once.
+     */
+    private ChannelBuffer feed(List<ChangeLog.Change> aChanges, long aSequence) {
+        Feed myLast = _lastFeed.get();
+
+        if ((myLast != null) && (myLast._changes == aChanges))
+            return myLast._encoded.duplicate();
+
+        Feed myFeed = new Feed(_birthTime, aSequence, false, aChanges);
+
+        _lastFeed.set(myFeed);
+        return myFeed._encoded.duplicate();
+    }
+
+    /**
+     * @return every entry in the directory as new changes along with instructions to reset
+     */
+    private ChannelBuffer resetFeed() {
+        long mySequence = _changes.getSequence();
+        List<ChangeLog.Change> myChanges = new LinkedList<>();
+
+        for (Entry myEntry : entries(0))
+            myChanges.add(new ChangeLog.Change(ChangeLog.Kind.NEW, myEntry, mySequence));
+
+        return new Feed(_birthTime, mySequence, true, myChanges)._encoded;
+    }
+
+    /**
+     * The answer given to a follower. A follower should pass the born time and sequence on its next request, if reset
+     * is set it should discard what it knows and replace it with the changes (which will all be new).
+     */
+    private static class Feed {
+        private final long _born;
+        private final long _sequence;
+        private final boolean _reset;
+        private final List<ChangeLog.Change> _changes;
+        private final transient ChannelBuffer _encoded;
+
+        Feed(long aBorn, long aSequence, boolean isReset, List<ChangeLog.Change> aChanges) {
+            _born = aBorn;
+            _sequence = aSequence;
+            _reset = isReset;
+            _changes = aChanges;
+            _encoded = ChannelBuffers.copiedBuffer(GSON.toJson(this), CharsetUtil.UTF_8);
+        }
+    }
+
+    private class SnapshotTask implements Runnable {
+        public void run() {
+            try {
+                DirectorySnapshot.write(_snapshotFile, new ArrayList<>(_directory.values()));
+            } catch (Throwable aT) {
+                _logger.warn("Couldn't write snapshot: " + _snapshotFile, aT);
+            }
+        }
+    }
+
+    private class GossipTask implements Runnable {
+        public void run() {
+            _statistics.round();
+
+            if (_exchange == Exchange.SWIM) {
+                try {
+                    _swim.probe();
+                } catch (Throwable aT) {
+                    _logger.error("Probe failed", aT);
+                }
+
+                return;
+            }
+
+            for (URI myPartner : _selector.select(_fanout)) {
+                if (! _inFlight.tryAcquire()) {
+                    _logger.debug("Too many exchanges in flight, skipping: " + myPartner);
+
+                    _statistics.skipped();
+                    continue;
+                }
+
+                try {
+                    if (_exchange == Exchange.DIGEST)
+                        reconcile(myPartner.toString());
+                    else
+                        exchange(myPartner.toString());
+                } catch (IOException anIOE) {
+                    _logger.error("Received exception", anIOE);
+
+                    _statistics.failed();
+                    _inFlight.release();
+                }
+            }
+        }
+
+        private AsyncHttpClient.BoundRequestBuilder preparePost(String aUrl) {
+            AsyncHttpClient.BoundRequestBuilder myRequest = _peer.getClient().preparePost(aUrl);
+
+            if (_exchangeTimeout > 0) {
+                // The client offers no other means of timing out a single request
+                //
+                @SuppressWarnings("deprecation")
+                com.ning.http.client.PerRequestConfig myConfig =
+                        new com.ning.http.client.PerRequestConfig(null, (int) _exchangeTimeout);
+
+                myRequest.setPerRequestConfig(myConfig);
+            }
+
+            return myRequest;
+        }
+
+        /**
+         * Prepare to send a directory to a partner, in binary form if the partner is known to accept it. The entries
+         * must be complete unless the partner is known to accept partial entries.
+         */
+        private AsyncHttpClient.BoundRequestBuilder preparePost(String aPartner, String aPoint,
+                                                                Iterable<Entry> anEntries, int anExpectedSize) {
+            AsyncHttpClient.BoundRequestBuilder myRequest =
+                    preparePost(aPartner + aPoint).addHeader(HttpHeaders.Names.ACCEPT, EntryCodec.CONTENT_TYPE)
+                            .addHeader(VERSIONED_HEADER, "true");
+            ChannelBuffer myEncoded;
+
+            if (_binaryPartners.contains(aPartner)) {
+                myRequest.addHeader(HttpHeaders.Names.CONTENT_TYPE, EntryCodec.CONTENT_TYPE);
+                myEncoded = EntryCodec.encode(anEntries, anExpectedSize, _versionedPartners.contains(aPartner));
+            } else {
+                myEncoded = JsonEntryCodec.encode(anEntries, anExpectedSize);
+            }
+
+            _statistics.sent(_compression.setBody(myRequest, aPartner, myEncoded));
+
+            return myRequest;
+        }
+
+        /**
+         * Push-pull anti-entropy: send a digest, merge the entries that come back and push the entries asked for.
+         */
+        private void reconcile(final String aPartner) throws IOException {
+            byte[] myDigest = GSON.toJson(digest()).getBytes(CharsetUtil.UTF_8);
+            AsyncHttpClient.BoundRequestBuilder myRequest = preparePost(aPartner + DIGEST_POINT);
+
+            _statistics.sent(_compression.setBody(myRequest, aPartner, myDigest));
+
+            myRequest.execute(new GossipHandler(aPartner) {
+
+                void completed(Response aResponse) throws Exception {
+                    byte[] myBody = aResponse.getResponseBodyAsBytes();
+
+                    _statistics.received(myBody.length);
+
+                    Reconciliation myReconciliation =
+                            GSON.fromJson(new String(myBody, CharsetUtil.UTF_8), Reconciliation.class);
+
+                    _logger.debug("Unpacked: " + myReconciliation.getEntries() + " wanted: " +
+                            myReconciliation.getWanted());
+
+                    merge(myReconciliation.getEntries());
+
+                    Map<String, Entry> myDirectory = getDirectory(0);
+                    Map<String, Entry> myPush = new HashMap<>();
+
+                    for (String myWanted : myReconciliation.getWanted()) {
+                        Entry myEntry = myDirectory.get(myWanted);
+
+                        if (myEntry != null)
+                            myPush.put(myWanted, myEntry);
+                    }
+
+                    if (! myPush.isEmpty())
+                        preparePost(aPartner, PUSH_POINT, myPush.values(), myPush.size()).execute();
+                }
+            });
+        }
+
+        /**
+         * Send our directory, or those parts the partner hasn't seen, and merge what comes back.
+         */
+        private void exchange(final String aPartner) throws IOException {
+            final Exchanged myLast = (_exchange == Exchange.DELTA) ? _exchanged.get(aPartner) : null;
+            final long mySent = _versions.get();
+
+            AsyncHttpClient.BoundRequestBuilder myRequest = preparePost(aPartner, MOUNT_POINT,
+                    entries((myLast == null) ? 0 : myLast.getSent(), _versionedPartners.contains(aPartner)),
+                    _directory.size() + 1);
+
+            if (myLast != null) {
+                myRequest.addHeader(PARTNER_BORN_HEADER, Long.toString(myLast.getBorn()));
+                myRequest.addHeader(SINCE_HEADER, Long.toString(myLast.getReceived()));
+            }
+
+            myRequest.execute(new GossipHandler(aPartner) {
+
+                void completed(Response aResponse) throws Exception {
+                    ChannelBuffer myBody = ChannelBuffers.wrappedBuffer(aResponse.getResponseBodyAsByteBuffer());
+
+                    _statistics.received(myBody.readableBytes());
+
+                    // Partner answers in binary form if it can accept it and says whether it supports versions
+                    //
+                    int myInapplicable;
+
+                    if (aResponse.getHeader(VERSIONED_HEADER) != null)
+                        _versionedPartners.add(aPartner);
+                    else
+                        _versionedPartners.remove(aPartner);
+
+                    if (EntryCodec.CONTENT_TYPE.equals(aResponse.getContentType())) {
+                        _binaryPartners.add(aPartner);
+                        myInapplicable = merge(EntryCodec.decode(myBody, _interner));
+                    } else {
+                        _binaryPartners.remove(aPartner);
+                        myInapplicable = merge(JsonEntryCodec.decode(myBody, _interner));
+                    }
+
+                    // Partner sent changes we lack the basis for, forget what we've exchanged so both sides send
+                    // complete entries next time
+                    //
+                    if (myInapplicable != 0)
+                        _exchanged.remove(aPartner);
+                    else if (_exchange == Exchange.DELTA)
+                        exchanged(aPartner, myLast, mySent, aResponse);
+                }
+            });
+        }
+    }
+
+    /**
+     * Common handling for the response to a gossip exchange. Accounts for the exchange in statistics and the in-flight
+     * limit and forces a dead node run should the exchange fail. A failed partner will next be sent uncompressed JSON
+     * and complete entries in case it has been replaced by one that doesn't accept binary, compression or versions.
+     */
+    private abstract class GossipHandler extends AsyncCompletionHandler<Response> {
+        private final long _start = now();
+        private final String _partner;
+
+        GossipHandler(String aPartner) {
+            _partner = aPartner;
+        }
+
+        public Response onCompleted(Response aResponse) throws Exception {
+            try {
+                _logger.debug("Response status: " + aResponse.getStatusCode());
+
+                long myElapsed = now() - _start;
+
+                _statistics.exchanged(myElapsed);
+                _compression.answered(_partner, aResponse);
+
+                // Give up if we didn't get a positive answer
+                //
+                if (aResponse.getStatusCode() != 200) {
+                    _logger.debug("No directory - dead node run");
+
+                    _statistics.rejected();
+                    _selector.failed(URI.create(_partner));
+                    _binaryPartners.remove(_partner);
+                    _versionedPartners.remove(_partner);
+
+                    // Force a dead-node cycle, even though there is no directory to merge
+                    //
+                    merge(new HashMap<String, Entry>());
+                    return aResponse;
+                }
+
+                _selector.answered(URI.create(_partner), myElapsed);
+
+                try {
+                    completed(aResponse);
+                } catch (Exception anE) {
+                    _logger.error("Error in unpack", anE);
+                }
+
+                return aResponse;
+            } finally {
+                _inFlight.release();
+            }
+        }
+
+        public void onThrowable(Throwable aThrowable) {
+            try {
+                _logger.debug("Exchange failed - dead node run", aThrowable);
+
+                _statistics.failed();
+                _binaryPartners.remove(_partner);
+                _versionedPartners.remove(_partner);
+                _compression.failed(_partner);
+                _selector.failed(URI.create(_partner));
+                merge(new HashMap<String, Entry>());
+            } finally {
+                _inFlight.release();
+            }
+        }
+
+        /**
+         * Invoked to process a positive response.
+         */
+        abstract void completed(Response aResponse) throws Exception;
+    }
+
+    /**
+     * Limits the exchanges outstanding at once. The limit is adjusted in place such that exchanges outstanding at the
+     * time of a change release their permits against the new limit.
+     */
+    private static class InFlight extends Semaphore {
+        private int _limit;
+
+        InFlight(int aLimit) {
+            super(aLimit);
+            _limit = aLimit;
+        }
+
+        /**
+         * Available permits may go negative if the limit is reduced whilst exchanges are outstanding, no new
+         * exchanges are then started until enough have completed.
+         */
+        synchronized void setLimit(int aLimit) {
+            if (aLimit > _limit)
+                release(aLimit - _limit);
+            else if (aLimit < _limit)
+                reducePermits(_limit - aLimit);
+
+            _limit = aLimit;
+        }
+    }
+
+    /**
+     * The default failure detector which considers a peer dead if its entry hasn't been updated within a fixed period.
+     */
+    private static class OverdueDetector implements FailureDetector {
+        private final long _overdueTime;
+
+        OverdueDetector(long anOverdueTime) {
+            _overdueTime = anOverdueTime;
+        }
+
+        public long deadline(Entry anEntry) {
+            return anEntry.getTimestamp() + _overdueTime;
+        }
+
+        public void forget(String aPeerName) {
+        }
+    }
+
+    /**
+     * Decides when a peer should be considered dead in the absence of further updates to its <code>Entry</code>.
+     */
+    public interface FailureDetector {
+        /**
+         * Invoked each time a new or updated entry is merged into the directory. The same entry may be presented
+         * more than once.
+         *
+         * @param anEntry is the entry that was merged
+         * @return the time after which the peer should be considered dead if no newer entry is seen
+         */
+        long deadline(Entry anEntry);
+
+        /**
+         * Invoked when a peer has been declared dead such that any history maintained for it can be discarded.
+         *
+         * @param aPeerName is the name of the dead peer
+         */
+        void forget(String aPeerName);
+    }
+
+    /**
+     * Attributes to be published in the <code>Directory</code> of a particular peer are supplied by instances of
+     * <code>AttributeProducer</code>. Typically there'd be one of these per network service running on the peer.
+     */
+    public interface AttributeProducer {
+        Map<String, String> produce();
+    }
+
+    /**
+     * An <code>AttributeProducer</code> that versions the attributes it produces. <code>Directory</code> caches the
+     * attributes produced and only invokes <code>produce</code> again when the version changes, thus producers that
+     * are expensive to invoke (e.g. because they marshall their state) need only do so when something has changed.
+     */
+    public interface VersionedAttributeProducer extends AttributeProducer {
+        /**
+         * @return a value that differs from the previous value returned whenever the attributes that would be
+         * produced have changed.
+         */
+        long getVersion();
+    }
+
+    /**
+     * The attributes last obtained from each producer along with the merged result.
+     */
+    private static class Produced {
+        private final AttributeProducer[] _producers;
+        private final long[] _versions;
+        private final Map<String, String>[] _attributes;
+        private Map<String, String> _merged;
+
+        @SuppressWarnings("unchecked")
+        Produced(AttributeProducer[] aProducers) {
+            _producers = aProducers;
+            _versions = new long[aProducers.length];
+            _attributes = new Map[aProducers.length];
+        }
+
+        int size() {
+            return _producers.length;
+        }
+
+        int indexOf(AttributeProducer aProducer) {
+            for (int i = 0; i < _producers.length; i++)
+                if (_producers[i] == aProducer)
+                    return i;
+
+            return -1;
+        }
+
+        /**
+         * @return the attributes previously obtained from the producer if they are of the specified version,
+         * <code>null</code> otherwise.
+         */
+        Map<String, String> find(AttributeProducer aProducer, long aVersion) {
+            int myIndex = indexOf(aProducer);
+
+            return ((myIndex != -1) && (_versions[myIndex] == aVersion)) ? _attributes[myIndex] : null;
+        }
+
+        void set(int anIndex, long aVersion, Map<String, String> anAttributes) {
+            _versions[anIndex] = aVersion;
+            _attributes[anIndex] = anAttributes;
+        }
+
+        synchronized Map<String, String> getAttributes() {
+            if (_merged == null) {
+                HashMap<String, String> myAttrs = new HashMap<>();
+
+                for (Map<String, String> myProduced : _attributes)
+                    myAttrs.putAll(myProduced);
+
+                _merged = Collections.unmodifiableMap(myAttrs);
+            }
+
+            return _merged;
+        }
+    }
+
+    /**
+     * Implementors of this interface will receive information about changes in the <code>Directory</code> membership.
+     * Specifically when new nodes appear, existing nodes update their attributes or nodes disappear. Listeners are
+     * only invoked when there is at least one change and each peer appears in at most one of the lists.
+     * <code>Entry.getChangedKeys</code> yields the attributes of an updated peer that changed, allowing a listener to
+     * skip work for those that didn't.
+     */
+    public interface Listener {
+        public void updated(Directory aDirectory, List<Entry> aNewPeers, List<Entry> anUpdatedPeers,
+                            List<Entry> aDeadPeers);
+    }
+
+    /**
+     * Implementors of this interface are told when the <code>Directory</code> has partaken in gossip, whether or not
+     * anything changed. Invoked after any <code>Listener</code>s have been notified of the resulting changes.
+     */
+    public interface GossipListener {
+        public void gossiped(Directory aDirectory);
     }
 }
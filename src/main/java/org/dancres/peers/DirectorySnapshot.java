@@ -0,0 +1,174 @@
+package org.dancres.peers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Reads and writes a compact binary snapshot of directory entries such that a restarted peer can begin with
+ * the directory it had prior to restart. The format is:</p>
+ *
+ * <pre>
+ * magic (int) format (int) count (int)
+ * { name (string) born (long) timestamp (long) attribute-count (int) { key (string) value (string) } } * count
+ * crc32 (long)
+ * </pre>
+ *
+ * <p>Strings are encoded as an int length followed by UTF-8 bytes. The checksum covers everything that precedes it.
+ * Snapshots are written to a temporary file which is then atomically renamed, they are read by mapping the file.</p>
+ */
+class DirectorySnapshot {
+    private static final int MAGIC = 0x44495253;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int CRC_SIZE = 8;
+
+    /**
+     * @param aFile is the file to write the snapshot to, any existing snapshot is replaced
+     * @param anEntries is the set of entries to include in the snapshot
+     */
+    static void write(File aFile, Collection<Directory.Entry> anEntries) throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+        DataOutputStream myOutput = new DataOutputStream(myBytes);
+
+        myOutput.writeInt(MAGIC);
+        myOutput.writeInt(FORMAT);
+        myOutput.writeInt(anEntries.size());
+
+        for (Directory.Entry myEntry : anEntries) {
+            writeString(myOutput, myEntry.getPeerName());
+            myOutput.writeLong(myEntry.getBorn());
+            myOutput.writeLong(myEntry.getTimestamp());
+
+            Map<String, String> myAttrs = myEntry.getAttributes();
+
+            myOutput.writeInt(myAttrs.size());
+
+            for (Map.Entry<String, String> kv : myAttrs.entrySet()) {
+                writeString(myOutput, kv.getKey());
+                writeString(myOutput, kv.getValue());
+            }
+        }
+
+        CRC32 myCrc = new CRC32();
+        myCrc.update(myBytes.toByteArray());
+        myOutput.writeLong(myCrc.getValue());
+        myOutput.flush();
+
+        Path myTarget = aFile.toPath();
+        Path myTemp = myTarget.resolveSibling(aFile.getName() + ".tmp");
+
+        try (FileChannel myChannel = FileChannel.open(myTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer myBuffer = ByteBuffer.wrap(myBytes.toByteArray());
+
+            while (myBuffer.hasRemaining())
+                myChannel.write(myBuffer);
+
+            myChannel.force(true);
+        }
+
+        Files.move(myTemp, myTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param aFile is the file to read the snapshot from
+     * @return the entries held in the snapshot, empty if there is no snapshot
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    static List<Directory.Entry> read(File aFile) throws IOException {
+        List<Directory.Entry> myEntries = new LinkedList<>();
+
+        if (! aFile.exists())
+            return myEntries;
+
+        try (FileChannel myChannel = FileChannel.open(aFile.toPath(), StandardOpenOption.READ)) {
+            long mySize = myChannel.size();
+
+            if ((mySize < HEADER_SIZE + CRC_SIZE) || (mySize > Integer.MAX_VALUE))
+                throw new IOException("Snapshot has invalid size: " + mySize);
+
+            MappedByteBuffer myBuffer = myChannel.map(FileChannel.MapMode.READ_ONLY, 0, mySize);
+
+            if (checksum(myBuffer, (int) mySize - CRC_SIZE) != myBuffer.getLong((int) mySize - CRC_SIZE))
+                throw new IOException("Snapshot checksum mismatch");
+
+            myBuffer.limit((int) mySize - CRC_SIZE);
+
+            if ((myBuffer.getInt() != MAGIC) || (myBuffer.getInt() != FORMAT))
+                throw new IOException("Not a snapshot or unsupported format");
+
+            int myCount = myBuffer.getInt();
+
+            for (int i = 0; i < myCount; i++) {
+                String myName = readString(myBuffer);
+                long myBorn = myBuffer.getLong();
+                long myTimestamp = myBuffer.getLong();
+                int myAttrCount = myBuffer.getInt();
+                Map<String, String> myAttrs = new HashMap<>();
+
+                for (int j = 0; j < myAttrCount; j++)
+                    myAttrs.put(readString(myBuffer), readString(myBuffer));
+
+                myEntries.add(new Directory.Entry(myName, myAttrs, myTimestamp, myBorn));
+            }
+
+            return myEntries;
+        } catch (BufferUnderflowException | IllegalArgumentException anE) {
+            throw new IOException("Snapshot is truncated or corrupt", anE);
+        }
+    }
+
+    private static long checksum(ByteBuffer aBuffer, int aLength) {
+        CRC32 myCrc = new CRC32();
+        byte[] myChunk = new byte[8192];
+        ByteBuffer myView = aBuffer.duplicate();
+
+        myView.limit(aLength);
+
+        while (myView.hasRemaining()) {
+            int myLength = Math.min(myChunk.length, myView.remaining());
+
+            myView.get(myChunk, 0, myLength);
+            myCrc.update(myChunk, 0, myLength);
+        }
+
+        return myCrc.getValue();
+    }
+
+    private static void writeString(DataOutputStream anOutput, String aString) throws IOException {
+        byte[] myBytes = aString.getBytes(StandardCharsets.UTF_8);
+
+        anOutput.writeInt(myBytes.length);
+        anOutput.write(myBytes);
+    }
+
+    private static String readString(ByteBuffer aBuffer) {
+        int myLength = aBuffer.getInt();
+
+        if ((myLength < 0) || (myLength > aBuffer.remaining()))
+            throw new IllegalArgumentException("Invalid string length: " + myLength);
+
+        byte[] myBytes = new byte[myLength];
+
+        aBuffer.get(myBytes);
+
+        return new String(myBytes, StandardCharsets.UTF_8);
+    }
+}
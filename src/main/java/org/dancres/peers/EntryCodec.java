@@ -0,0 +1,268 @@
+package org.dancres.peers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A compact binary encoding for a directory (or part of one) exchanged between peers, an alternative to JSON
+ * selected by content type. The format is:</p>
+ *
+ * <pre>
+ * format (byte) string-count (varint) { string } * string-count entry-count (varint)
+ * { name (ref) born (varlong) age (varlong) attribute-count (varint) { key (ref) value (ref) } * attribute-count
+ *   base (varlong) version-count (varint) { key (ref) version (varlong) } * (version-count - 1) } * entry-count
+ * </pre>
+ *
+ * <p>Strings are encoded once as a varint length followed by UTF-8 bytes and thereafter referenced by their
+ * (varint) index in the table such that attribute keys and values common across peers are sent only once. The
+ * timestamp of an entry is encoded as its (zig-zag) difference from the born time which is typically small. Entries
+ * are encoded straight from the directory and decoded one at a time as they are merged.</p>
+ *
+ * <p>Attribute versions are encoded as (zig-zag) differences from the born time, a version count of <code>0</code>
+ * denoting an entry without versions. A key with a version but no value is an attribute that has been removed.
+ * Format <code>1</code> lacks the base and versions and is sent to partners that have not advertised support for
+ * versioned entries.</p>
+ */
+class EntryCodec {
+    static final String CONTENT_TYPE = "application/x-peers-directory";
+
+    private static final byte FORMAT = 2;
+    private static final byte UNVERSIONED_FORMAT = 1;
+
+    /**
+     * @param anEntries are the entries to encode, consumed once
+     * @param anExpectedSize is the expected number of entries, used only to size the buffer
+     * @return the encoded entries
+     */
+    static ChannelBuffer encode(Iterable<Directory.Entry> anEntries, int anExpectedSize) {
+        return encode(anEntries, anExpectedSize, true);
+    }
+
+    /**
+     * @param anEntries are the entries to encode, consumed once
+     * @param anExpectedSize is the expected number of entries, used only to size the buffer
+     * @param isVersioned indicates whether to encode attribute versions, otherwise format <code>1</code> is used
+     * @return the encoded entries
+     * @throws IllegalArgumentException if a partial entry is to be encoded without versions
+     */
+    static ChannelBuffer encode(Iterable<Directory.Entry> anEntries, int anExpectedSize, boolean isVersioned) {
+        Map<String, Integer> myIndices = new HashMap<>();
+        List<String> myStrings = new ArrayList<>();
+        ChannelBuffer myEntries = ChannelBuffers.dynamicBuffer(anExpectedSize * 32 + 16);
+        int myCount = 0;
+
+        for (Directory.Entry myEntry : anEntries) {
+            ++myCount;
+
+            writeRef(myEntries, myEntry.getPeerName(), myIndices, myStrings);
+            writeVarLong(myEntries, myEntry.getBorn());
+            writeVarLong(myEntries, zigZag(myEntry.getTimestamp() - myEntry.getBorn()));
+
+            Map<String, String> myAttrs = myEntry.getAttributes();
+
+            writeVarLong(myEntries, myAttrs.size());
+
+            for (Map.Entry<String, String> kv : myAttrs.entrySet()) {
+                writeRef(myEntries, kv.getKey(), myIndices, myStrings);
+                writeRef(myEntries, kv.getValue(), myIndices, myStrings);
+            }
+
+            if (! isVersioned) {
+                if (myEntry.isPartial())
+                    throw new IllegalArgumentException("Partial entry can't be encoded without versions");
+
+                continue;
+            }
+
+            Map<String, Long> myVersions = myEntry.getAttributeVersions();
+
+            writeVarLong(myEntries, myEntry.getBase());
+
+            if (myVersions == null) {
+                writeVarLong(myEntries, 0);
+            } else {
+                writeVarLong(myEntries, myVersions.size() + 1);
+
+                for (Map.Entry<String, Long> kv : myVersions.entrySet()) {
+                    writeRef(myEntries, kv.getKey(), myIndices, myStrings);
+                    writeVarLong(myEntries, zigZag(kv.getValue() - myEntry.getBorn()));
+                }
+            }
+        }
+
+        ChannelBuffer myTable = ChannelBuffers.dynamicBuffer(myStrings.size() * 16 + 8);
+
+        myTable.writeByte(isVersioned ? FORMAT : UNVERSIONED_FORMAT);
+        writeVarLong(myTable, myStrings.size());
+
+        for (String myString : myStrings) {
+            byte[] myBytes = myString.getBytes(CharsetUtil.UTF_8);
+
+            writeVarLong(myTable, myBytes.length);
+            myTable.writeBytes(myBytes);
+        }
+
+        writeVarLong(myTable, myCount);
+
+        return ChannelBuffers.wrappedBuffer(myTable, myEntries);
+    }
+
+    /**
+     * @param aBuffer is the encoded directory, read from its reader index onwards
+     * @param anInterner is used to de-duplicate the decoded strings
+     * @return an iterator that decodes each entry as it is requested
+     * @throws IllegalArgumentException if the buffer does not contain a valid encoding, possibly thrown by the
+     * iterator when it reaches the point of damage
+     */
+    static Iterator<Directory.Entry> decode(final ChannelBuffer aBuffer, Interner anInterner) {
+        try {
+            byte myFormat = aBuffer.readByte();
+
+            if ((myFormat != FORMAT) && (myFormat != UNVERSIONED_FORMAT))
+                throw new IllegalArgumentException("Unsupported format");
+
+            final boolean isVersioned = (myFormat == FORMAT);
+
+            final String[] myStrings = new String[count(aBuffer)];
+
+            for (int i = 0; i < myStrings.length; i++) {
+                int myLength = count(aBuffer);
+
+                myStrings[i] = anInterner.intern(aBuffer, aBuffer.readerIndex(), myLength);
+                aBuffer.skipBytes(myLength);
+            }
+
+            final int myCount = count(aBuffer);
+
+            return new Iterator<Directory.Entry>() {
+                private int _decoded = 0;
+
+                public boolean hasNext() {
+                    return _decoded < myCount;
+                }
+
+                public Directory.Entry next() {
+                    if (! hasNext())
+                        throw new NoSuchElementException();
+
+                    try {
+                        String myName = readRef(aBuffer, myStrings);
+                        long myBorn = readVarLong(aBuffer);
+                        long myTimestamp = myBorn + unZigZag(readVarLong(aBuffer));
+                        int myAttrCount = count(aBuffer);
+                        Map<String, String> myAttrs = new HashMap<>(myAttrCount * 2);
+
+                        for (int j = 0; j < myAttrCount; j++)
+                            myAttrs.put(readRef(aBuffer, myStrings), readRef(aBuffer, myStrings));
+
+                        long myBase = 0;
+                        Map<String, Long> myVersions = null;
+
+                        if (isVersioned) {
+                            myBase = readVarLong(aBuffer);
+
+                            long myVersionCount = readVarLong(aBuffer) - 1;
+
+                            if ((myVersionCount < -1) || (myVersionCount > aBuffer.readableBytes()))
+                                throw new IllegalArgumentException("Invalid count: " + myVersionCount);
+
+                            if (myVersionCount != -1) {
+                                myVersions = new HashMap<>((int) myVersionCount * 2);
+
+                                for (int j = 0; j < myVersionCount; j++)
+                                    myVersions.put(readRef(aBuffer, myStrings),
+                                            myBorn + unZigZag(readVarLong(aBuffer)));
+                            }
+                        }
+
+                        ++_decoded;
+
+                        return new Directory.Entry(myName, myAttrs, myVersions, myTimestamp, myBorn, myBase);
+                    } catch (IndexOutOfBoundsException anIOOBE) {
+                        throw new IllegalArgumentException("Encoding is truncated", anIOOBE);
+                    }
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        } catch (IndexOutOfBoundsException anIOOBE) {
+            throw new IllegalArgumentException("Encoding is truncated", anIOOBE);
+        }
+    }
+
+    private static void writeRef(ChannelBuffer aBuffer, String aString, Map<String, Integer> anIndices,
+                                 List<String> aStrings) {
+        Integer myIndex = anIndices.get(aString);
+
+        if (myIndex == null) {
+            myIndex = aStrings.size();
+            anIndices.put(aString, myIndex);
+            aStrings.add(aString);
+        }
+
+        writeVarLong(aBuffer, myIndex);
+    }
+
+    private static String readRef(ChannelBuffer aBuffer, String[] aStrings) {
+        long myIndex = readVarLong(aBuffer);
+
+        if ((myIndex < 0) || (myIndex >= aStrings.length))
+            throw new IllegalArgumentException("Invalid string reference: " + myIndex);
+
+        return aStrings[(int) myIndex];
+    }
+
+    /**
+     * @return a varint that is a valid count or length (i.e. no larger than the remaining content)
+     */
+    private static int count(ChannelBuffer aBuffer) {
+        long myCount = readVarLong(aBuffer);
+
+        if ((myCount < 0) || (myCount > aBuffer.readableBytes()))
+            throw new IllegalArgumentException("Invalid count: " + myCount);
+
+        return (int) myCount;
+    }
+
+    private static void writeVarLong(ChannelBuffer aBuffer, long aValue) {
+        while ((aValue & ~0x7FL) != 0) {
+            aBuffer.writeByte((int) ((aValue & 0x7F) | 0x80));
+            aValue >>>= 7;
+        }
+
+        aBuffer.writeByte((int) aValue);
+    }
+
+    private static long readVarLong(ChannelBuffer aBuffer) {
+        long myValue = 0;
+
+        for (int myShift = 0; myShift < 64; myShift += 7) {
+            byte myByte = aBuffer.readByte();
+
+            myValue |= (long) (myByte & 0x7F) << myShift;
+
+            if ((myByte & 0x80) == 0)
+                return myValue;
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long zigZag(long aValue) {
+        return (aValue << 1) ^ (aValue >> 63);
+    }
+
+    private static long unZigZag(long aValue) {
+        return (aValue >>> 1) ^ -(aValue & 1);
+    }
+}
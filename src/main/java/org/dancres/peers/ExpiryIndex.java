@@ -0,0 +1,83 @@
+package org.dancres.peers;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Orders directory entries by the time at which they become overdue so that dead nodes can be found without scanning
+ * the entire directory. Scheduling and expiry are both O(log N) in the number of entries tracked.
+ */
+class ExpiryIndex {
+    private final TreeSet<Deadline> _deadlines = new TreeSet<>();
+    private final Map<String, Deadline> _current = new HashMap<>();
+
+    /**
+     * Track an entry, replacing any deadline held for an older entry from the same peer. If a newer entry from the
+     * peer is already tracked, the request is ignored.
+     *
+     * @param anEntry is the entry to track
+     * @param aDeadline is the time after which the entry is considered overdue
+     */
+    synchronized void schedule(Directory.Entry anEntry, long aDeadline) {
+        Deadline myPrevious = _current.get(anEntry.getPeerName());
+
+        if (myPrevious != null) {
+            if (myPrevious.getEntry().getTimestamp() > anEntry.getTimestamp())
+                return;
+
+            _deadlines.remove(myPrevious);
+        }
+
+        Deadline myDeadline = new Deadline(aDeadline, anEntry);
+
+        _deadlines.add(myDeadline);
+        _current.put(anEntry.getPeerName(), myDeadline);
+    }
+
+    /**
+     * @param aNow is the current time
+     * @return the entries whose deadline precedes <code>aNow</code>, these are no longer tracked.
+     */
+    synchronized List<Directory.Entry> expired(long aNow) {
+        List<Directory.Entry> myExpired = new LinkedList<>();
+
+        while ((! _deadlines.isEmpty()) && (_deadlines.first().getTime() < aNow)) {
+            Deadline myDeadline = _deadlines.pollFirst();
+
+            _current.remove(myDeadline.getEntry().getPeerName());
+            myExpired.add(myDeadline.getEntry());
+        }
+
+        return myExpired;
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        private final long _time;
+        private final Directory.Entry _entry;
+
+        Deadline(long aTime, Directory.Entry anEntry) {
+            _time = aTime;
+            _entry = anEntry;
+        }
+
+        long getTime() {
+            return _time;
+        }
+
+        Directory.Entry getEntry() {
+            return _entry;
+        }
+
+        public int compareTo(Deadline anOther) {
+            if (_time < anOther._time)
+                return -1;
+            else if (_time > anOther._time)
+                return 1;
+            else
+                return _entry.getPeerName().compareTo(anOther._entry.getPeerName());
+        }
+    }
+}
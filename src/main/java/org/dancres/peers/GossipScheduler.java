@@ -0,0 +1,126 @@
+package org.dancres.peers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Schedules gossip rounds for a <code>Directory</code>. The period between rounds starts at a minimum and doubles
+ * after each round in which nothing changed, up to a maximum. A change resets the period to the minimum and, rather
+ * than waiting out the current period, brings the next round forward to within a (randomly jittered) half of the
+ * minimum period such that peers hearing of the same change don't all gossip at once. Rounds are never closer together
+ * than half the minimum period. With minimum and maximum equal this reduces to a fixed period.
+ */
+class GossipScheduler {
+    private static final Logger _logger = LoggerFactory.getLogger(GossipScheduler.class);
+
+    private final Scheduler _scheduler;
+    private final Scheduler.Lane _lane;
+    private final Runnable _round;
+    private final GossipStatistics _statistics;
+    private final Random _random = new Random();
+
+    private long _minimum;
+    private long _maximum;
+    private long _period;
+    private boolean _changed = false;
+    private Scheduler.Task _next = null;
+    private long _due = 0;
+    private long _lastStart = 0;
+
+    /**
+     * @param aScheduler is the scheduler on which to schedule rounds
+     * @param aLane is the lane in which to schedule rounds
+     * @param aRound is the gossip round to run
+     * @param aStatistics is where the current period is reported
+     * @param aPeriod is the initial (fixed) period in milliseconds
+     */
+    GossipScheduler(Scheduler aScheduler, String aLane, Runnable aRound, GossipStatistics aStatistics,
+                    long aPeriod) {
+        _scheduler = aScheduler;
+        _lane = aScheduler.lane(aLane);
+        _round = aRound;
+        _statistics = aStatistics;
+        setPeriod(aPeriod, aPeriod);
+    }
+
+    synchronized void setPeriod(long aMinimum, long aMaximum) {
+        _minimum = aMinimum;
+        _maximum = aMaximum;
+        _period = aMinimum;
+        _statistics.period(_period);
+    }
+
+    synchronized void start() {
+        schedule(0);
+    }
+
+    /**
+     * Note a change in local or merged state, bringing the next round forward if the period is adaptive.
+     */
+    synchronized void changed() {
+        _changed = true;
+
+        if (_minimum == _maximum)
+            return;
+
+        _period = _minimum;
+        _statistics.period(_period);
+
+        // Nothing to bring forward if a round is underway or we're not yet started
+        //
+        if (_next == null)
+            return;
+
+        long myNow = _scheduler.now();
+        long myEarliest = Math.max(myNow + (long) (_random.nextDouble() * _minimum / 2), _lastStart + _minimum / 2);
+
+        if (myEarliest < _due) {
+            _next.cancel();
+            schedule(myEarliest - myNow);
+        }
+    }
+
+    private void schedule(long aDelay) {
+        Round myRound = new Round();
+
+        try {
+            myRound._task = _lane.schedule(myRound, Math.max(0, aDelay));
+        } catch (IllegalStateException anISE) {
+            _logger.debug("Scheduler shutdown, no further rounds");
+            return;
+        }
+
+        _next = myRound._task;
+        _due = _scheduler.now() + aDelay;
+    }
+
+    private class Round implements Runnable {
+        private Scheduler.Task _task;
+
+        public void run() {
+            synchronized(GossipScheduler.this) {
+                if (_next != _task)
+                    return;
+
+                _next = null;
+                _lastStart = _scheduler.now();
+            }
+
+            try {
+                _round.run();
+            } catch (Throwable aT) {
+                _logger.error("Gossip round failed", aT);
+            } finally {
+                synchronized(GossipScheduler.this) {
+                    _period = (_changed) ? _minimum : Math.min(_period * 2, _maximum);
+                    _changed = false;
+                    _statistics.period(_period);
+
+                    schedule(_period);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.dancres.peers;
+
+import org.dancres.peers.metrics.Metrics;
+import org.dancres.peers.metrics.SimpleMetrics;
+
+/**
+ * <p>Describes the gossip activity of a <code>Directory</code>, recorded as metrics named:</p>
+ *
+ * <ul>
+ *     <li><code>directory.rounds</code>, <code>directory.skipped</code> - counts of rounds and exchanges skipped</li>
+ *     <li><code>directory.exchange.time</code> - histogram of exchange round-trip times in milliseconds</li>
+ *     <li><code>directory.exchange.sent</code>, <code>directory.exchange.received</code> - histograms of the bytes
+ *     sent and received per exchange</li>
+ *     <li><code>directory.exchange.failures</code>, <code>directory.exchange.rejected</code> - counts of failed
+ *     exchanges and of those amongst them that received a non-200 response</li>
+ *     <li><code>directory.merge.time</code> - histogram of merge durations in microseconds (including decoding of
+ *     the entries as they are merged)</li>
+ *     <li><code>directory.merge.new</code>, <code>directory.merge.updated</code>, <code>directory.merge.dead</code> -
+ *     histograms of the number of entries new, updated and dead per merge</li>
+ *     <li><code>directory.propagation.delay</code> - histogram of the time in milliseconds between the timestamp of
+ *     each new or updated entry and its arrival locally</li>
+ *     <li><code>directory.period</code> - gauge of the current gossip period in milliseconds</li>
+ * </ul>
+ *
+ * <p>The <code>directory</code> prefix may be replaced when setting metrics (see <code>Directory.setMetrics</code>)
+ * such that directories sharing a <code>Metrics</code> record separately.</p>
+ *
+ * <p>Totals are cumulative from creation of the directory (or setting of its metrics), rates and means over an
+ * interval can be derived by differencing two readings.</p>
+ */
+public class GossipStatistics {
+    static final String DEFAULT_PREFIX = "directory";
+
+    private volatile Metrics.Counter _rounds;
+    private volatile Metrics.Counter _failures;
+    private volatile Metrics.Counter _rejected;
+    private volatile Metrics.Counter _skipped;
+    private volatile Metrics.Histogram _exchangeTime;
+    private volatile Metrics.Histogram _sent;
+    private volatile Metrics.Histogram _received;
+    private volatile Metrics.Histogram _mergeTime;
+    private volatile Metrics.Histogram _mergeNew;
+    private volatile Metrics.Histogram _mergeUpdated;
+    private volatile Metrics.Histogram _mergeDead;
+    private volatile Metrics.Histogram _propagation;
+    private volatile Metrics.Gauge _period;
+
+    GossipStatistics() {
+        bind(new SimpleMetrics(), DEFAULT_PREFIX);
+    }
+
+    /**
+     * Record subsequent activity with the specified metrics, the current period is carried over.
+     *
+     * @param aPrefix is prepended to the name of each metric
+     */
+    void bind(Metrics aMetrics, String aPrefix) {
+        long myPeriod = (_period == null) ? 0 : _period.get();
+
+        _rounds = aMetrics.counter(aPrefix + ".rounds");
+        _failures = aMetrics.counter(aPrefix + ".exchange.failures");
+        _rejected = aMetrics.counter(aPrefix + ".exchange.rejected");
+        _skipped = aMetrics.counter(aPrefix + ".skipped");
+        _exchangeTime = aMetrics.histogram(aPrefix + ".exchange.time");
+        _sent = aMetrics.histogram(aPrefix + ".exchange.sent");
+        _received = aMetrics.histogram(aPrefix + ".exchange.received");
+        _mergeTime = aMetrics.histogram(aPrefix + ".merge.time");
+        _mergeNew = aMetrics.histogram(aPrefix + ".merge.new");
+        _mergeUpdated = aMetrics.histogram(aPrefix + ".merge.updated");
+        _mergeDead = aMetrics.histogram(aPrefix + ".merge.dead");
+        _propagation = aMetrics.histogram(aPrefix + ".propagation.delay");
+        _period = aMetrics.gauge(aPrefix + ".period");
+
+        _period.set(myPeriod);
+    }
+
+    void round() {
+        _rounds.increment();
+    }
+
+    void exchanged(long aDuration) {
+        _exchangeTime.record(aDuration);
+    }
+
+    void sent(long aBytes) {
+        _sent.record(aBytes);
+    }
+
+    void received(long aBytes) {
+        _received.record(aBytes);
+    }
+
+    void failed() {
+        _failures.increment();
+    }
+
+    void rejected() {
+        _rejected.increment();
+        _failures.increment();
+    }
+
+    void skipped() {
+        _skipped.increment();
+    }
+
+    void merged(long aMicros, int aNew, int anUpdated, int aDead) {
+        _mergeTime.record(aMicros);
+        _mergeNew.record(aNew);
+        _mergeUpdated.record(anUpdated);
+        _mergeDead.record(aDead);
+    }
+
+    void propagated(long aDelay) {
+        _propagation.record(aDelay);
+    }
+
+    void period(long aPeriod) {
+        _period.set(aPeriod);
+    }
+
+    /**
+     * @return the number of gossip rounds initiated
+     */
+    public long getRounds() {
+        return _rounds.get();
+    }
+
+    /**
+     * @return the number of exchanges that completed with a response (of any status)
+     */
+    public long getExchanges() {
+        return _exchangeTime.getCount();
+    }
+
+    /**
+     * @return the total time in milliseconds spent awaiting responses for completed exchanges
+     */
+    public long getExchangeTime() {
+        return _exchangeTime.getSum();
+    }
+
+    /**
+     * @return the number of exchanges that failed, timed out or received a non-200 response
+     */
+    public long getFailures() {
+        return _failures.get();
+    }
+
+    /**
+     * @return the number of exchanges that received a non-200 response
+     */
+    public long getRejected() {
+        return _rejected.get();
+    }
+
+    /**
+     * @return the number of exchanges not attempted because the limit on in-flight exchanges had been reached
+     */
+    public long getSkipped() {
+        return _skipped.get();
+    }
+
+    /**
+     * @return the total number of bytes sent in exchanges
+     */
+    public long getBytesSent() {
+        return _sent.getSum();
+    }
+
+    /**
+     * @return the total number of bytes received in exchanges
+     */
+    public long getBytesReceived() {
+        return _received.getSum();
+    }
+
+    /**
+     * @return the number of merges performed (including those, for dead node detection, with no entries)
+     */
+    public long getMerges() {
+        return _mergeTime.getCount();
+    }
+
+    /**
+     * @return the number of new or updated entries merged into the directory
+     */
+    public long getPropagations() {
+        return _propagation.getCount();
+    }
+
+    /**
+     * @return the total time in milliseconds between the timestamp of each new or updated entry and its arrival
+     * locally. Divided by <code>getPropagations</code> this yields the mean time for an update to reach this peer.
+     */
+    public long getPropagationTime() {
+        return _propagation.getSum();
+    }
+
+    /**
+     * @return the longest time in milliseconds taken for an update to reach this peer
+     */
+    public long getMaxPropagationTime() {
+        return _propagation.getMax();
+    }
+
+    /**
+     * @return the current time in milliseconds between gossip rounds. Unlike the other statistics this is not a
+     * total, it varies over time if the directory has an adaptive gossip period.
+     */
+    public long getPeriod() {
+        return _period.get();
+    }
+
+    public String toString() {
+        return "GossipStatistics: rounds: " + getRounds() + " exchanges: " + getExchanges() + " failures: " +
+                getFailures() + " rejected: " + getRejected() + " skipped: " + getSkipped() + " exchange time: " +
+                getExchangeTime() + " sent: " + getBytesSent() + " received: " + getBytesReceived() + " merges: " +
+                getMerges() + " propagations: " + getPropagations() + " propagation time: " + getPropagationTime() +
+                " max propagation time: " + getMaxPropagationTime() + " period: " + getPeriod();
+    }
+}
@@ -0,0 +1,88 @@
+package org.dancres.peers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * A bounded table of strings used to de-duplicate the peer names, attribute keys and values that recur in every
+ * directory received from a gossip partner. The table is direct-mapped, a string displaces whatever previously
+ * occupied its slot, thus it never grows beyond its capacity and needs no locking. Slots are read and written without
+ * synchronization, that's safe because strings are immutable and at worst a lookup misses.
+ */
+class Interner {
+    private final String[] _strings;
+    private final int _mask;
+
+    /**
+     * @param aCapacity is the maximum number of strings held, rounded up to a power of two
+     */
+    Interner(int aCapacity) {
+        int mySize = Integer.highestOneBit(Math.max(1, aCapacity - 1)) << 1;
+
+        _strings = new String[mySize];
+        _mask = mySize - 1;
+    }
+
+    /**
+     * @return a previously interned string equal to <code>aString</code> or <code>aString</code> itself
+     */
+    String intern(String aString) {
+        int mySlot = spread(aString.hashCode()) & _mask;
+        String myCached = _strings[mySlot];
+
+        if (aString.equals(myCached))
+            return myCached;
+
+        _strings[mySlot] = aString;
+        return aString;
+    }
+
+    /**
+     * Obtain the string encoded (as UTF-8) in the specified region of a buffer. Where the string has been interned
+     * and is ASCII (as peer names and attribute keys almost always are) no new string is allocated.
+     *
+     * @param aBuffer is the buffer containing the encoded string
+     * @param anIndex is the index of the first byte of the string
+     * @param aLength is the length in bytes of the string
+     */
+    String intern(ChannelBuffer aBuffer, int anIndex, int aLength) {
+        int myHash = 0;
+
+        // For ASCII, the hash of the bytes is that of the string
+        //
+        for (int i = anIndex; i < anIndex + aLength; i++) {
+            byte myByte = aBuffer.getByte(i);
+
+            if (myByte < 0)
+                return intern(aBuffer.toString(anIndex, aLength, CharsetUtil.UTF_8));
+
+            myHash = 31 * myHash + myByte;
+        }
+
+        int mySlot = spread(myHash) & _mask;
+        String myCached = _strings[mySlot];
+
+        if ((myCached != null) && (matches(myCached, aBuffer, anIndex, aLength)))
+            return myCached;
+
+        String myString = aBuffer.toString(anIndex, aLength, CharsetUtil.US_ASCII);
+
+        _strings[mySlot] = myString;
+        return myString;
+    }
+
+    private static boolean matches(String aString, ChannelBuffer aBuffer, int anIndex, int aLength) {
+        if (aString.length() != aLength)
+            return false;
+
+        for (int i = 0; i < aLength; i++)
+            if (aString.charAt(i) != aBuffer.getByte(anIndex + i))
+                return false;
+
+        return true;
+    }
+
+    private static int spread(int aHash) {
+        return aHash ^ (aHash >>> 16);
+    }
+}
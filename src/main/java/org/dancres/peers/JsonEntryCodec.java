@@ -0,0 +1,190 @@
+package org.dancres.peers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Encodes and decodes a directory (or part of one) as a JSON object of entries keyed by peer name, the same form Gson
+ * produces for a <code>Map&lt;String, Entry&gt;</code>. Entries are streamed one at a time between a
+ * <code>ChannelBuffer</code> and the directory such that neither a copy of the directory nor the JSON text is ever
+ * held in full.
+ */
+class JsonEntryCodec {
+    private static final TypeAdapter<Directory.Entry> ADAPTER = new Gson().getAdapter(Directory.Entry.class);
+
+    /**
+     * @param anEntries are the entries to encode, consumed once
+     * @param anExpectedSize is the expected number of entries, used only to size the buffer
+     * @return the encoded entries
+     */
+    static ChannelBuffer encode(Iterable<Directory.Entry> anEntries, int anExpectedSize) {
+        ChannelBuffer myBuffer = ChannelBuffers.dynamicBuffer(anExpectedSize * 128 + 16);
+
+        try {
+            JsonWriter myWriter = new JsonWriter(new BufferWriter(myBuffer));
+
+            myWriter.beginObject();
+
+            for (Directory.Entry myEntry : anEntries) {
+                myWriter.name(myEntry.getPeerName());
+                ADAPTER.write(myWriter, myEntry);
+            }
+
+            myWriter.endObject();
+            myWriter.flush();
+        } catch (IOException anIOE) {
+            // Writing to a dynamic buffer never fails
+            //
+            throw new IllegalStateException("Couldn't write to buffer", anIOE);
+        }
+
+        return myBuffer;
+    }
+
+    /**
+     * @param aBuffer is the encoded directory, read from its reader index onwards
+     * @param anInterner is used to de-duplicate peer names
+     * @return an iterator that decodes each entry as it is requested. A malformed encoding causes
+     * <code>JsonParseException</code> to be thrown when the iterator reaches the point of damage.
+     */
+    static Iterator<Directory.Entry> decode(ChannelBuffer aBuffer, final Interner anInterner) {
+        final JsonReader myReader = new JsonReader(new InputStreamReader(new ChannelBufferInputStream(aBuffer),
+                CharsetUtil.UTF_8));
+
+        try {
+            myReader.beginObject();
+        } catch (IOException | IllegalStateException anE) {
+            throw new JsonParseException("Not a directory", anE);
+        }
+
+        return new Iterator<Directory.Entry>() {
+            private boolean _done = false;
+
+            public boolean hasNext() {
+                if (_done)
+                    return false;
+
+                try {
+                    if (myReader.hasNext())
+                        return true;
+
+                    myReader.endObject();
+                    _done = true;
+
+                    return false;
+                } catch (IOException | IllegalStateException anE) {
+                    throw new JsonParseException("Malformed directory", anE);
+                }
+            }
+
+            public Directory.Entry next() {
+                if (! hasNext())
+                    throw new NoSuchElementException();
+
+                try {
+                    myReader.nextName();
+
+                    Directory.Entry myEntry = ADAPTER.read(myReader);
+
+                    return (myEntry == null) ? null : new Directory.Entry(anInterner.intern(myEntry.getPeerName()),
+                            myEntry.getAttributes(), myEntry.getAttributeVersions(), myEntry.getTimestamp(),
+                            myEntry.getBorn(), myEntry.getBase());
+                } catch (IOException | IllegalStateException anE) {
+                    throw new JsonParseException("Malformed entry", anE);
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Encodes characters as UTF-8 straight into a buffer. <code>OutputStreamWriter</code> would do the same but
+     * allocates for each of the many small writes made by <code>JsonWriter</code>.
+     */
+    private static class BufferWriter extends Writer {
+        private final ChannelBuffer _buffer;
+        private char _highSurrogate = 0;
+
+        BufferWriter(ChannelBuffer aBuffer) {
+            _buffer = aBuffer;
+        }
+
+        public void write(int aChar) {
+            put((char) aChar);
+        }
+
+        public void write(char[] aChars, int anOffset, int aLength) {
+            for (int i = anOffset; i < anOffset + aLength; i++)
+                put(aChars[i]);
+        }
+
+        public void write(String aString, int anOffset, int aLength) {
+            for (int i = anOffset; i < anOffset + aLength; i++)
+                put(aString.charAt(i));
+        }
+
+        private void put(char aChar) {
+            if (_highSurrogate != 0) {
+                char myHigh = _highSurrogate;
+
+                _highSurrogate = 0;
+
+                if (Character.isLowSurrogate(aChar)) {
+                    int myCodePoint = Character.toCodePoint(myHigh, aChar);
+
+                    _buffer.writeByte(0xF0 | (myCodePoint >> 18));
+                    _buffer.writeByte(0x80 | ((myCodePoint >> 12) & 0x3F));
+                    _buffer.writeByte(0x80 | ((myCodePoint >> 6) & 0x3F));
+                    _buffer.writeByte(0x80 | (myCodePoint & 0x3F));
+                    return;
+                }
+
+                // Unpaired surrogate, replace it as String.getBytes would
+                //
+                _buffer.writeByte('?');
+            }
+
+            if (aChar < 0x80) {
+                _buffer.writeByte(aChar);
+            } else if (aChar < 0x800) {
+                _buffer.writeByte(0xC0 | (aChar >> 6));
+                _buffer.writeByte(0x80 | (aChar & 0x3F));
+            } else if (Character.isHighSurrogate(aChar)) {
+                _highSurrogate = aChar;
+            } else if (Character.isLowSurrogate(aChar)) {
+                _buffer.writeByte('?');
+            } else {
+                _buffer.writeByte(0xE0 | (aChar >> 12));
+                _buffer.writeByte(0x80 | ((aChar >> 6) & 0x3F));
+                _buffer.writeByte(0x80 | (aChar & 0x3F));
+            }
+        }
+
+        public void flush() {
+            if (_highSurrogate != 0) {
+                _highSurrogate = 0;
+                _buffer.writeByte('?');
+            }
+        }
+
+        public void close() {
+            flush();
+        }
+    }
+}
@@ -5,7 +5,6 @@ import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 
 import java.net.URI;
-import java.util.Timer;
 
 /**
  * The core abstraction for the toolkit. A <code>Peer</code> represents an independent entity running a set of services,
@@ -40,12 +39,12 @@ public interface Peer {
     public void add(Service aService);
 
     /**
-     * Peer's provide a timer instance which can be shared across registered services for purposes of running
-     * regular or scheduled tasks.
+     * Peer's provide a scheduler which is shared across registered services for purposes of running regular or
+     * scheduled tasks, each service using its own lane.
      *
-     * @return the peer's timer instance
+     * @return the peer's scheduler
      */
-    public Timer getTimer();
+    public Scheduler getScheduler();
 
     /**
      * @return a reference to the underlying comms stack being used by the peer.
@@ -0,0 +1,274 @@
+package org.dancres.peers;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Selects peers out of a <code>PeerSet</code> for gossip algorithms to talk to. Unlike
+ * <code>PeerSets.randomSelect</code>, a selector is reused across rounds and holds the peers in an array that is
+ * refreshed only when the set changes (see <code>VersionedPeerSet</code>).</p>
+ *
+ * <ul>
+ *     <li><code>ROUND_ROBIN</code> - walk the peers in a random order, reshuffling once all have been selected, thus
+ *     every peer is selected once every N selections.</li>
+ *     <li><code>RANDOM</code> - select peers uniformly at random, some may go unselected for many rounds.</li>
+ *     <li><code>LATENCY</code> - select peers at random, weighted by the inverse of their recent latency as reported
+ *     via <code>answered</code> and <code>failed</code>. Peers with no reported latency are weighted as the average
+ *     peer.</li>
+ * </ul>
+ */
+public class PeerSelector {
+    public enum Strategy {ROUND_ROBIN, RANDOM, LATENCY}
+
+    /**
+     * Latency recorded for a peer that fails to answer
+     */
+    private static final long FAILED_LATENCY = 5000;
+
+    /**
+     * Weight given to the most recent latency in the moving average
+     */
+    private static final double ALPHA = 0.25;
+
+    private final PeerSet _set;
+    private final URI _local;
+    private final Random _rng = new Random();
+    private final ConcurrentMap<URI, Double> _latencies = new ConcurrentHashMap<>();
+    private volatile Strategy _strategy;
+
+    /**
+     * Advanced after each latency is recorded, weights are recomputed when it has moved on from the value read
+     * ahead of the latencies they were last computed from
+     */
+    private final AtomicLong _latencyGeneration = new AtomicLong();
+
+    /**
+     * Guarded by <code>this</code>
+     */
+    private Set<URI> _members = new HashSet<>();
+    private URI[] _peers = new URI[0];
+    private long _version;
+    private boolean _refreshed = false;
+    private int _next = 0;
+    private double[] _cumulative = null;
+    private long _weighedGeneration;
+
+    /**
+     * @param aSet is the group of peers to choose from
+     * @param aLocal is the local peer's address which is never selected (don't gossip with oneself).
+     * @param aStrategy is the means of selection
+     */
+    public PeerSelector(PeerSet aSet, URI aLocal, Strategy aStrategy) {
+        _set = aSet;
+        _local = aLocal;
+        _strategy = aStrategy;
+    }
+
+    public void setStrategy(Strategy aStrategy) {
+        _strategy = aStrategy;
+    }
+
+    /**
+     * @return the address of the selected peer or <code>null</code> if there are no peers other than the local one.
+     */
+    public URI select() {
+        List<URI> mySelected = select(1);
+
+        return mySelected.isEmpty() ? null : mySelected.get(0);
+    }
+
+    /**
+     * @param aCount is the number of distinct peers to select
+     * @return the addresses of the selected peers, fewer than <code>aCount</code> if there aren't enough peers.
+     */
+    public synchronized List<URI> select(int aCount) {
+        refresh();
+
+        int myCount = Math.min(aCount, _peers.length);
+        List<URI> mySelected = new ArrayList<>(myCount);
+
+        if (myCount == 0)
+            return mySelected;
+
+        switch (_strategy) {
+            case ROUND_ROBIN : roundRobin(myCount, mySelected); break;
+            case RANDOM : random(myCount, mySelected); break;
+            case LATENCY : weighted(myCount, mySelected); break;
+        }
+
+        return mySelected;
+    }
+
+    /**
+     * Record the time a peer took to answer
+     */
+    public void answered(URI aPeer, long aMillis) {
+        // A peer that has left the set would never be removed by refresh
+        //
+        if (! isMember(aPeer))
+            return;
+
+        while (true) {
+            Double myPrevious = _latencies.get(aPeer);
+
+            if (myPrevious == null) {
+                if (_latencies.putIfAbsent(aPeer, (double) aMillis) == null)
+                    break;
+            } else if (_latencies.replace(aPeer, myPrevious, myPrevious + ALPHA * (aMillis - myPrevious))) {
+                break;
+            }
+        }
+
+        // The peer left the set whilst its latency was being recorded
+        //
+        if (! isMember(aPeer))
+            _latencies.remove(aPeer);
+
+        _latencyGeneration.incrementAndGet();
+    }
+
+    /**
+     * Record that a peer failed to answer
+     */
+    public void failed(URI aPeer) {
+        answered(aPeer, FAILED_LATENCY);
+    }
+
+    private synchronized boolean isMember(URI aPeer) {
+        refresh();
+
+        return _members.contains(aPeer);
+    }
+
+    /**
+     * Re-read the set if it may have changed. An unversioned set is copied and compared, preserving round-robin
+     * progress if it hasn't changed.
+     */
+    private void refresh() {
+        boolean isVersioned = _set instanceof VersionedPeerSet;
+
+        if (isVersioned) {
+            long myVersion = ((VersionedPeerSet) _set).getVersion();
+
+            if ((_refreshed) && (_version == myVersion))
+                return;
+
+            _version = myVersion;
+        }
+
+        Set<URI> myMembers = _set.getPeers();
+
+        myMembers.remove(_local);
+        _refreshed = true;
+
+        if (myMembers.equals(_members))
+            return;
+
+        _members = myMembers;
+        _peers = myMembers.toArray(new URI[myMembers.size()]);
+        _next = _peers.length;
+        _cumulative = null;
+        _latencies.keySet().retainAll(myMembers);
+    }
+
+    private void roundRobin(int aCount, List<URI> aSelected) {
+        while (aSelected.size() < aCount) {
+            if (_next == _peers.length) {
+                shuffle(_peers.length);
+                _next = 0;
+            }
+
+            URI myPeer = _peers[_next++];
+
+            // A reshuffle part way through a selection may bring a peer up again
+            //
+            if (! aSelected.contains(myPeer))
+                aSelected.add(myPeer);
+        }
+    }
+
+    /**
+     * Partial shuffle of the array, the order of which is of no consequence other than to round-robin which is
+     * restarted.
+     */
+    private void random(int aCount, List<URI> aSelected) {
+        shuffle(aCount);
+        _next = _peers.length;
+
+        aSelected.addAll(Arrays.asList(_peers).subList(0, aCount));
+    }
+
+    private void weighted(int aCount, List<URI> aSelected) {
+        if ((_cumulative == null) || (_weighedGeneration != _latencyGeneration.get()))
+            weigh();
+
+        double myTotal = _cumulative[_cumulative.length - 1];
+
+        // Peers already selected are drawn again and discarded, bounded in case weights are heavily skewed
+        //
+        for (int i = 0; (aSelected.size() < aCount) && (i < aCount * 8); i++) {
+            int myIndex = Arrays.binarySearch(_cumulative, _rng.nextDouble() * myTotal);
+            URI myPeer = _peers[Math.min((myIndex < 0) ? -(myIndex + 1) : myIndex, _peers.length - 1)];
+
+            if (! aSelected.contains(myPeer))
+                aSelected.add(myPeer);
+        }
+
+        for (int i = 0; (aSelected.size() < aCount) && (i < _peers.length); i++)
+            if (! aSelected.contains(_peers[i]))
+                aSelected.add(_peers[i]);
+    }
+
+    private void weigh() {
+        double[] myWeights = new double[_peers.length];
+        double myKnown = 0;
+        int myKnownCount = 0;
+
+        // Read ahead of the latencies such that one recorded whilst weighing causes another weighing next time
+        //
+        _weighedGeneration = _latencyGeneration.get();
+
+        for (int i = 0; i < _peers.length; i++) {
+            Double myLatency = _latencies.get(_peers[i]);
+
+            if (myLatency != null) {
+                myWeights[i] = 1.0 / Math.max(1.0, myLatency);
+                myKnown += myWeights[i];
+                ++myKnownCount;
+            }
+        }
+
+        double myAverage = (myKnownCount == 0) ? 1.0 : myKnown / myKnownCount;
+        double myTotal = 0;
+
+        _cumulative = new double[_peers.length];
+
+        for (int i = 0; i < _peers.length; i++) {
+            myTotal += (myWeights[i] == 0) ? myAverage : myWeights[i];
+            _cumulative[i] = myTotal;
+        }
+    }
+
+    /**
+     * Shuffle the first <code>aCount</code> positions of the array with peers drawn from all of it
+     */
+    private void shuffle(int aCount) {
+        for (int i = 0; i < aCount; i++) {
+            int mySwap = i + _rng.nextInt(_peers.length - i);
+            URI myPeer = _peers[i];
+
+            _peers[i] = _peers[mySwap];
+            _peers[mySwap] = myPeer;
+        }
+
+        _cumulative = null;
+    }
+}
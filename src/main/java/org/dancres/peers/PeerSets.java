@@ -1,13 +1,11 @@
 package org.dancres.peers;
 
 import java.net.URI;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Random;
-import java.util.Set;
+import java.util.*;
 
 /**
- * Utility methods for handling <code>PeerSets</code>
+ * Utility methods for handling <code>PeerSets</code>. For selection repeated every round, see
+ * <code>PeerSelector</code>.
  */
 public class PeerSets {
     private static final Random _rng = new Random();
@@ -23,11 +21,10 @@ public class PeerSets {
         Set<URI> myBase = aSet.getPeers();
         myBase.remove(aLocal);
 
-        List<URI> myPeers = new LinkedList<>();
-        myPeers.addAll(myBase);
+        URI[] myPeers = myBase.toArray(new URI[myBase.size()]);
 
-        if (myPeers.size() > 0) {
-            return myPeers.get(_rng.nextInt(myPeers.size()));
+        if (myPeers.length > 0) {
+            return myPeers[_rng.nextInt(myPeers.length)];
         } else {
             return null;
         }
@@ -0,0 +1,282 @@
+package org.dancres.peers;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Negotiated compression of the bodies of requests sent between peers. <code>HttpServer</code> compresses responses
+ * but a client has no standard means of knowing whether a server accepts a compressed request. Thus peers advertise,
+ * in the <code>Accept-Encoding</code> header of every response (as per RFC 7694), that they accept request bodies
+ * deflated against a preset dictionary of typical directory content. A sender compresses the bodies it sends to a
+ * peer only once that peer has so advertised and only those above a threshold size, smaller bodies costing more CPU
+ * than they save in bandwidth.</p>
+ *
+ * <p>The dictionary is part of the encoding, any change to it requires a new encoding name.</p>
+ */
+public class RequestCompression {
+    private static final Logger _logger = LoggerFactory.getLogger(RequestCompression.class);
+
+    public static final String ENCODING = "x-peers-deflate-1";
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    /**
+     * Guards against a small body that inflates without bound
+     */
+    private static final int MAX_INFLATED = 64 * 1024 * 1024;
+
+    /**
+     * Deflate finds matches nearest the end of the dictionary most cheaply thus the most common content comes last:
+     * the JSON and binary forms of directory entries (with a consistent hash ring), digests, reconciliations and
+     * accumulator counts.
+     */
+    private static final byte[] DICTIONARY = ("{\"_accumulatorId\":\"\",\"_nonce\":\"\",\"_samplePeriodInMillis\":" +
+            "\"_count\":},{\"_entries\":{},\"_wanted\":[]}" +
+            "org.dancres.peers.ring.consistentHash.ringMembership.DefaultRing" +
+            "\"},\"_born\":1,\"_timestamp\":1},\"http://" +
+            "{\"_peerName\":\"http://localhost:80\",\"_attributes\":{" +
+            "\"org.dancres.peers.ring.consistentHash.ringMembership.DefaultRing\":" +
+            "\"{\\\"_generation\\\":1,\\\"_positions\\\":[[\\\"http://localhost:80\\\",\\\"-1\\\",1]," +
+            "[\\\"http://localhost:80\\\",\\\"").getBytes(CharsetUtil.UTF_8);
+
+    private static final ThreadLocal<Deflater> _deflaters = new ThreadLocal<Deflater>() {
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> _inflaters = new ThreadLocal<Inflater>() {
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final Set<String> _accepting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int _threshold;
+
+    public RequestCompression() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param aThreshold is the size in bytes above which bodies are compressed, less than <code>0</code> to disable
+     *                   compression.
+     */
+    public RequestCompression(int aThreshold) {
+        _threshold = aThreshold;
+    }
+
+    public void setThreshold(int aThreshold) {
+        _threshold = aThreshold;
+    }
+
+    /**
+     * Set the body of a request, compressed if the partner accepts it and the body is large enough.
+     *
+     * @param aRequest is the request to a partner
+     * @param aPartner is the partner's address
+     * @param aBody is the uncompressed body
+     * @return the size of the body as sent
+     */
+    public int setBody(AsyncHttpClient.BoundRequestBuilder aRequest, String aPartner, byte[] aBody) {
+        return setBody(aRequest, aPartner, ChannelBuffers.wrappedBuffer(aBody));
+    }
+
+    /**
+     * As for <code>setBody(BoundRequestBuilder, String, byte[])</code> but for a body that has been encoded into a
+     * buffer. The buffer is deflated in place, an uncompressed body is copied out only if the buffer's backing array
+     * isn't exactly the body (the client requires an array).
+     *
+     * @param aBody is the uncompressed body, from its reader index to its writer index
+     */
+    public int setBody(AsyncHttpClient.BoundRequestBuilder aRequest, String aPartner, ChannelBuffer aBody) {
+        int myThreshold = _threshold;
+        int myLength = aBody.readableBytes();
+
+        if ((myThreshold >= 0) && (myLength > myThreshold) && (_accepting.contains(aPartner))) {
+            byte[] myCompressed = deflate(aBody);
+
+            // Incompressible content (e.g. random positions) is sent as-is
+            //
+            if (myCompressed.length < myLength) {
+                aRequest.addHeader(HttpHeaders.Names.CONTENT_ENCODING, ENCODING);
+                aRequest.setBody(myCompressed);
+
+                return myCompressed.length;
+            }
+        }
+
+        aRequest.setBody(array(aBody));
+        return myLength;
+    }
+
+    private static byte[] array(ChannelBuffer aBody) {
+        if ((aBody.hasArray()) && (aBody.arrayOffset() == 0) && (aBody.readerIndex() == 0) &&
+                (aBody.readableBytes() == aBody.array().length))
+            return aBody.array();
+
+        byte[] myBytes = new byte[aBody.readableBytes()];
+
+        aBody.getBytes(aBody.readerIndex(), myBytes);
+        return myBytes;
+    }
+
+    /**
+     * Note from the partner's response whether it accepts compressed requests.
+     */
+    public void answered(String aPartner, Response aResponse) {
+        String myAccepted = aResponse.getHeader(HttpHeaders.Names.ACCEPT_ENCODING);
+
+        if ((myAccepted != null) && (myAccepted.contains(ENCODING)))
+            _accepting.add(aPartner);
+        else
+            _accepting.remove(aPartner);
+    }
+
+    /**
+     * Note that a request to a partner failed, it may have been replaced by one that doesn't accept compressed
+     * requests.
+     */
+    public void failed(String aPartner) {
+        _accepting.remove(aPartner);
+    }
+
+    /**
+     * Invoked by a peer for each request it receives, before dispatching to a service. Advertises acceptance of
+     * compressed requests and decompresses the body of the request if need be.
+     *
+     * @return <code>true</code> if the request should be dispatched, otherwise the body could not be decompressed and
+     * the response has been set accordingly
+     */
+    public static boolean received(HttpRequest aRequest, HttpResponse aResponse) {
+        aResponse.setHeader(HttpHeaders.Names.ACCEPT_ENCODING, ENCODING);
+
+        if (! ENCODING.equals(aRequest.getHeader(HttpHeaders.Names.CONTENT_ENCODING)))
+            return true;
+
+        try {
+            ChannelBuffer myInflated = inflate(aRequest.getContent());
+
+            aRequest.removeHeader(HttpHeaders.Names.CONTENT_ENCODING);
+            aRequest.setHeader(HttpHeaders.Names.CONTENT_LENGTH, myInflated.readableBytes());
+            aRequest.setContent(myInflated);
+
+            return true;
+        } catch (DataFormatException aDFE) {
+            _logger.warn("Couldn't decompress request: " + aRequest.getUri(), aDFE);
+
+            aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+            return false;
+        }
+    }
+
+    static byte[] deflate(byte[] aBody) {
+        return deflate(ChannelBuffers.wrappedBuffer(aBody));
+    }
+
+    /**
+     * Deflate the readable bytes of a buffer, feeding the deflater directly from the arrays backing its components
+     * (e.g. the string table and entries of a binary directory).
+     */
+    static byte[] deflate(ChannelBuffer aBody) {
+        Deflater myDeflater = _deflaters.get();
+        ByteBuffer[] myInputs = aBody.toByteBuffers();
+        byte[] myBuffer = new byte[aBody.readableBytes() / 2 + 64];
+        int myLength = 0;
+        int myNext = 0;
+
+        myDeflater.reset();
+        myDeflater.setDictionary(DICTIONARY);
+
+        while (! myDeflater.finished()) {
+            if (myDeflater.needsInput()) {
+                if (myNext < myInputs.length) {
+                    setInput(myDeflater, myInputs[myNext++]);
+                    continue;
+                }
+
+                myDeflater.finish();
+            }
+
+            if (myLength == myBuffer.length) {
+                byte[] myLarger = new byte[myBuffer.length * 2];
+
+                System.arraycopy(myBuffer, 0, myLarger, 0, myLength);
+                myBuffer = myLarger;
+            }
+
+            myLength += myDeflater.deflate(myBuffer, myLength, myBuffer.length - myLength);
+        }
+
+        byte[] myCompressed = new byte[myLength];
+
+        System.arraycopy(myBuffer, 0, myCompressed, 0, myLength);
+        return myCompressed;
+    }
+
+    private static void setInput(Deflater aDeflater, ByteBuffer anInput) {
+        if (anInput.hasArray()) {
+            aDeflater.setInput(anInput.array(), anInput.arrayOffset() + anInput.position(), anInput.remaining());
+        } else {
+            byte[] myBytes = new byte[anInput.remaining()];
+
+            anInput.get(myBytes);
+            aDeflater.setInput(myBytes);
+        }
+    }
+
+    static ChannelBuffer inflate(ChannelBuffer aBody) throws DataFormatException {
+        Inflater myInflater = _inflaters.get();
+        byte[] myInput = new byte[aBody.readableBytes()];
+
+        aBody.getBytes(aBody.readerIndex(), myInput);
+
+        myInflater.reset();
+        myInflater.setInput(myInput);
+
+        ChannelBuffer myInflated = ChannelBuffers.dynamicBuffer(myInput.length * 4 + 64);
+        byte[] myChunk = new byte[8192];
+
+        while (! myInflater.finished()) {
+            int myLength = myInflater.inflate(myChunk);
+
+            if ((myLength == 0) && (! myInflater.finished())) {
+                if (myInflater.needsDictionary())
+                    setDictionary(myInflater);
+                else if (myInflater.needsInput())
+                    throw new DataFormatException("Truncated body");
+            }
+
+            if (myInflated.readableBytes() + myLength > MAX_INFLATED)
+                throw new DataFormatException("Body inflates beyond: " + MAX_INFLATED);
+
+            myInflated.writeBytes(myChunk, 0, myLength);
+        }
+
+        return myInflated;
+    }
+
+    private static void setDictionary(Inflater anInflater) throws DataFormatException {
+        try {
+            anInflater.setDictionary(DICTIONARY);
+        } catch (IllegalArgumentException anIAE) {
+            throw new DataFormatException("Compressed against an unknown dictionary");
+        }
+    }
+}
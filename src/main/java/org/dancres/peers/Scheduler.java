@@ -0,0 +1,58 @@
+package org.dancres.peers;
+
+/**
+ * Runs the regular or scheduled tasks of a peer's services. Tasks are scheduled in lanes, typically one per service,
+ * such that a slow task delays only those in its own lane. A task that throws is logged and, if periodic, continues
+ * to be run.
+ */
+public interface Scheduler {
+    /**
+     * A scheduled task.
+     */
+    public interface Task {
+        /**
+         * Prevent any further runs of the task, one that is already running is allowed to complete.
+         *
+         * @return <code>false</code> if the task had already run (if one-shot) or been cancelled
+         */
+        boolean cancel();
+    }
+
+    /**
+     * A sequence in which tasks are run one at a time.
+     */
+    public interface Lane {
+        /**
+         * @param aTask is the task to run once
+         * @param aDelay is the time in milliseconds before the task is run
+         * @throws IllegalStateException if the scheduler has been shutdown
+         */
+        Task schedule(Runnable aTask, long aDelay);
+
+        /**
+         * @param aTask is the task to run repeatedly
+         * @param aDelay is the time in milliseconds before the first run
+         * @param aPeriod is the time in milliseconds from the end of one run to the start of the next
+         * @param aJitter is the maximum time in milliseconds added (uniformly at random) to each delay such that
+         *                peers that start together don't run their tasks in lock-step, <code>0</code> for none
+         * @throws IllegalStateException if the scheduler has been shutdown
+         */
+        Task schedule(Runnable aTask, long aDelay, long aPeriod, long aJitter);
+    }
+
+    /**
+     * @param aName is the name of the lane, conventionally the name of the service scheduling in it
+     * @return the lane, created if it does not already exist
+     */
+    Lane lane(String aName);
+
+    /**
+     * @return the scheduler's current time in milliseconds, which services should use when computing delays.
+     */
+    long now();
+
+    /**
+     * Cancel all tasks in all lanes, subsequent attempts to schedule will fail.
+     */
+    void shutdown();
+}
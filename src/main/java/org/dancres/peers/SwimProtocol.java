@@ -0,0 +1,643 @@
+package org.dancres.peers;
+
+import com.google.gson.Gson;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * <p>SWIM-style (Das, Gupta, Motivala) failure detection and dissemination for <code>Directory</code>. Each period
+ * one member (of the <code>PeerSet</code> or with an entry in the directory) is probed directly, falling back to
+ * indirect probes via a number of helpers should the direct probe fail. A member that fails to answer within the period is suspected and, unless it refutes
+ * the suspicion in time by publishing a newer entry, is declared dead.</p>
+ *
+ * <p>Changes to membership (new or updated entries, suspicions and deaths) are piggybacked on probe traffic, each
+ * being retransmitted a number of times proportional to log(N). A peer that is new to the responder is sent the
+ * responder's full directory so that it can catch up with state that is no longer being disseminated.</p>
+ *
+ * <p>The timestamp of an entry plays the role of the SWIM incarnation number and is only advanced when a peer's
+ * attributes change or it must refute a suspicion. Time-based expiry of entries is thus not applicable.</p>
+ */
+class SwimProtocol {
+    private static final Logger _logger = LoggerFactory.getLogger(SwimProtocol.class);
+    private static final Gson GSON = new Gson();
+
+    static final String PING = "/ping";
+    static final String PING_REQ = "/pingreq";
+    static final String ACK = "/ack";
+
+    private static final int MAX_PIGGYBACK = 8;
+    private static final int RETRANSMIT_MULTIPLIER = 3;
+
+    /**
+     * Tombstones for dead peers are retained for this many suspicion timeouts to prevent stale updates resurrecting
+     * them.
+     */
+    private static final int TOMBSTONE_MULTIPLIER = 10;
+
+    enum Kind {ALIVE, SUSPECT, DEAD}
+
+    private final Directory _directory;
+    private final Peer _peer;
+    private final PeerSet _peers;
+    private final GossipStatistics _statistics;
+    private final String _mountPoint;
+    private final long _born;
+    private final Random _rng = new Random();
+
+    private volatile int _helpers;
+    private volatile long _probeTimeout;
+    private volatile long _suspicionTimeout;
+
+    private long _incarnation;
+    private Map<String, String> _advertised = null;
+    private final Map<String, Pending> _pending = new LinkedHashMap<>();
+    private final Map<String, Suspicion> _suspicions = new HashMap<>();
+    private final Map<String, Suspicion> _tombstones = new HashMap<>();
+    private final LinkedList<URI> _probeOrder = new LinkedList<>();
+    private Probe _outstanding = null;
+
+    /**
+     * Changes to the directory decided upon whilst holding the lock, applied once it has been released
+     */
+    private Map<String, Directory.Entry> _merges = new HashMap<>();
+    private List<Directory.Entry> _removals = new ArrayList<>();
+
+    /**
+     * @param aDirectory is the directory to maintain
+     * @param aPeer is the local peer
+     * @param aPeers is the set of peers to probe
+     * @param aStatistics is where probes are accounted for
+     * @param aMountPoint is the path under which protocol requests are to be sent
+     * @param aBorn is the birth time of the local directory
+     */
+    SwimProtocol(Directory aDirectory, Peer aPeer, PeerSet aPeers, GossipStatistics aStatistics, String aMountPoint,
+                 long aBorn) {
+        _directory = aDirectory;
+        _peer = aPeer;
+        _peers = aPeers;
+        _statistics = aStatistics;
+        _mountPoint = aMountPoint;
+        _born = aBorn;
+        _incarnation = now();
+    }
+
+    /**
+     * @param aHelpers is the number of peers asked to probe a peer that fails to respond to a direct probe
+     * @param aProbeTimeout is the time in milliseconds to wait for a response to a direct probe
+     * @param aSuspicionTimeout is the time in milliseconds a suspected peer has to refute suspicion
+     */
+    void configure(int aHelpers, long aProbeTimeout, long aSuspicionTimeout) {
+        _helpers = aHelpers;
+        _probeTimeout = aProbeTimeout;
+        _suspicionTimeout = aSuspicionTimeout;
+    }
+
+    /**
+     * Run a protocol period: conclude the previous probe, expire suspicions and probe the next peer.
+     */
+    void probe() {
+        Map<String, String> myAttrs = _directory.getAttributes();
+        URI myTarget;
+        Message myPing;
+
+        synchronized (this) {
+            long myNow = now();
+
+            advertise(myNow, myAttrs);
+
+            if ((_outstanding != null) && (! _outstanding._acked)) {
+                Directory.Entry myEntry = current(_outstanding._target);
+
+                if (myEntry != null) {
+                    _logger.debug("No ack from: " + _outstanding._target + " suspecting");
+
+                    suspect(myEntry.getPeerName(), myEntry.getTimestamp(), myNow);
+                }
+            }
+
+            _outstanding = null;
+
+            for (Iterator<Suspicion> mySuspicions = _suspicions.values().iterator(); mySuspicions.hasNext(); ) {
+                Suspicion mySuspicion = mySuspicions.next();
+
+                if (mySuspicion._deadline < myNow) {
+                    mySuspicions.remove();
+                    dead(mySuspicion._peer, mySuspicion._timestamp, myNow);
+                }
+            }
+
+            for (Iterator<Suspicion> myTombstones = _tombstones.values().iterator(); myTombstones.hasNext(); ) {
+                if (myTombstones.next()._deadline < myNow)
+                    myTombstones.remove();
+            }
+
+            myTarget = nextTarget();
+
+            if (myTarget != null) {
+                _outstanding = new Probe(myTarget.toString());
+                myPing = compose();
+            } else
+                myPing = null;
+        }
+
+        apply();
+
+        if (myTarget == null)
+            return;
+
+        final URI myProbed = myTarget;
+        final long myStart = now();
+
+        send(myTarget, PING, myPing, _probeTimeout, new Outcome() {
+            public void acked(Message aResponse) {
+                _statistics.exchanged(now() - myStart);
+                acknowledged(myProbed.toString());
+            }
+
+            public void failed() {
+                _statistics.failed();
+                indirect(myProbed);
+            }
+        });
+    }
+
+    /**
+     * Ask helpers to probe a peer that didn't answer a direct probe.
+     */
+    private void indirect(URI aTarget) {
+        List<URI> myHelpers = new ArrayList<>(_peers.getPeers());
+        Message myRequest;
+
+        myHelpers.remove(_peer.getURI());
+        myHelpers.remove(aTarget);
+        Collections.shuffle(myHelpers, _rng);
+
+        myRequest = message();
+        myRequest._target = aTarget.toString();
+
+        for (URI myHelper : myHelpers.subList(0, Math.min(_helpers, myHelpers.size())))
+            send(myHelper, PING_REQ, myRequest, 0, null);
+    }
+
+    private synchronized void acknowledged(String aTarget) {
+        if ((_outstanding != null) && (_outstanding._target.equals(aTarget)))
+            _outstanding._acked = true;
+    }
+
+    /**
+     * Select the next peer to probe, working through the members in a random order such that each is probed once
+     * per N periods. Members are those of the <code>PeerSet</code> and any other peer with an entry in the directory,
+     * which would otherwise never be found dead. Must be called whilst holding the lock.
+     */
+    private URI nextTarget() {
+        if (_probeOrder.isEmpty()) {
+            Set<URI> myMembers = new LinkedHashSet<>(_peers.getPeers());
+
+            for (String myName : _directory.names())
+                myMembers.add(URI.create(myName));
+
+            myMembers.remove(_peer.getURI());
+            _probeOrder.addAll(myMembers);
+            Collections.shuffle(_probeOrder, _rng);
+        }
+
+        return _probeOrder.isEmpty() ? null : _probeOrder.removeFirst();
+    }
+
+    /**
+     * Handle a protocol request from another peer.
+     *
+     * @param anOp is the protocol operation requested
+     */
+    void dispatch(String anOp, HttpRequest aRequest, HttpResponse aResponse) {
+        Message myRequest = GSON.fromJson(aRequest.getContent().toString(CharsetUtil.UTF_8), Message.class);
+        Message myResponse;
+        boolean isNew = absorb(myRequest);
+
+        myResponse = message();
+
+        // A peer we didn't know of needs our full state as much of it will no longer be disseminated. The directory's
+        // entry for us is stamped by its clock rather than our incarnation which is what the peer must see
+        //
+        if ((isNew) && (anOp.equals(PING))) {
+            myResponse._entries = _directory.getDirectory(0);
+            myResponse._entries.put(_peer.getAddress(), myResponse._sender);
+        }
+
+        switch (anOp) {
+            case PING_REQ : {
+                final String myOrigin = myRequest._sender.getPeerName();
+                final String myTarget = myRequest._target;
+
+                send(URI.create(myTarget), PING, message(), _probeTimeout, new Outcome() {
+                    public void acked(Message aResponse) {
+                        Message myAck = message();
+
+                        myAck._target = myTarget;
+                        send(URI.create(myOrigin), ACK, myAck, 0, null);
+                    }
+
+                    public void failed() {
+                    }
+                });
+
+                break;
+            }
+
+            case ACK : {
+                acknowledged(myRequest._target);
+                break;
+            }
+        }
+
+        aResponse.setContent(ChannelBuffers.copiedBuffer(GSON.toJson(myResponse), CharsetUtil.UTF_8));
+        aResponse.setStatus(HttpResponseStatus.OK);
+    }
+
+    /**
+     * Apply the sender's entry and piggybacked updates from a message.
+     *
+     * @return <code>true</code> if the sender was previously unknown or has restarted
+     */
+    private boolean absorb(Message aMessage) {
+        Map<String, String> myAttrs = _directory.getAttributes();
+        boolean isNew = false;
+
+        synchronized (this) {
+            long myNow = now();
+
+            advertise(myNow, myAttrs);
+
+            // Catch-up state is subject to tombstones like any other but is not disseminated further
+            //
+            if (aMessage._entries != null)
+                for (Directory.Entry myEntry : aMessage._entries.values())
+                    alive(myEntry, false);
+
+            if (aMessage._sender != null) {
+                Directory.Entry myCurrent = current(aMessage._sender.getPeerName());
+
+                isNew = (myCurrent == null) || (myCurrent.getBorn() != aMessage._sender.getBorn());
+                alive(aMessage._sender, true);
+            }
+
+            if (aMessage._updates != null) {
+                for (Update myUpdate : aMessage._updates) {
+                    switch (myUpdate._kind) {
+                        case ALIVE : alive(myUpdate._entry, true); break;
+                        case SUSPECT : suspect(myUpdate._peer, myUpdate._timestamp, myNow); break;
+                        case DEAD : dead(myUpdate._peer, myUpdate._timestamp, myNow); break;
+                    }
+                }
+            }
+        }
+
+        apply();
+
+        return isNew;
+    }
+
+    /**
+     * Apply the changes to the directory accumulated whilst holding the lock. Must be called without the lock held,
+     * merging and removal run the directory's listeners which may, in turn, call back into the directory.
+     */
+    private void apply() {
+        Map<String, Directory.Entry> myMerges;
+        List<Directory.Entry> myRemovals;
+
+        synchronized (this) {
+            if ((_merges.isEmpty()) && (_removals.isEmpty()))
+                return;
+
+            myMerges = _merges;
+            myRemovals = _removals;
+            _merges = new HashMap<>();
+            _removals = new ArrayList<>();
+        }
+
+        // Removals are of the entry held when the peer was declared dead, should it have since been replaced by a
+        // merge, the removal has no effect
+        //
+        if (! myMerges.isEmpty())
+            _directory.merge(myMerges);
+
+        for (Directory.Entry myEntry : myRemovals)
+            _directory.remove(myEntry);
+    }
+
+    /**
+     * @return the entry for a peer, including one yet to be merged into the directory. Must be called whilst
+     * holding the lock.
+     */
+    private Directory.Entry current(String aPeer) {
+        Directory.Entry myPending = _merges.get(aPeer);
+
+        return (myPending != null) ? myPending : _directory.get(aPeer);
+    }
+
+    /**
+     * Re-advertise our entry with a new incarnation if our attributes have changed. Must be called whilst holding
+     * the lock, ahead of anything that requires our entry.
+     *
+     * @param anAttrs are our current attributes, obtained from the directory without holding the lock
+     */
+    private void advertise(long aNow, Map<String, String> anAttrs) {
+        if ((anAttrs != _advertised) && ((_advertised == null) || (! _advertised.equals(anAttrs)))) {
+            _advertised = anAttrs;
+            _incarnation = Math.max(aNow, _incarnation + 1);
+            enqueue(new Update(self()));
+        }
+    }
+
+    /**
+     * Must be called whilst holding the lock.
+     */
+    private void refute(long aTimestamp) {
+        if (aTimestamp >= _incarnation) {
+            _logger.debug("Refuting suspicion of: " + _peer.getAddress());
+
+            _incarnation = Math.max(now(), aTimestamp + 1);
+            enqueue(new Update(self()));
+        }
+    }
+
+    /**
+     * Must be called whilst holding the lock.
+     *
+     * @param aDisseminate indicates whether the entry, if newer than ours, should be piggybacked to other peers
+     */
+    private void alive(Directory.Entry anEntry, boolean aDisseminate) {
+        String myName = anEntry.getPeerName();
+
+        if (myName.equals(_peer.getAddress()))
+            return;
+
+        Suspicion myTombstone = _tombstones.get(myName);
+
+        if ((myTombstone != null) && (myTombstone._timestamp >= anEntry.getTimestamp()))
+            return;
+
+        Directory.Entry myCurrent = current(myName);
+
+        if ((myCurrent == null) || (myCurrent.getTimestamp() < anEntry.getTimestamp()) ||
+                ((myCurrent.isSuspect()) && (myCurrent.getTimestamp() == anEntry.getTimestamp()))) {
+            _merges.put(myName, anEntry);
+            _tombstones.remove(myName);
+
+            Suspicion mySuspicion = _suspicions.get(myName);
+
+            if ((mySuspicion != null) && (mySuspicion._timestamp < anEntry.getTimestamp()))
+                _suspicions.remove(myName);
+
+            if (aDisseminate)
+                enqueue(new Update(anEntry));
+        }
+    }
+
+    /**
+     * Must be called whilst holding the lock.
+     */
+    private void suspect(String aPeer, long aTimestamp, long aNow) {
+        if (aPeer.equals(_peer.getAddress())) {
+            refute(aTimestamp);
+            return;
+        }
+
+        Directory.Entry myCurrent = current(aPeer);
+
+        if ((myCurrent != null) && (myCurrent.getTimestamp() <= aTimestamp) && (! _suspicions.containsKey(aPeer))) {
+            _suspicions.put(aPeer, new Suspicion(aPeer, aTimestamp, aNow + _suspicionTimeout));
+            enqueue(new Update(Kind.SUSPECT, aPeer, aTimestamp));
+        }
+    }
+
+    /**
+     * Must be called whilst holding the lock.
+     */
+    private void dead(String aPeer, long aTimestamp, long aNow) {
+        if (aPeer.equals(_peer.getAddress())) {
+            refute(aTimestamp);
+            return;
+        }
+
+        Directory.Entry myCurrent = current(aPeer);
+
+        if ((myCurrent != null) && (myCurrent.getTimestamp() <= aTimestamp)) {
+            _logger.debug("Declaring dead: " + aPeer);
+
+            _suspicions.remove(aPeer);
+            _tombstones.put(aPeer, new Suspicion(aPeer, aTimestamp,
+                    aNow + (TOMBSTONE_MULTIPLIER * _suspicionTimeout)));
+
+            // A merge yet to be applied is superseded, the directory holds the entry from before it
+            //
+            if (_merges.remove(aPeer) != null)
+                myCurrent = _directory.get(aPeer);
+
+            if (myCurrent != null)
+                _removals.add(myCurrent);
+
+            enqueue(new Update(Kind.DEAD, aPeer, aTimestamp));
+        }
+    }
+
+    /**
+     * Must be called whilst holding the lock.
+     */
+    private void enqueue(Update anUpdate) {
+        String myPeer = (anUpdate._kind == Kind.ALIVE) ? anUpdate._entry.getPeerName() : anUpdate._peer;
+
+        _pending.put(myPeer, new Pending(anUpdate));
+    }
+
+    /**
+     * Must be called whilst holding the lock, after <code>advertise</code>.
+     */
+    private Directory.Entry self() {
+        return new Directory.Entry(_peer.getAddress(), _advertised, _incarnation, _born);
+    }
+
+    private Message message() {
+        Map<String, String> myAttrs = _directory.getAttributes();
+
+        synchronized (this) {
+            advertise(now(), myAttrs);
+
+            return compose();
+        }
+    }
+
+    /**
+     * @return a message carrying our entry and those updates that have been transmitted least, retiring those that
+     * have been transmitted sufficiently often. Must be called whilst holding the lock.
+     */
+    private Message compose() {
+        Message myMessage = new Message(self());
+        List<Pending> myPending = new ArrayList<>(_pending.values());
+        int myLimit = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(_directory.size() + 1));
+
+        Collections.sort(myPending);
+
+        for (Pending myUpdate : myPending.subList(0, Math.min(MAX_PIGGYBACK, myPending.size()))) {
+            myMessage._updates.add(myUpdate._update);
+
+            if (++myUpdate._transmits >= myLimit)
+                _pending.values().remove(myUpdate);
+        }
+
+        return myMessage;
+    }
+
+    /**
+     * @return the current time according to the peer's scheduler, as used by the directory for its timestamps
+     */
+    private long now() {
+        return _peer.getScheduler().now();
+    }
+
+    private interface Outcome {
+        void acked(Message aResponse);
+        void failed();
+    }
+
+    private void send(URI aTarget, String anOp, Message aMessage, long aTimeout, final Outcome anOutcome) {
+        try {
+            AsyncHttpClient.BoundRequestBuilder myRequest =
+                    _peer.getClient().preparePost(aTarget.toString() + _mountPoint + anOp);
+
+            if (aTimeout > 0) {
+                // The client offers no other means of timing out a single request
+                //
+                @SuppressWarnings("deprecation")
+                com.ning.http.client.PerRequestConfig myConfig =
+                        new com.ning.http.client.PerRequestConfig(null, (int) aTimeout);
+
+                myRequest.setPerRequestConfig(myConfig);
+            }
+
+            myRequest.setBody(GSON.toJson(aMessage)).execute(new AsyncCompletionHandler<Response>() {
+                public Response onCompleted(Response aResponse) throws Exception {
+                    if (aResponse.getStatusCode() != 200) {
+                        if (anOutcome != null)
+                            anOutcome.failed();
+
+                        return aResponse;
+                    }
+
+                    try {
+                        Message myResponse = GSON.fromJson(aResponse.getResponseBody(), Message.class);
+
+                        absorb(myResponse);
+
+                        if (anOutcome != null)
+                            anOutcome.acked(myResponse);
+                    } catch (Exception anE) {
+                        _logger.debug("Unusable response", anE);
+
+                        if (anOutcome != null)
+                            anOutcome.failed();
+                    }
+
+                    return aResponse;
+                }
+
+                public void onThrowable(Throwable aThrowable) {
+                    _logger.debug("Request failed", aThrowable);
+
+                    if (anOutcome != null)
+                        anOutcome.failed();
+                }
+            });
+        } catch (IOException anIOE) {
+            _logger.debug("Request failed", anIOE);
+
+            if (anOutcome != null)
+                anOutcome.failed();
+        }
+    }
+
+    private static class Probe {
+        private final String _target;
+        private boolean _acked = false;
+
+        Probe(String aTarget) {
+            _target = aTarget;
+        }
+    }
+
+    private static class Suspicion {
+        private final String _peer;
+        private final long _timestamp;
+        private final long _deadline;
+
+        Suspicion(String aPeer, long aTimestamp, long aDeadline) {
+            _peer = aPeer;
+            _timestamp = aTimestamp;
+            _deadline = aDeadline;
+        }
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        private final Update _update;
+        private int _transmits = 0;
+
+        Pending(Update anUpdate) {
+            _update = anUpdate;
+        }
+
+        public int compareTo(Pending anOther) {
+            return Integer.compare(_transmits, anOther._transmits);
+        }
+    }
+
+    /**
+     * A membership change. <code>ALIVE</code> updates carry the entry, others only the peer and timestamp (incarnation)
+     * of the entry concerned.
+     */
+    static class Update {
+        private final Kind _kind;
+        private final Directory.Entry _entry;
+        private final String _peer;
+        private final long _timestamp;
+
+        Update(Directory.Entry anEntry) {
+            _kind = Kind.ALIVE;
+            _entry = anEntry;
+            _peer = null;
+            _timestamp = anEntry.getTimestamp();
+        }
+
+        Update(Kind aKind, String aPeer, long aTimestamp) {
+            _kind = aKind;
+            _entry = null;
+            _peer = aPeer;
+            _timestamp = aTimestamp;
+        }
+    }
+
+    /**
+     * Wire format for all operations.
+     */
+    static class Message {
+        private final Directory.Entry _sender;
+        private final List<Update> _updates = new ArrayList<>();
+        private String _target;
+        private Map<String, Directory.Entry> _entries;
+
+        Message(Directory.Entry aSender) {
+            _sender = aSender;
+        }
+    }
+}
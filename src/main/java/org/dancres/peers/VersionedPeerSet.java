@@ -0,0 +1,13 @@
+package org.dancres.peers;
+
+/**
+ * A <code>PeerSet</code> that versions its membership. <code>PeerSelector</code> caches the peers and only invokes
+ * <code>getPeers</code> again when the version changes, other sets are copied and compared each time a selection is
+ * made.
+ */
+public interface VersionedPeerSet extends PeerSet {
+    /**
+     * @return a value that differs from the previous value returned whenever the membership has changed.
+     */
+    public long getVersion();
+}
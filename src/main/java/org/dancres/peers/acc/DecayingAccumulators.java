@@ -5,6 +5,7 @@ import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
 import org.dancres.peers.Peer;
+import org.dancres.peers.RequestCompression;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.*;
 import org.jboss.netty.util.CharsetUtil;
@@ -145,6 +146,7 @@ public class DecayingAccumulators implements Peer.Service {
     private final ConcurrentHashMap<String, Set<Docket>> _collectedSamples = new ConcurrentHashMap<>();
     private final Peer _peer;
     private final long _window;
+    private final RequestCompression _compression = new RequestCompression();
 
     /**
      * Use this method to setup a client or a server with a default window of 60 seconds on the specified peer.
@@ -199,13 +201,16 @@ public class DecayingAccumulators implements Peer.Service {
      * @return the total of all samples received for the accumulator
      * @throws Exception
      */
-    public Count log(String aPeerAddress, Count aCount) throws Exception {
+    public Count log(final String aPeerAddress, Count aCount) throws Exception {
         final Gson myGson = new Gson();
-        AsyncHttpClient myClient = _peer.getClient();
+        AsyncHttpClient.BoundRequestBuilder myRequest = _peer.getClient().preparePost(aPeerAddress + getAddress());
+
+        _compression.setBody(myRequest, aPeerAddress, myGson.toJson(aCount).getBytes(CharsetUtil.UTF_8));
 
-        Future<Count> mySample = myClient.preparePost(aPeerAddress + getAddress()).setBody(
-                myGson.toJson(aCount)).execute(new AsyncCompletionHandler<Count>() {
+        Future<Count> mySample = myRequest.execute(new AsyncCompletionHandler<Count>() {
             public Count onCompleted(Response aResponse) throws Exception {
+                _compression.answered(aPeerAddress, aResponse);
+
                 String myTotalSample = aResponse.getResponseBody();
 
                 try {
@@ -215,6 +220,11 @@ public class DecayingAccumulators implements Peer.Service {
                     throw anE;
                 }
             }
+
+            public void onThrowable(Throwable aThrowable) {
+                _compression.failed(aPeerAddress);
+                super.onThrowable(aThrowable);
+            }
         });
 
         return mySample.get();
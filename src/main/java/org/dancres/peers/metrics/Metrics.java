@@ -0,0 +1,66 @@
+package org.dancres.peers.metrics;
+
+import java.util.Map;
+
+/**
+ * The means by which services record counters, gauges and histograms. Implementations may keep the values in memory
+ * (see <code>SimpleMetrics</code>) or bridge to some other metrics library. Asking for the same name twice yields the
+ * same instrument, instruments must be safe for concurrent use.
+ */
+public interface Metrics {
+    /**
+     * A monotonically increasing count of events.
+     */
+    public interface Counter {
+        void increment();
+
+        void add(long aDelta);
+
+        long get();
+    }
+
+    /**
+     * A value that varies over time, only the most recent value is retained.
+     */
+    public interface Gauge {
+        void set(long aValue);
+
+        long get();
+    }
+
+    /**
+     * The distribution of a series of values (typically durations or sizes).
+     */
+    public interface Histogram {
+        void record(long aValue);
+
+        /**
+         * @return the number of values recorded
+         */
+        long getCount();
+
+        /**
+         * @return the total of all values recorded
+         */
+        long getSum();
+
+        /**
+         * @return the largest value recorded or <code>0</code> if none have been
+         */
+        long getMax();
+    }
+
+    Counter counter(String aName);
+
+    Gauge gauge(String aName);
+
+    Histogram histogram(String aName);
+
+    /**
+     * @return the current value of each metric keyed by name, in name order, for export (e.g. by
+     * <code>MetricsService</code>). Counters and gauges are represented as a <code>Long</code>, histograms as a map of
+     * summary statistics. An implementation that bridges to another library may export via that library and return
+     * an empty map.
+     */
+    Map<String, Object> snapshot();
+}
@@ -0,0 +1,52 @@
+package org.dancres.peers.metrics;
+
+import com.google.gson.Gson;
+import org.dancres.peers.Peer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.*;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Exposes a peer's metrics over http. A GET of "{@literal <}peer{@literal >}/metrics" answers with a JSON object
+ * containing each metric keyed by name as described by <code>Metrics.snapshot</code>.
+ */
+public class MetricsService implements Peer.Service {
+    private static final Gson GSON = new Gson();
+
+    private final Metrics _metrics;
+    private final Peer.ServiceDispatcher _dispatcher = new Dispatcher();
+
+    /**
+     * Creates the service and adds it to the peer (invokes <code>Peer.add</code> at construction).
+     *
+     * @param aPeer is the peer on which to expose the metrics
+     * @param aMetrics are the metrics to expose, typically also passed to the peer's services such as
+     *                 <code>Directory</code>
+     */
+    public MetricsService(Peer aPeer, Metrics aMetrics) {
+        _metrics = aMetrics;
+        aPeer.add(this);
+    }
+
+    public String getAddress() {
+        return "/metrics";
+    }
+
+    public Peer.ServiceDispatcher getDispatcher() {
+        return _dispatcher;
+    }
+
+    private class Dispatcher implements Peer.ServiceDispatcher {
+        public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+            if (! aRequest.getMethod().equals(HttpMethod.GET)) {
+                aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            aResponse.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+            aResponse.setContent(ChannelBuffers.copiedBuffer(GSON.toJson(_metrics.snapshot()),
+                    CharsetUtil.UTF_8));
+            aResponse.setStatus(HttpResponseStatus.OK);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.dancres.peers.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps metrics in memory, recording is lock-free. Histograms bucket values such that each bucket spans at most a
+ * quarter of its lower bound, percentiles are thus accurate to within 25% whilst a histogram occupies a fixed, small
+ * amount of memory regardless of the number or range of values recorded.
+ */
+public class SimpleMetrics implements Metrics {
+    private final ConcurrentMap<String, SimpleCounter> _counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SimpleGauge> _gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SimpleHistogram> _histograms = new ConcurrentHashMap<>();
+
+    public Counter counter(String aName) {
+        SimpleCounter myCounter = _counters.get(aName);
+
+        if (myCounter == null) {
+            SimpleCounter myNew = new SimpleCounter();
+
+            myCounter = _counters.putIfAbsent(aName, myNew);
+
+            if (myCounter == null)
+                myCounter = myNew;
+        }
+
+        return myCounter;
+    }
+
+    public Gauge gauge(String aName) {
+        SimpleGauge myGauge = _gauges.get(aName);
+
+        if (myGauge == null) {
+            SimpleGauge myNew = new SimpleGauge();
+
+            myGauge = _gauges.putIfAbsent(aName, myNew);
+
+            if (myGauge == null)
+                myGauge = myNew;
+        }
+
+        return myGauge;
+    }
+
+    public Histogram histogram(String aName) {
+        SimpleHistogram myHistogram = _histograms.get(aName);
+
+        if (myHistogram == null) {
+            SimpleHistogram myNew = new SimpleHistogram();
+
+            myHistogram = _histograms.putIfAbsent(aName, myNew);
+
+            if (myHistogram == null)
+                myHistogram = myNew;
+        }
+
+        return myHistogram;
+    }
+
+    /**
+     * @return the current value of each metric keyed by name, in name order. Counters and gauges are represented as a
+     * <code>Long</code>, histograms as a map of count, sum, max, mean and 50th, 90th and 99th percentiles.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> mySnapshot = new TreeMap<>();
+
+        for (Map.Entry<String, SimpleCounter> kv : _counters.entrySet())
+            mySnapshot.put(kv.getKey(), kv.getValue().get());
+
+        for (Map.Entry<String, SimpleGauge> kv : _gauges.entrySet())
+            mySnapshot.put(kv.getKey(), kv.getValue().get());
+
+        for (Map.Entry<String, SimpleHistogram> kv : _histograms.entrySet())
+            mySnapshot.put(kv.getKey(), kv.getValue().snapshot());
+
+        return mySnapshot;
+    }
+
+    private static class SimpleCounter implements Counter {
+        private final AtomicLong _count = new AtomicLong(0);
+
+        public void increment() {
+            _count.incrementAndGet();
+        }
+
+        public void add(long aDelta) {
+            _count.addAndGet(aDelta);
+        }
+
+        public long get() {
+            return _count.get();
+        }
+    }
+
+    private static class SimpleGauge implements Gauge {
+        private final AtomicLong _value = new AtomicLong(0);
+
+        public void set(long aValue) {
+            _value.set(aValue);
+        }
+
+        public long get() {
+            return _value.get();
+        }
+    }
+
+    static class SimpleHistogram implements Histogram {
+        /**
+         * Values below 4 have a bucket each, thereafter each power of two is split into four buckets
+         */
+        private static final int BUCKETS = 4 + 61 * 4;
+
+        private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong _count = new AtomicLong(0);
+        private final AtomicLong _sum = new AtomicLong(0);
+        private final AtomicLong _max = new AtomicLong(0);
+
+        public void record(long aValue) {
+            _buckets.incrementAndGet(bucket(aValue));
+            _count.incrementAndGet();
+            _sum.addAndGet(aValue);
+
+            long myMax;
+
+            do {
+                myMax = _max.get();
+            } while ((aValue > myMax) && (! _max.compareAndSet(myMax, aValue)));
+        }
+
+        public long getCount() {
+            return _count.get();
+        }
+
+        public long getSum() {
+            return _sum.get();
+        }
+
+        public long getMax() {
+            return _max.get();
+        }
+
+        /**
+         * @param aQuantile is the fraction of values (between 0 and 1) that should be no greater than the result
+         * @return an upper bound for the value at the quantile, no greater than the largest value recorded
+         */
+        long percentile(double aQuantile) {
+            long myTotal = 0;
+
+            for (int i = 0; i < BUCKETS; i++)
+                myTotal += _buckets.get(i);
+
+            long myRank = (long) Math.ceil(aQuantile * myTotal);
+            long mySeen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                mySeen += _buckets.get(i);
+
+                if ((mySeen > 0) && (mySeen >= myRank))
+                    return Math.min(upperBound(i), _max.get());
+            }
+
+            return 0;
+        }
+
+        Map<String, Long> snapshot() {
+            Map<String, Long> mySnapshot = new TreeMap<>();
+            long myCount = _count.get();
+
+            mySnapshot.put("count", myCount);
+            mySnapshot.put("sum", _sum.get());
+            mySnapshot.put("max", _max.get());
+            mySnapshot.put("mean", (myCount == 0) ? 0 : _sum.get() / myCount);
+            mySnapshot.put("p50", percentile(0.5));
+            mySnapshot.put("p90", percentile(0.9));
+            mySnapshot.put("p99", percentile(0.99));
+
+            return mySnapshot;
+        }
+
+        /**
+         * Negative values (e.g. a delay distorted by clock skew) are counted with zero
+         */
+        static int bucket(long aValue) {
+            if (aValue < 4)
+                return (int) Math.max(0, aValue);
+
+            int myExponent = 63 - Long.numberOfLeadingZeros(aValue);
+            int mySub = (int) (aValue >>> (myExponent - 2)) & 3;
+
+            return 4 + (myExponent - 2) * 4 + mySub;
+        }
+
+        static long upperBound(int aBucket) {
+            if (aBucket < 4)
+                return aBucket;
+
+            int myExponent = (aBucket - 4) / 4 + 2;
+            long myLower = (long) (4 + (aBucket - 4) % 4) << (myExponent - 2);
+
+            return myLower + (1L << (myExponent - 2)) - 1;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Directory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Use a convergence tracker to wait for the directory to reach some state across the p2p network, e.g. for every live
+ * peer to report a new release during a rolling deploy. Unlike <code>GossipBarrier</code>, which says only that a
+ * round of gossip has happened, waiters are released once their predicate holds.
+ *
+ * Predicates are evaluated after each merge but only while there are waiters. Waiters with equal predicates share a
+ * single evaluation and are all released together. Only peers known to the directory are considered, a peer yet to
+ * be discovered can't hold a predicate up.
+ */
+public class ConvergenceTracker implements Directory.GossipListener {
+    /**
+     * A condition on the directory. Implementations should define <code>equals</code> and <code>hashCode</code> such
+     * that concurrent waits on the same condition share an evaluation.
+     */
+    public interface Predicate {
+        /**
+         * @param aLivePeers are the entries of the live peers, including the local one
+         * @return <code>true</code> if the directory has converged as required
+         */
+        public boolean converged(Collection<Directory.Entry> aLivePeers);
+    }
+
+    private final Directory _directory;
+
+    /**
+     * Guarded by <code>this</code>
+     */
+    private final Map<Predicate, Waiters> _waiters = new HashMap<>();
+    private volatile boolean _waiting = false;
+
+    /**
+     * Create a tracker for a particular directory
+     *
+     * @param aDir is the directory to attach the tracker to
+     */
+    public ConvergenceTracker(Directory aDir) {
+        _directory = aDir;
+        aDir.add(this);
+    }
+
+    /**
+     * @return a predicate that holds once all live peers report the attribute with a (numeric) value of at least
+     * <code>aVersion</code>
+     */
+    public static Predicate attributeAtLeast(String anAttribute, long aVersion) {
+        return new AttributeAtLeast(anAttribute, aVersion);
+    }
+
+    /**
+     * Wait for the directory to converge.
+     *
+     * @param aPredicate is the condition to wait for
+     * @param aTimeout is the maximum time to wait
+     * @param aUnit is the unit of <code>aTimeout</code>
+     * @return <code>true</code> if the predicate held before the timeout expired
+     */
+    public boolean await(Predicate aPredicate, long aTimeout, TimeUnit aUnit) throws InterruptedException {
+        Waiters myWaiters;
+
+        synchronized(this) {
+            myWaiters = _waiters.get(aPredicate);
+
+            if (myWaiters == null) {
+                myWaiters = new Waiters();
+                _waiters.put(aPredicate, myWaiters);
+                _waiting = true;
+            }
+
+            ++myWaiters._count;
+        }
+
+        try {
+            // Registered ahead of checking so a merge in the meantime can't be missed
+            //
+            if (aPredicate.converged(live()))
+                release(aPredicate, myWaiters);
+
+            return myWaiters._latch.await(aTimeout, aUnit);
+        } finally {
+            synchronized(this) {
+                if ((--myWaiters._count == 0) && (_waiters.get(aPredicate) == myWaiters))
+                    _waiters.remove(aPredicate);
+
+                _waiting = ! _waiters.isEmpty();
+            }
+        }
+    }
+
+    public void gossiped(Directory aDirectory) {
+        if (! _waiting)
+            return;
+
+        List<Map.Entry<Predicate, Waiters>> myWaiters;
+
+        synchronized(this) {
+            myWaiters = new ArrayList<>(_waiters.entrySet());
+        }
+
+        Collection<Directory.Entry> myLive = live();
+
+        for (Map.Entry<Predicate, Waiters> myWaiter : myWaiters)
+            if (myWaiter.getKey().converged(myLive))
+                release(myWaiter.getKey(), myWaiter.getValue());
+    }
+
+    private void release(Predicate aPredicate, Waiters aWaiters) {
+        aWaiters._latch.countDown();
+
+        synchronized(this) {
+            if (_waiters.get(aPredicate) == aWaiters)
+                _waiters.remove(aPredicate);
+
+            _waiting = ! _waiters.isEmpty();
+        }
+    }
+
+    /**
+     * @return the entries of the peers thought to be live, those restored from a snapshot may be long gone
+     */
+    private Collection<Directory.Entry> live() {
+        List<Directory.Entry> myLive = new ArrayList<>();
+
+        for (Directory.Entry myEntry : _directory.getDirectory().values())
+            if (! myEntry.isSuspect())
+                myLive.add(myEntry);
+
+        return myLive;
+    }
+
+    private static class Waiters {
+        private final CountDownLatch _latch = new CountDownLatch(1);
+
+        /**
+         * Guarded by the enclosing tracker
+         */
+        private int _count = 0;
+    }
+
+    private static class AttributeAtLeast implements Predicate {
+        private final String _attribute;
+        private final long _version;
+
+        AttributeAtLeast(String anAttribute, long aVersion) {
+            _attribute = anAttribute;
+            _version = aVersion;
+        }
+
+        public boolean converged(Collection<Directory.Entry> aLivePeers) {
+            for (Directory.Entry myEntry : aLivePeers) {
+                String myValue = myEntry.getAttributes().get(_attribute);
+
+                try {
+                    if ((myValue == null) || (Long.parseLong(myValue) < _version))
+                        return false;
+                } catch (NumberFormatException anNFE) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public boolean equals(Object anObject) {
+            if (anObject instanceof AttributeAtLeast) {
+                AttributeAtLeast myOther = (AttributeAtLeast) anObject;
+
+                return (_attribute.equals(myOther._attribute)) && (_version == myOther._version);
+            }
+
+            return false;
+        }
+
+        public int hashCode() {
+            return _attribute.hashCode() ^ (int) (_version ^ (_version >>> 32));
+        }
+
+        public String toString() {
+            return "AttributeAtLeast: " + _attribute + " >= " + _version;
+        }
+    }
+}
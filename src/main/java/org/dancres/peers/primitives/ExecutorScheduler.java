@@ -0,0 +1,204 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Scheduler;
+import org.dancres.peers.metrics.Metrics;
+import org.dancres.peers.metrics.SimpleMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * <p>A <code>Scheduler</code> backed by a single-threaded <code>ScheduledExecutorService</code> per lane. For each
+ * lane the following metrics are recorded:</p>
+ *
+ * <ul>
+ *     <li><code>scheduler.&lt;lane&gt;.delay</code> - histogram of the time in milliseconds between a task falling due
+ *     and it starting to run, a growing delay indicates tasks in the lane are queueing behind one another</li>
+ *     <li><code>scheduler.&lt;lane&gt;.time</code> - histogram of the time in milliseconds taken to run a task</li>
+ *     <li><code>scheduler.&lt;lane&gt;.overruns</code> - count of runs of periodic tasks that took longer than the
+ *     period</li>
+ *     <li><code>scheduler.&lt;lane&gt;.failures</code> - count of runs that threw</li>
+ * </ul>
+ */
+public class ExecutorScheduler implements Scheduler {
+    private static final Logger _logger = LoggerFactory.getLogger(ExecutorScheduler.class);
+
+    private final Metrics _metrics;
+    private final ConcurrentMap<String, ExecutorLane> _lanes = new ConcurrentHashMap<>();
+    private final Random _random = new Random();
+    private volatile boolean _shutdown = false;
+
+    public ExecutorScheduler() {
+        this(new SimpleMetrics());
+    }
+
+    /**
+     * @param aMetrics is where to record the metrics for each lane
+     */
+    public ExecutorScheduler(Metrics aMetrics) {
+        _metrics = aMetrics;
+    }
+
+    public Lane lane(String aName) {
+        ExecutorLane myLane = _lanes.get(aName);
+
+        if (myLane == null) {
+            ExecutorLane myNew = new ExecutorLane(aName);
+
+            myLane = _lanes.putIfAbsent(aName, myNew);
+
+            if (myLane == null)
+                myLane = myNew;
+            else
+                myNew._executor.shutdown();
+        }
+
+        // Lost a race with shutdown, make sure nothing gets run
+        //
+        if (_shutdown)
+            myLane._executor.shutdownNow();
+
+        return myLane;
+    }
+
+    public long now() {
+        return System.currentTimeMillis();
+    }
+
+    public void shutdown() {
+        _shutdown = true;
+
+        for (ExecutorLane myLane : _lanes.values())
+            myLane._executor.shutdownNow();
+    }
+
+    private class ExecutorLane implements Lane {
+        private final String _name;
+        private final ScheduledThreadPoolExecutor _executor;
+        private final Metrics.Histogram _delay;
+        private final Metrics.Histogram _time;
+        private final Metrics.Counter _overruns;
+        private final Metrics.Counter _failures;
+
+        ExecutorLane(final String aName) {
+            _name = aName;
+            _executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread myDaemon = new Thread(r, "Scheduler-" + aName);
+
+                    myDaemon.setDaemon(true);
+                    return myDaemon;
+                }
+            });
+
+            // Cancelled rounds (e.g. when a gossip round is brought forward) shouldn't linger until due
+            //
+            _executor.setRemoveOnCancelPolicy(true);
+
+            _delay = _metrics.histogram("scheduler." + aName + ".delay");
+            _time = _metrics.histogram("scheduler." + aName + ".time");
+            _overruns = _metrics.counter("scheduler." + aName + ".overruns");
+            _failures = _metrics.counter("scheduler." + aName + ".failures");
+        }
+
+        public Task schedule(Runnable aTask, long aDelay) {
+            return schedule(aTask, aDelay, 0, 0);
+        }
+
+        public Task schedule(Runnable aTask, long aDelay, long aPeriod, long aJitter) {
+            if ((aDelay < 0) || (aPeriod < 0) || (aJitter < 0))
+                throw new IllegalArgumentException("Delay, period and jitter must not be negative");
+
+            ScheduledTask myTask = new ScheduledTask(this, aTask, aPeriod, aJitter);
+
+            myTask.submit(aDelay);
+            return myTask;
+        }
+    }
+
+    /**
+     * A task that, if periodic, resubmits itself after each run such that each delay can be jittered
+     */
+    private class ScheduledTask implements Task, Runnable {
+        private final ExecutorLane _lane;
+        private final Runnable _task;
+        private final long _period;
+        private final long _jitter;
+        private ScheduledFuture<?> _future = null;
+        private long _due = 0;
+        private boolean _cancelled = false;
+        private boolean _done = false;
+
+        ScheduledTask(ExecutorLane aLane, Runnable aTask, long aPeriod, long aJitter) {
+            _lane = aLane;
+            _task = aTask;
+            _period = aPeriod;
+            _jitter = aJitter;
+        }
+
+        synchronized void submit(long aDelay) {
+            if (_cancelled)
+                return;
+
+            long myDelay = aDelay + ((_jitter == 0) ? 0 : (long) (_random.nextDouble() * (_jitter + 1)));
+
+            try {
+                _due = System.currentTimeMillis() + myDelay;
+                _future = _lane._executor.schedule(this, myDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException anREE) {
+                throw new IllegalStateException("Scheduler has been shutdown", anREE);
+            }
+        }
+
+        public void run() {
+            long myStart = System.currentTimeMillis();
+
+            synchronized(this) {
+                if (_cancelled)
+                    return;
+
+                if (_period == 0)
+                    _done = true;
+
+                _lane._delay.record(myStart - _due);
+            }
+
+            try {
+                _task.run();
+            } catch (Throwable aT) {
+                _lane._failures.increment();
+                _logger.error("Task failed in lane: " + _lane._name, aT);
+            }
+
+            long myTime = System.currentTimeMillis() - myStart;
+
+            _lane._time.record(myTime);
+
+            if (_period == 0)
+                return;
+
+            if (myTime > _period)
+                _lane._overruns.increment();
+
+            try {
+                submit(_period);
+            } catch (IllegalStateException anISE) {
+                _logger.debug("Scheduler shutdown, no further runs in lane: " + _lane._name);
+            }
+        }
+
+        public synchronized boolean cancel() {
+            if ((_cancelled) || (_done))
+                return false;
+
+            _cancelled = true;
+
+            if (_future != null)
+                _future.cancel(false);
+
+            return true;
+        }
+    }
+}
@@ -2,16 +2,16 @@ package org.dancres.peers.primitives;
 
 import org.dancres.peers.Directory;
 
-import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Use a gossip barrier to wait for a directory to partake in a round of gossip. This allows one to have some confidence
- * that an update or other local change has begun circulating across the p2p network.
+ * that an update or other local change has begun circulating across the p2p network. To wait for a change to have
+ * reached all peers, see <code>ConvergenceTracker</code>.
  */
-public class GossipBarrier implements Directory.Listener {
+public class GossipBarrier implements Directory.GossipListener {
     private final Lock _lock = new ReentrantLock();
     private final Condition _barrier = _lock.newCondition();
 
@@ -26,13 +26,12 @@ public class GossipBarrier implements Directory.Listener {
         aDir.add(this);
     }
 
-    public void updated(Directory aDirectory, List<Directory.Entry> aNewPeers, List<Directory.Entry> anUpdatedPeers,
-                        List<Directory.Entry> aDeadPeers) {
+    public void gossiped(Directory aDirectory) {
         _lock.lock();
 
         try {
             _gossipCount++;
-            _barrier.signal();
+            _barrier.signalAll();
         } finally {
             _lock.unlock();
         }
@@ -0,0 +1,97 @@
+package org.dancres.peers.primitives;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.peers.Peer;
+import org.dancres.peers.RequestCompression;
+import org.dancres.peers.Scheduler;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.util.internal.ConcurrentWeakKeyHashMap;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * InMemoryPeer is the counterpart of InProcessPeer for an <code>InMemoryProvider</code>. Peers share the provider's
+ * base URL and each occupies a subspace underneath it, requests made via a client built over the same provider
+ * are delivered to services rooted under "{@literal <}base{@literal >}/{@literal <}peer_subspace{@literal >}" without
+ * any http traffic. Suited to simulation (with latency and loss injected by the provider) and to services co-located
+ * in a single process.
+ */
+public class InMemoryPeer implements Peer {
+    private final InMemoryProvider _provider;
+    private final AsyncHttpClient _client;
+    private final Scheduler _scheduler;
+    private final ConcurrentMap<String, ServiceDispatcher> _dispatchers =
+            new ConcurrentWeakKeyHashMap<>();
+    private final ConcurrentMap<Class, Service> _services = new ConcurrentHashMap<>();
+    private final URI _fullAddress;
+    private final String _peerAddress;
+
+    /**
+     * @param aProvider is the provider to register with
+     * @param aClient is the client to make requests with, typically shared by all peers and built over
+     *                <code>aProvider</code>
+     * @param aPeerAddress is the sub-space to occupy under the provider's base URL - starting with a "/"
+     */
+    public InMemoryPeer(InMemoryProvider aProvider, AsyncHttpClient aClient, String aPeerAddress,
+                        Scheduler aScheduler) throws Exception {
+        _provider = aProvider;
+        _client = aClient;
+        _scheduler = aScheduler;
+        _peerAddress = aPeerAddress;
+        _fullAddress = new URI(_provider.getBase().toString() + aPeerAddress);
+
+        _provider.register(this);
+    }
+
+    String getPeerAddress() {
+        return _peerAddress;
+    }
+
+    void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+        if (! RequestCompression.received(aRequest, aResponse))
+            return;
+
+        for (Map.Entry<String, ServiceDispatcher> kv : _dispatchers.entrySet()) {
+            if (aServicePath.startsWith(kv.getKey())) {
+                kv.getValue().dispatch(aServicePath, aRequest, aResponse);
+                break;
+            }
+        }
+    }
+
+    public Scheduler getScheduler() {
+        return _scheduler;
+    }
+
+    public void stop() {
+        _provider.unregister(this);
+        _scheduler.shutdown();
+    }
+
+    public URI getURI() {
+        return _fullAddress;
+    }
+
+    public String getAddress() {
+        return _fullAddress.toString();
+    }
+
+    public AsyncHttpClient getClient() {
+        return _client;
+    }
+
+    public Service find(Class aServiceClass) {
+        return _services.get(aServiceClass);
+    }
+
+    public void add(Service aService) {
+        if (_dispatchers.putIfAbsent(aService.getAddress(), aService.getDispatcher()) != null)
+            throw new IllegalStateException("Already got a dispatcher rooted at: " + aService);
+
+        _services.put(aService.getClass(), aService);
+    }
+}
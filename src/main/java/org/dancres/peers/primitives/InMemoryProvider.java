@@ -0,0 +1,532 @@
+package org.dancres.peers.primitives;
+
+import com.ning.http.client.*;
+import com.ning.http.client.Cookie;
+import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.Scheduler;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.*;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>An <code>AsyncHttpProvider</code> that delivers requests straight to the dispatchers of <code>InMemoryPeer</code>s
+ * registered with it, no sockets or http encoding are involved. Used via an <code>AsyncHttpClient</code> constructed
+ * over it, shared by the peers. A request for a peer that isn't registered receives a 404 as it would from a shared
+ * <code>HttpServer</code> and dispatchers may <code>HttpServer.defer</code> their response.</p>
+ *
+ * <p>By default requests are dispatched and the response passed to the handler on the caller's thread, before
+ * <code>execute</code> returns. Latency and loss can be injected to simulate a network, in which case requests
+ * and responses are each delayed by a random latency (via the provider's scheduler) and each lost with some
+ * probability. A lost request or response causes the handler to be passed an <code>IOException</code>, a lost
+ * response having been processed by the recipient.</p>
+ */
+public class InMemoryProvider implements AsyncHttpProvider {
+    private static final Logger _logger = LoggerFactory.getLogger(InMemoryProvider.class);
+    private static final String LANE = "transport";
+
+    private final URI _base;
+    private final Scheduler.Lane _lane;
+    private final ConcurrentMap<String, InMemoryPeer> _peers = new ConcurrentHashMap<>();
+    private final Random _random = new Random();
+    private volatile long _minLatency = 0;
+    private volatile long _maxLatency = 0;
+    private volatile double _loss = 0;
+
+    /**
+     * @param aBase is the URL base under which peers are registered (e.g. "http://memory")
+     */
+    public InMemoryProvider(String aBase) throws Exception {
+        this(aBase, null);
+    }
+
+    /**
+     * @param aBase is the URL base under which peers are registered (e.g. "http://memory")
+     * @param aScheduler is used to delay requests and responses when latency is injected
+     */
+    public InMemoryProvider(String aBase, Scheduler aScheduler) throws Exception {
+        _base = new URI(aBase);
+        _lane = (aScheduler == null) ? null : aScheduler.lane(LANE);
+    }
+
+    /**
+     * Delay each request and each response by a latency chosen uniformly at random from a range.
+     *
+     * @param aMinimum is the minimum latency in milliseconds
+     * @param aMaximum is the maximum latency in milliseconds, <code>0</code> for none (the default)
+     */
+    public void setLatency(long aMinimum, long aMaximum) {
+        if ((aMinimum < 0) || (aMaximum < aMinimum))
+            throw new IllegalArgumentException("Minimum must be at least 0 and no greater than maximum");
+
+        if ((aMaximum > 0) && (_lane == null))
+            throw new IllegalStateException("Latency requires a scheduler");
+
+        _minLatency = aMinimum;
+        _maxLatency = aMaximum;
+    }
+
+    /**
+     * @param aProbability is the probability (between 0 and 1) that a request or response is lost (default 0)
+     */
+    public void setLoss(double aProbability) {
+        if ((aProbability < 0) || (aProbability > 1))
+            throw new IllegalArgumentException("Probability must be between 0 and 1");
+
+        _loss = aProbability;
+    }
+
+    URI getBase() {
+        return _base;
+    }
+
+    void register(InMemoryPeer aPeer) {
+        if (_peers.putIfAbsent(aPeer.getPeerAddress(), aPeer) != null)
+            throw new IllegalStateException("Already got a peer at: " + aPeer.getPeerAddress());
+    }
+
+    void unregister(InMemoryPeer aPeer) {
+        _peers.remove(aPeer.getPeerAddress(), aPeer);
+    }
+
+    public <T> ListenableFuture<T> execute(final Request aRequest, final AsyncHandler<T> aHandler)
+            throws IOException {
+        final InMemoryFuture<T> myFuture = new InMemoryFuture<>();
+        final URI myUri = aRequest.getURI();
+
+        deliver(new Runnable() {
+            public void run() {
+                if (lost()) {
+                    failed(aHandler, myFuture, new IOException("Request lost: " + myUri));
+                    return;
+                }
+
+                try {
+                    dispatch(aRequest, myUri, aHandler, myFuture);
+                } catch (Throwable aT) {
+                    _logger.warn("Dispatch failed: " + myUri, aT);
+                    failed(aHandler, myFuture, aT);
+                }
+            }
+        }, aHandler, myFuture);
+
+        return myFuture;
+    }
+
+    /**
+     * Pass the request to the dispatcher of the peer it addresses, as <code>InProcessPeer</code> would
+     */
+    private <T> void dispatch(Request aRequest, final URI aUri, final AsyncHandler<T> aHandler,
+                              final InMemoryFuture<T> aFuture) {
+        String myPath = (aUri.getRawPath() == null) ? "/" : aUri.getRawPath();
+        String myPathAndQuery = (aUri.getRawQuery() == null) ? myPath : myPath + "?" + aUri.getRawQuery();
+        int mySeparator = myPath.indexOf('/', 1);
+        String myPeerAddress = (mySeparator == -1) ? myPath : myPath.substring(0, mySeparator);
+        final InMemoryPeer myPeer = _peers.get(myPeerAddress);
+
+        if (myPeer == null) {
+            respond(aUri, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND), aHandler,
+                    aFuture);
+            return;
+        }
+
+        final HttpRequest myRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                HttpMethod.valueOf(aRequest.getMethod()), myPathAndQuery);
+
+        for (Map.Entry<String, List<String>> kv : aRequest.getHeaders())
+            myRequest.setHeader(kv.getKey(), kv.getValue());
+
+        if (aRequest.getByteData() != null)
+            myRequest.setContent(ChannelBuffers.wrappedBuffer(aRequest.getByteData()));
+        else if (aRequest.getStringData() != null)
+            myRequest.setContent(ChannelBuffers.copiedBuffer(aRequest.getStringData(), CharsetUtil.UTF_8));
+
+        HttpHeaders.setContentLength(myRequest, myRequest.getContent().readableBytes());
+
+        final HttpResponse myResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        final String myServicePath = myPathAndQuery.substring(myPeerAddress.length());
+
+        HttpServer.Deferred myCompletion = new HttpServer.Deferred() {
+            private final AtomicBoolean _completed = new AtomicBoolean(false);
+
+            public void complete() {
+                if (_completed.compareAndSet(false, true))
+                    respond(aUri, myResponse, aHandler, aFuture);
+            }
+        };
+
+        boolean isDeferred = HttpServer.process(new Runnable() {
+            public void run() {
+                myPeer.dispatch(myServicePath, myRequest, myResponse);
+            }
+        }, myCompletion);
+
+        if (! isDeferred)
+            myCompletion.complete();
+    }
+
+    private <T> void respond(final URI aUri, final HttpResponse aResponse, final AsyncHandler<T> aHandler,
+                             final InMemoryFuture<T> aFuture) {
+        deliver(new Runnable() {
+            public void run() {
+                if (lost()) {
+                    failed(aHandler, aFuture, new IOException("Response lost: " + aUri));
+                    return;
+                }
+
+                try {
+                    ChannelBuffer myContent = aResponse.getContent();
+                    byte[] myBody = new byte[myContent.readableBytes()];
+
+                    myContent.getBytes(myContent.readerIndex(), myBody);
+
+                    FluentCaseInsensitiveStringsMap myHeaders = new FluentCaseInsensitiveStringsMap();
+
+                    for (Map.Entry<String, String> kv : aResponse.getHeaders())
+                        myHeaders.add(kv.getKey(), kv.getValue());
+
+                    if ((aHandler.onStatusReceived(new Status(aUri, InMemoryProvider.this, aResponse.getStatus())) ==
+                            AsyncHandler.STATE.CONTINUE) &&
+                            (aHandler.onHeadersReceived(new Headers(aUri, InMemoryProvider.this, myHeaders)) ==
+                                    AsyncHandler.STATE.CONTINUE))
+                        aHandler.onBodyPartReceived(new BodyPart(aUri, InMemoryProvider.this, myBody));
+
+                    aFuture.content(aHandler.onCompleted());
+                } catch (Throwable aT) {
+                    failed(aHandler, aFuture, aT);
+                }
+            }
+        }, aHandler, aFuture);
+    }
+
+    private static <T> void failed(AsyncHandler<T> aHandler, InMemoryFuture<T> aFuture, Throwable aThrowable) {
+        try {
+            aHandler.onThrowable(aThrowable);
+        } finally {
+            aFuture.abort(aThrowable);
+        }
+    }
+
+    /**
+     * Run a delivery immediately or, if latency is injected, after a random latency
+     */
+    private <T> void deliver(final Runnable aDelivery, AsyncHandler<T> aHandler, InMemoryFuture<T> aFuture) {
+        long myMax = _maxLatency;
+
+        if (myMax == 0) {
+            aDelivery.run();
+            return;
+        }
+
+        long myMin = _minLatency;
+        long myLatency = myMin + (long) (_random.nextDouble() * (myMax - myMin + 1));
+
+        try {
+            _lane.schedule(aDelivery, Math.min(myLatency, myMax));
+        } catch (IllegalStateException anISE) {
+            failed(aHandler, aFuture, new IOException("Provider scheduler shutdown", anISE));
+        }
+    }
+
+    private boolean lost() {
+        double myLoss = _loss;
+
+        return (myLoss > 0) && (_random.nextDouble() < myLoss);
+    }
+
+    public void close() {
+    }
+
+    public Response prepareResponse(com.ning.http.client.HttpResponseStatus aStatus, HttpResponseHeaders aHeaders,
+                                    List<HttpResponseBodyPart> aBodyParts) {
+        return new InMemoryResponse((Status) aStatus, (Headers) aHeaders, aBodyParts);
+    }
+
+    private static class Status extends com.ning.http.client.HttpResponseStatus {
+        private final HttpResponseStatus _status;
+
+        Status(URI aUri, AsyncHttpProvider aProvider, HttpResponseStatus aStatus) {
+            super(aUri, aProvider);
+            _status = aStatus;
+        }
+
+        public int getStatusCode() {
+            return _status.getCode();
+        }
+
+        public String getStatusText() {
+            return _status.getReasonPhrase();
+        }
+
+        public String getProtocolName() {
+            return "HTTP";
+        }
+
+        public int getProtocolMajorVersion() {
+            return 1;
+        }
+
+        public int getProtocolMinorVersion() {
+            return 1;
+        }
+
+        public String getProtocolText() {
+            return "HTTP/1.1";
+        }
+    }
+
+    private static class Headers extends HttpResponseHeaders {
+        private final FluentCaseInsensitiveStringsMap _headers;
+
+        Headers(URI aUri, AsyncHttpProvider aProvider, FluentCaseInsensitiveStringsMap aHeaders) {
+            super(aUri, aProvider);
+            _headers = aHeaders;
+        }
+
+        public FluentCaseInsensitiveStringsMap getHeaders() {
+            return _headers;
+        }
+    }
+
+    private static class BodyPart extends HttpResponseBodyPart {
+        private final byte[] _bytes;
+
+        BodyPart(URI aUri, AsyncHttpProvider aProvider, byte[] aBytes) {
+            super(aUri, aProvider);
+            _bytes = aBytes;
+        }
+
+        public byte[] getBodyPartBytes() {
+            return _bytes;
+        }
+
+        public int writeTo(OutputStream aStream) throws IOException {
+            aStream.write(_bytes);
+            return _bytes.length;
+        }
+
+        public ByteBuffer getBodyByteBuffer() {
+            return ByteBuffer.wrap(_bytes);
+        }
+
+        public boolean isLast() {
+            return true;
+        }
+
+        public void markUnderlyingConnectionAsClosed() {
+        }
+
+        public boolean closeUnderlyingConnection() {
+            return false;
+        }
+
+        public int length() {
+            return _bytes.length;
+        }
+    }
+
+    private static class InMemoryResponse implements Response {
+        private final Status _status;
+        private final FluentCaseInsensitiveStringsMap _headers;
+        private final byte[] _body;
+
+        InMemoryResponse(Status aStatus, Headers aHeaders, List<HttpResponseBodyPart> aBodyParts) {
+            _status = aStatus;
+            _headers = (aHeaders == null) ? new FluentCaseInsensitiveStringsMap() : aHeaders.getHeaders();
+            _body = ((aBodyParts == null) || (aBodyParts.isEmpty())) ? new byte[0] :
+                    aBodyParts.get(0).getBodyPartBytes();
+        }
+
+        public int getStatusCode() {
+            return _status.getStatusCode();
+        }
+
+        public String getStatusText() {
+            return _status.getStatusText();
+        }
+
+        public byte[] getResponseBodyAsBytes() {
+            return _body;
+        }
+
+        public ByteBuffer getResponseBodyAsByteBuffer() {
+            return ByteBuffer.wrap(_body);
+        }
+
+        public InputStream getResponseBodyAsStream() {
+            return new ByteArrayInputStream(_body);
+        }
+
+        public String getResponseBodyExcerpt(int aMaxLength, String aCharset) {
+            String myBody = getResponseBody(aCharset);
+
+            return (myBody.length() <= aMaxLength) ? myBody : myBody.substring(0, aMaxLength);
+        }
+
+        public String getResponseBody(String aCharset) {
+            return new String(_body, (aCharset == null) ? CharsetUtil.UTF_8 : Charset.forName(aCharset));
+        }
+
+        public String getResponseBodyExcerpt(int aMaxLength) {
+            return getResponseBodyExcerpt(aMaxLength, null);
+        }
+
+        public String getResponseBody() {
+            return getResponseBody(null);
+        }
+
+        public URI getUri() {
+            return _status.getUrl();
+        }
+
+        public String getContentType() {
+            return _headers.getFirstValue(HttpHeaders.Names.CONTENT_TYPE);
+        }
+
+        public String getHeader(String aName) {
+            return _headers.getFirstValue(aName);
+        }
+
+        public List<String> getHeaders(String aName) {
+            List<String> myValues = _headers.get(aName);
+
+            return (myValues == null) ? Collections.<String>emptyList() : myValues;
+        }
+
+        public FluentCaseInsensitiveStringsMap getHeaders() {
+            return _headers;
+        }
+
+        public boolean isRedirected() {
+            return false;
+        }
+
+        public List<Cookie> getCookies() {
+            return Collections.emptyList();
+        }
+
+        public boolean hasResponseStatus() {
+            return true;
+        }
+
+        public boolean hasResponseHeaders() {
+            return true;
+        }
+
+        public boolean hasResponseBody() {
+            return _body.length > 0;
+        }
+
+        public String toString() {
+            return "InMemoryResponse: " + _status.getStatusCode() + " " + _headers;
+        }
+    }
+
+    private static class InMemoryFuture<V> implements ListenableFuture<V> {
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private final List<Runnable> _listeners = new LinkedList<>();
+        private V _value;
+        private Throwable _throwable;
+
+        public void done() {
+        }
+
+        public void abort(Throwable aThrowable) {
+            _throwable = aThrowable;
+            completed();
+        }
+
+        public void content(V aValue) {
+            _value = aValue;
+            completed();
+        }
+
+        private void completed() {
+            List<Runnable> myListeners;
+
+            synchronized(this) {
+                _done.countDown();
+                myListeners = new ArrayList<>(_listeners);
+                _listeners.clear();
+            }
+
+            for (Runnable myListener : myListeners)
+                myListener.run();
+        }
+
+        public void touch() {
+        }
+
+        public boolean getAndSetWriteHeaders(boolean aWriteHeaders) {
+            return false;
+        }
+
+        public boolean getAndSetWriteBody(boolean aWriteBody) {
+            return false;
+        }
+
+        public ListenableFuture<V> addListener(final Runnable aListener, final Executor anExecutor) {
+            Runnable myListener = new Runnable() {
+                public void run() {
+                    anExecutor.execute(aListener);
+                }
+            };
+
+            synchronized(this) {
+                if (_done.getCount() != 0) {
+                    _listeners.add(myListener);
+                    return this;
+                }
+            }
+
+            myListener.run();
+            return this;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return _done.getCount() == 0;
+        }
+
+        public V get() throws InterruptedException, ExecutionException {
+            _done.await();
+            return result();
+        }
+
+        public V get(long aTimeout, TimeUnit aUnit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (! _done.await(aTimeout, aUnit))
+                throw new TimeoutException();
+
+            return result();
+        }
+
+        private V result() throws ExecutionException {
+            if (_throwable != null)
+                throw new ExecutionException(_throwable);
+
+            return _value;
+        }
+    }
+}
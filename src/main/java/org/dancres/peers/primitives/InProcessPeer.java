@@ -3,6 +3,8 @@ package org.dancres.peers.primitives;
 import com.ning.http.client.AsyncHttpClient;
 import org.dancres.net.netty.HttpServer;
 import org.dancres.peers.Peer;
+import org.dancres.peers.RequestCompression;
+import org.dancres.peers.Scheduler;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.util.internal.ConcurrentWeakKeyHashMap;
@@ -20,7 +22,7 @@ import java.util.concurrent.ConcurrentMap;
 public class InProcessPeer implements Peer {
     private final AsyncHttpClient _client;
     private final HttpServer _server;
-    private final Timer _timer;
+    private final Scheduler _scheduler;
     private final ConcurrentMap<String, ServiceDispatcher> _dispatchers =
             new ConcurrentWeakKeyHashMap<>();
     private final ConcurrentMap<Class, Service> _services = new ConcurrentHashMap<>();
@@ -32,10 +34,10 @@ public class InProcessPeer implements Peer {
      * @param aPeerAddress is the sub-space to occupy under the HttpServer's base URL - starting with a "/"
      */
     public InProcessPeer(HttpServer aServer, AsyncHttpClient aClient,
-                         final String aPeerAddress, Timer aTimer) throws Exception {
+                         final String aPeerAddress, Scheduler aScheduler) throws Exception {
         _server = aServer;
         _client = aClient;
-        _timer = aTimer;
+        _scheduler = aScheduler;
         _peerAddress = aPeerAddress;
         _fullAddress = new URI(_server.getBase().toString() + aPeerAddress);
 
@@ -44,6 +46,9 @@ public class InProcessPeer implements Peer {
                 String myServicePath =
                         aRequest.getUri().substring(aRequest.getUri().indexOf(aPeerAddress) + aPeerAddress.length());
 
+                if (! RequestCompression.received(aRequest, aResponse))
+                    return;
+
                 for (Map.Entry<String, ServiceDispatcher> kv : _dispatchers.entrySet()) {
                     if (myServicePath.startsWith(kv.getKey())) {
                         kv.getValue().dispatch(myServicePath, aRequest, aResponse);
@@ -54,13 +59,13 @@ public class InProcessPeer implements Peer {
         });
     }
 
-    public Timer getTimer() {
-        return _timer;
+    public Scheduler getScheduler() {
+        return _scheduler;
     }
 
     public void stop() {
         _server.remove(_peerAddress);
-        _timer.cancel();
+        _scheduler.shutdown();
     }
 
     public URI getURI() {
@@ -0,0 +1,232 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Directory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A phi-accrual failure detector for use with <code>Directory</code>. The intervals between successive timestamps
+ * seen in each peer's <code>Entry</code> are sampled and modelled as a normal distribution. Phi is the suspicion
+ * level that a peer has failed given the time elapsed since its last timestamp:</p>
+ *
+ * <pre>phi = -log10(1 - F(elapsed))</pre>
+ *
+ * <p>where F is the cumulative distribution function. A peer is declared dead once phi exceeds the configured
+ * threshold. Because the threshold is fixed, the elapsed time at which that happens can be computed directly from the
+ * mean and standard deviation of the intervals seen, yielding a deadline for <code>Directory</code> to act on.
+ * Peers that update regularly are thus detected quickly whilst those that are erratic (e.g. suffering GC pauses) are
+ * given more leeway.</p>
+ *
+ * <p>The CDF is approximated with a logistic function which is both accurate to within 0.0002 and trivially
+ * invertible.</p>
+ */
+public class PhiAccrualDetector implements Directory.FailureDetector {
+    private static final double DEFAULT_THRESHOLD = 8.0;
+    private static final int DEFAULT_WINDOW_SIZE = 200;
+    private static final long DEFAULT_MIN_STD_DEVIATION = 500;
+    private static final long DEFAULT_ACCEPTABLE_PAUSE = 0;
+
+    private final double _threshold;
+    private final int _windowSize;
+    private final long _minStdDeviation;
+    private final long _acceptablePause;
+    private final long _firstInterval;
+
+    /**
+     * The number of standard deviations beyond the mean at which phi reaches the threshold
+     */
+    private final double _deviations;
+
+    private final ConcurrentMap<String, History> _histories = new ConcurrentHashMap<>();
+
+    /**
+     * @param aFirstInterval is an estimate of the interval between updates to a peer's entry (typically the gossip
+     *                       period) used until sufficient samples have been collected.
+     */
+    public PhiAccrualDetector(long aFirstInterval) {
+        this(DEFAULT_THRESHOLD, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_STD_DEVIATION, DEFAULT_ACCEPTABLE_PAUSE,
+                aFirstInterval);
+    }
+
+    /**
+     * @param aThreshold is the level of phi at which a peer is considered dead, a value of 8 implies a one in 10^8
+     *                   chance of a live peer being declared dead.
+     * @param aWindowSize is the number of intervals sampled per peer
+     * @param aMinStdDeviation is the minimum standard deviation in milliseconds used when computing phi, this prevents
+     *                         an overly sensitive detector when intervals are highly regular.
+     * @param anAcceptablePause is a period in milliseconds added to the mean interval to tolerate occasional pauses
+     * @param aFirstInterval is an estimate of the interval between updates to a peer's entry (typically the gossip
+     *                       period) used until sufficient samples have been collected.
+     */
+    public PhiAccrualDetector(double aThreshold, int aWindowSize, long aMinStdDeviation, long anAcceptablePause,
+                              long aFirstInterval) {
+        if (aThreshold <= 0)
+            throw new IllegalArgumentException("Threshold must be positive");
+
+        if (aWindowSize < 2)
+            throw new IllegalArgumentException("Window must hold at least two samples");
+
+        _threshold = aThreshold;
+        _windowSize = aWindowSize;
+        _minStdDeviation = aMinStdDeviation;
+        _acceptablePause = anAcceptablePause;
+        _firstInterval = aFirstInterval;
+        _deviations = deviationsFor(aThreshold);
+    }
+
+    /**
+     * Solve for y in phi = -log10(1 - F(y)) where F(y) = 1 / (1 + e^(-y * (1.5976 + 0.070566 * y^2))).
+     * Rearranging gives y * (1.5976 + 0.070566 * y^2) = ln((1 - p) / p) with p = 10^-phi, a cubic with a single real
+     * root which is found by Newton's method.
+     */
+    private static double deviationsFor(double aThreshold) {
+        double myP = Math.pow(10, -aThreshold);
+        double myU = Math.log((1 - myP) / myP);
+        double myY = myU / 1.5976;
+
+        for (int i = 0; i < 50; i++) {
+            double myF = (0.070566 * myY * myY * myY) + (1.5976 * myY) - myU;
+            double myDf = (3 * 0.070566 * myY * myY) + 1.5976;
+            double myNext = myY - (myF / myDf);
+
+            if (Math.abs(myNext - myY) < 1e-9)
+                return myNext;
+
+            myY = myNext;
+        }
+
+        return myY;
+    }
+
+    public long deadline(Directory.Entry anEntry) {
+        History myHistory = _histories.get(anEntry.getPeerName());
+
+        if (myHistory == null) {
+            History myNew = new History(_windowSize, _firstInterval);
+
+            myHistory = _histories.putIfAbsent(anEntry.getPeerName(), myNew);
+
+            if (myHistory == null)
+                myHistory = myNew;
+        }
+
+        synchronized (myHistory) {
+            myHistory.sample(anEntry.getTimestamp());
+
+            return myHistory.getLast() +
+                    (long) Math.ceil(mean(myHistory) + (_deviations * stdDeviation(myHistory)));
+        }
+    }
+
+    public void forget(String aPeerName) {
+        _histories.remove(aPeerName);
+    }
+
+    /**
+     * @param aPeerName is the peer of interest
+     * @param aNow is the time at which to compute suspicion
+     * @return the current suspicion level for the specified peer or <code>0</code> if the peer is unknown
+     */
+    public double phi(String aPeerName, long aNow) {
+        History myHistory = _histories.get(aPeerName);
+
+        if (myHistory == null)
+            return 0.0;
+
+        synchronized (myHistory) {
+            if (myHistory.getLast() == 0)
+                return 0.0;
+
+            double myY = (aNow - myHistory.getLast() - mean(myHistory)) / stdDeviation(myHistory);
+            double myE = Math.exp(-myY * (1.5976 + 0.070566 * myY * myY));
+
+            if (aNow - myHistory.getLast() > mean(myHistory))
+                return -Math.log10(myE / (1.0 + myE));
+            else
+                return -Math.log10(1.0 - 1.0 / (1.0 + myE));
+        }
+    }
+
+    /**
+     * @return the threshold at which this detector declares a peer dead
+     */
+    public double getThreshold() {
+        return _threshold;
+    }
+
+    private double mean(History aHistory) {
+        return aHistory.mean() + _acceptablePause;
+    }
+
+    private double stdDeviation(History aHistory) {
+        return Math.max(aHistory.stdDeviation(), _minStdDeviation);
+    }
+
+    /**
+     * A bounded window of intervals for a single peer, maintaining running totals for mean and variance.
+     * Instances are not thread-safe.
+     */
+    private static class History {
+        private final long[] _intervals;
+        private int _next = 0;
+        private int _count = 0;
+        private double _sum = 0;
+        private double _squares = 0;
+        private long _last = 0;
+
+        /**
+         * Seed the history such that mean is the first interval and standard deviation is a quarter of it.
+         */
+        History(int aWindowSize, long aFirstInterval) {
+            _intervals = new long[aWindowSize];
+
+            long myDeviation = aFirstInterval / 4;
+
+            add(aFirstInterval - myDeviation);
+            add(aFirstInterval + myDeviation);
+        }
+
+        /**
+         * Record a timestamp, only timestamps later than those seen previously yield an interval.
+         */
+        void sample(long aTimestamp) {
+            if (_last == 0) {
+                _last = aTimestamp;
+            } else if (aTimestamp > _last) {
+                add(aTimestamp - _last);
+                _last = aTimestamp;
+            }
+        }
+
+        private void add(long anInterval) {
+            if (_count == _intervals.length) {
+                long myOldest = _intervals[_next];
+
+                _sum -= myOldest;
+                _squares -= ((double) myOldest) * myOldest;
+            } else {
+                _count++;
+            }
+
+            _intervals[_next] = anInterval;
+            _next = (_next + 1) % _intervals.length;
+            _sum += anInterval;
+            _squares += ((double) anInterval) * anInterval;
+        }
+
+        long getLast() {
+            return _last;
+        }
+
+        double mean() {
+            return _sum / _count;
+        }
+
+        double stdDeviation() {
+            double myMean = mean();
+
+            return Math.sqrt(Math.max((_squares / _count) - (myMean * myMean), 0));
+        }
+    }
+}
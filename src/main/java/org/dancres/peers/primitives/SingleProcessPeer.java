@@ -2,9 +2,9 @@ package org.dancres.peers.primitives;
 
 import com.ning.http.client.AsyncHttpClient;
 import org.dancres.peers.Peer;
+import org.dancres.peers.Scheduler;
 
 import java.net.URI;
-import java.util.Timer;
 
 /**
  * <p>SingleProcessPeer is a peer designed to run alone in its own process (e.g. it's a standalone webserver that
@@ -13,7 +13,7 @@ import java.util.Timer;
  * <b>Not currently implemented.</b>
  */
 public class SingleProcessPeer implements Peer {
-    public Timer getTimer() {
+    public Scheduler getScheduler() {
         return null;
     }
 
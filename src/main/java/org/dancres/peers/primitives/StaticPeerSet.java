@@ -1,6 +1,6 @@
 package org.dancres.peers.primitives;
 
-import org.dancres.peers.PeerSet;
+import org.dancres.peers.VersionedPeerSet;
 
 import java.net.URI;
 import java.util.Collections;
@@ -10,7 +10,7 @@ import java.util.Set;
 /**
  * A static (unchanging set of peers) implementation of a <code>PeerSet</code>
  */
-public class StaticPeerSet implements PeerSet {
+public class StaticPeerSet implements VersionedPeerSet {
     private final Set<URI> _peerSet;
 
     public StaticPeerSet(Set<URI> aSet) {
@@ -27,6 +27,13 @@ public class StaticPeerSet implements PeerSet {
         return myClone;
     }
 
+    /**
+     * @return <code>0</code>, the set never changes
+     */
+    public long getVersion() {
+        return 0;
+    }
+
     public Set<String> getPeersAsStrings() {
         Set<String> myClone = new HashSet<>();
 
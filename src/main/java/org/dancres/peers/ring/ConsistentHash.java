@@ -4,6 +4,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Predicate;
@@ -59,6 +60,12 @@ public class ConsistentHash<T extends Comparable> {
      */
     private final ConcurrentMap<String, RingPositions<T>> _ringPositions = new ConcurrentHashMap<>();
 
+    /**
+     * Incremented whenever <code>_ringPositions</code> changes such that a snapshot can be reused until then
+     */
+    private final AtomicLong _generation = new AtomicLong(0);
+    private volatile CachedRing<T> _cached = null;
+
     private final Packager<T> _packager;
     private final PositionGenerator<T> _positionGenerator;
     private final String _ringName;
@@ -125,7 +132,15 @@ public class ConsistentHash<T extends Comparable> {
 
     }
 
-    private class AttrProducerImpl implements Directory.AttributeProducer {
+    /**
+     * Local positions are only ever replaced with a new generation so we need only re-marshall when the generation
+     * changes.
+     */
+    private class AttrProducerImpl implements Directory.VersionedAttributeProducer {
+        public long getVersion() {
+            return _ringPositions.get(_peer.getAddress()).getGeneration();
+        }
+
         public Map<String, String> produce() {
             Map<String, String> myFlattenedRingPosns = new HashMap<>();
 
@@ -164,11 +179,14 @@ public class ConsistentHash<T extends Comparable> {
             }
 
             // For updated peers, if they're a ring member that just acquired their first set of positions from our
-            // perspective, treat them as new, otherwise replace the existing ones
+            // perspective, treat them as new, otherwise replace the existing ones. Peers whose positions are unchanged
+            // needn't be parsed again.
             //
             for (Directory.Entry anUpdatedEntry : Iterables.filter(anUpdatedPeers, new Predicate<Directory.Entry>() {
                 public boolean apply(Directory.Entry entry) {
-                    return entry.getAttributes().containsKey(_ringName);
+                    return entry.getAttributes().containsKey(_ringName) &&
+                            ((entry.getChangedKeys().contains(_ringName)) ||
+                                    (! _ringPositions.containsKey(entry.getPeerName())));
                 }
             })) {
                 RingPositions<T> myPeerPositions = _packager.extractRingPositions(anUpdatedEntry);
@@ -213,9 +231,11 @@ public class ConsistentHash<T extends Comparable> {
             if (!haveUpdates)
                 return;
 
+            _generation.incrementAndGet();
+
             // Now recompute the positions on the ring
             //
-            RingSnapshot<T> myRingSnapshot = new RingSnapshot<>(_ringPositions, _peer);
+            RingSnapshot<T> myRingSnapshot = getRing();
 
             // Signal a general change
             //
@@ -228,6 +248,7 @@ public class ConsistentHash<T extends Comparable> {
             if (!myRingSnapshot._rejected.isEmpty()) {
                 RingPositions<T> myOldPosns = _ringPositions.get(_peer.getAddress());
                 _ringPositions.replace(_peer.getAddress(), myOldPosns, myOldPosns.remove(myRingSnapshot._rejected));
+                _generation.incrementAndGet();
 
                 for (RingPosition myPosn : myRingSnapshot._rejected) {
                     for (Listener<T> anL : _listeners) {
@@ -241,6 +262,7 @@ public class ConsistentHash<T extends Comparable> {
     private RingPosition insertPosition(RingPosition<T> aPosn) {
         RingPositions<T> myOldPosns = _ringPositions.get(_peer.getAddress());
         _ringPositions.replace(_peer.getAddress(), myOldPosns, myOldPosns.add(Collections.singletonList(aPosn)));
+        _generation.incrementAndGet();
 
         return aPosn;
     }
@@ -257,8 +279,33 @@ public class ConsistentHash<T extends Comparable> {
         return myOccupiedPositions;
     }
 
+    /**
+     * @return the current ring, shared between callers until the positions change
+     */
     public RingSnapshot<T> getRing() {
-        return new RingSnapshot<>(_ringPositions, _peer);
+        long myGeneration = _generation.get();
+        CachedRing<T> myCached = _cached;
+
+        if ((myCached != null) && (myCached._generation == myGeneration))
+            return myCached._ring;
+
+        // Positions may change whilst we compute, in which case the generation will have moved on and the next caller
+        // will compute again
+        //
+        RingSnapshot<T> myRing = new RingSnapshot<>(_ringPositions, _peer);
+
+        _cached = new CachedRing<>(myGeneration, myRing);
+        return myRing;
+    }
+
+    private static class CachedRing<T extends Comparable> {
+        private final long _generation;
+        private final RingSnapshot<T> _ring;
+
+        CachedRing(long aGeneration, RingSnapshot<T> aRing) {
+            _generation = aGeneration;
+            _ring = aRing;
+        }
     }
 
     /**
@@ -21,6 +21,10 @@ class RingPositions<T extends Comparable> {
         _positions = aPositions;
     }
 
+    long getGeneration() {
+        return _generation;
+    }
+
     boolean supercedes(RingPositions<T> aPositions) {
         return _generation > aPositions._generation;
     }
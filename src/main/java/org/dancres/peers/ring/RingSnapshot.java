@@ -18,6 +18,12 @@ public class RingSnapshot<T extends Comparable> implements Iterable<RingPosition
     final List<RingPosition<T>> _rejected;
     final Peer _peer;
 
+    /**
+     * The positions in ring order, computed once such that allocation is a binary search
+     */
+    private final SortedSet<RingPosition<T>> _positions;
+    private final RingPosition<T>[] _sorted;
+
     RingSnapshot(Map<String, RingPositions<T>> aRingPositions, Peer aPeer) {
         _peer = aPeer;
 
@@ -60,6 +66,14 @@ public class RingSnapshot<T extends Comparable> implements Iterable<RingPosition
 
         _newRing = myNewRing;
         _rejected = myLocalRejections;
+        _positions = Collections.unmodifiableSortedSet(new TreeSet<>(myNewRing.values()));
+
+        // A generic array can't be created, the positions are all of type T
+        //
+        @SuppressWarnings("unchecked")
+        RingPosition<T>[] mySorted = _positions.toArray(new RingPosition[_positions.size()]);
+
+        _sorted = mySorted;
     }
 
     /**
@@ -69,7 +83,10 @@ public class RingSnapshot<T extends Comparable> implements Iterable<RingPosition
      * @return
      */
     public RingPosition<T> allocate(Comparable aHashCode) {
-        return allocate(aHashCode, 1).get(0);
+        if (_sorted.length == 0)
+            throw new IllegalStateException("Haven't got any positions to allocate to");
+
+        return _sorted[owner(aHashCode)];
     }
 
     /**
@@ -81,72 +98,58 @@ public class RingSnapshot<T extends Comparable> implements Iterable<RingPosition
      * @return a list of positions
      */
     public List<RingPosition<T>> allocate(Comparable aHashCode, int aReplicationCount) {
-        TreeSet<RingPosition<T>> myPositions = new TreeSet<>(_newRing.values());
-
-        if (myPositions.size() == 0)
+        if (_sorted.length == 0)
             throw new IllegalStateException("Haven't got any positions to allocate to");
 
-        if (myPositions.size() < aReplicationCount)
+        if (_sorted.length < aReplicationCount)
             throw new IllegalStateException("Haven't got enough positions for the specified replication count: " +
                     aReplicationCount);
 
-        // If aHashCode is greater than the greatest position, it wraps around to the first
-        //
-        if (myPositions.last().getPosition().compareTo(aHashCode) < 1)
-            return extract(myPositions, myPositions.first(), aReplicationCount);
-        else {
-            for (RingPosition myPos : myPositions) {
-                if (myPos.getPosition().compareTo(aHashCode) >= 1) {
-                    return extract(myPositions, myPos, aReplicationCount);
-                }
-            }
-        }
-
-        // Shouldn't happen
-        //
-        throw new RuntimeException("Logical error in code");
-    }
+        List<RingPosition<T>> myResults = new ArrayList<>(aReplicationCount);
+        int myIndex = owner(aHashCode);
 
-    private List<RingPosition<T>> extract(TreeSet<RingPosition<T>> aList, RingPosition<T> aFirst, int aNumber) {
-        LinkedList<RingPosition<T>> myResults = new LinkedList<>();
-        int myTotal = 1;
+        for (int i = 0; i < aReplicationCount; i++)
+            myResults.add(_sorted[(myIndex + i) % _sorted.length]);
 
-        myResults.add(aFirst);
+        return myResults;
+    }
 
-        while (myTotal < aNumber) {
-            RingPosition<T> myNext = aList.higher(myResults.getLast());
+    /**
+     * @return the index of the first position greater than the hashcode, wrapping around to the first position if
+     * the hashcode is greater than or equal to the greatest position.
+     */
+    private int owner(Comparable aHashCode) {
+        int myLow = 0;
+        int myHigh = _sorted.length;
 
-            if (myNext == null) {
-                // Wrap
-                //
-                myResults.add(aList.first());
-            } else {
-                myResults.add(myNext);
-            }
+        while (myLow < myHigh) {
+            int myMid = (myLow + myHigh) >>> 1;
 
-            myTotal++;
+            if (_sorted[myMid].getPosition().compareTo(aHashCode) > 0)
+                myHigh = myMid;
+            else
+                myLow = myMid + 1;
         }
 
-        return myResults;
+        return (myLow == _sorted.length) ? 0 : myLow;
     }
 
     /**
      * @return this peer's current view of the ring
      */
     public SortedSet<RingPosition<T>> getPositions() {
-        return Collections.unmodifiableSortedSet(
-                new TreeSet<>(_newRing.values()));
+        return _positions;
     }
 
     /**
      * @return An immutable infinite iteration of all the ring positions in this snapshot
      */
     public Iterator<RingPosition<T>> iterator() {
-        return Iterables.cycle(Collections.unmodifiableList(new LinkedList<>(getPositions()))).iterator();
+        return Iterables.cycle(Collections.unmodifiableList(Arrays.asList(_sorted))).iterator();
     }
 
     public Iterator<RingPosition<T>> reverseIterator() {
-        LinkedList<RingPosition<T>> myReverse = new LinkedList<>(getPositions());
+        List<RingPosition<T>> myReverse = new ArrayList<>(Arrays.asList(_sorted));
         Collections.reverse(myReverse);
 
         return Iterables.cycle(Collections.unmodifiableList(myReverse)).iterator();
@@ -0,0 +1,587 @@
+package org.dancres.peers.view;
+
+import com.google.gson.Gson;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.Response;
+import org.dancres.peers.Peer;
+import org.dancres.peers.PeerSet;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>Partial view membership based on HyParView (Leitao, Pereira, Rodrigues). Rather than tracking every peer, each
+ * peer maintains a small, symmetric active view of neighbours and a larger passive view of candidates used to repair
+ * the active view when neighbours fail. The passive view is kept fresh by periodically shuffling samples of both
+ * views along random walks.</p>
+ *
+ * <p>The active view is presented as a <code>PeerSet</code> such that it can be used wherever a set of peers is
+ * required, in particular to bound the number of partners a <code>Directory</code> gossips with. Changes to the active
+ * view are reported to <code>Listener</code>s.</p>
+ *
+ * <p>Only the choice of gossip partners is bounded, a <code>Directory</code> still holds an entry for every peer and
+ * so memory is not reduced. Such a directory should use the <code>DELTA</code> or <code>DIGEST</code> exchange,
+ * with <code>FULL</code> each exchange still carries the whole membership.</p>
+ *
+ * <p>HyParView relies on TCP connections to detect neighbour failure, here failure is detected via the outcome of
+ * requests to neighbours, including a ping sent to each neighbour every period.</p>
+ */
+public class PartialView implements PeerSet, Peer.Service {
+    private static final Logger _logger = LoggerFactory.getLogger(PartialView.class);
+    private static final Gson GSON = new Gson();
+
+    private static final int DEFAULT_ACTIVE_SIZE = 5;
+    private static final int DEFAULT_PASSIVE_SIZE = 30;
+    private static final long DEFAULT_PERIOD = 5000;
+
+    /**
+     * Length of the random walk for joins (ARWL) and the point at which a joining peer is added to passive views
+     * (PRWL).
+     */
+    private static final int ACTIVE_WALK = 6;
+    private static final int PASSIVE_WALK = 3;
+
+    /**
+     * Number of active and passive view members included in a shuffle
+     */
+    private static final int SHUFFLE_ACTIVE = 3;
+    private static final int SHUFFLE_PASSIVE = 4;
+
+    private static final String MOUNT_POINT = "/view";
+    private static final String LANE = "view";
+    private static final String JOIN = "/join";
+    private static final String FORWARD_JOIN = "/forwardjoin";
+    private static final String NEIGHBOR = "/neighbor";
+    private static final String DISCONNECT = "/disconnect";
+    private static final String SHUFFLE = "/shuffle";
+    private static final String SHUFFLE_REPLY = "/shufflereply";
+    private static final String PING = "/ping";
+
+    /**
+     * Marks responses as genuinely from a partial view service such that e.g. a missing service or peer isn't taken
+     * as a success.
+     */
+    private static final String VIEW_HEADER = "X-Partial-View";
+
+    private enum Outcome {ACCEPTED, REJECTED, FAILED}
+
+    private final Peer _peer;
+    private final URI _self;
+    private final Peer.ServiceDispatcher _dispatcher = new Dispatcher();
+    private final int _activeSize;
+    private final int _passiveSize;
+    private final long _period;
+    private final Random _rng = new Random();
+    private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+
+    private final Set<URI> _active = new LinkedHashSet<>();
+    private final Set<URI> _passive = new LinkedHashSet<>();
+    private final Set<URI> _pending = new HashSet<>();
+    private URI _contact = null;
+
+    /**
+     * Creates a partial view on the specified peer (invokes <code>Peer.add</code> at construction).
+     *
+     * @param aPeer is the peer that will participate in the view
+     */
+    public PartialView(Peer aPeer) {
+        this(aPeer, DEFAULT_ACTIVE_SIZE, DEFAULT_PASSIVE_SIZE, DEFAULT_PERIOD);
+    }
+
+    /**
+     * Creates a partial view on the specified peer (invokes <code>Peer.add</code> at construction).
+     *
+     * @param aPeer is the peer that will participate in the view
+     * @param anActiveSize is the maximum number of neighbours, typically log(N) + 1 for a cluster of N peers
+     * @param aPassiveSize is the maximum number of candidate neighbours, typically a multiple of the active size
+     * @param aPeriod is the time in milliseconds between rounds of maintenance (pinging neighbours, repairing the
+     *                active view and shuffling).
+     */
+    public PartialView(Peer aPeer, int anActiveSize, int aPassiveSize, long aPeriod) {
+        if ((anActiveSize < 1) || (aPassiveSize < 1))
+            throw new IllegalArgumentException("View sizes must be at least 1");
+
+        _peer = aPeer;
+        _self = aPeer.getURI();
+        _activeSize = anActiveSize;
+        _passiveSize = aPassiveSize;
+        _period = aPeriod;
+        _peer.add(this);
+    }
+
+    public String getAddress() {
+        return MOUNT_POINT;
+    }
+
+    public Peer.ServiceDispatcher getDispatcher() {
+        return _dispatcher;
+    }
+
+    /**
+     * Commence periodic maintenance of the view.
+     */
+    public void start() {
+        _peer.getScheduler().lane(LANE).schedule(new MaintenanceTask(), _period, _period, 0);
+    }
+
+    /**
+     * Join the overlay via a peer that is already a member. Should the join fail it is retried during maintenance
+     * whilst both views are empty.
+     *
+     * @param aContact is the peer to join through
+     */
+    public void join(URI aContact) {
+        if (aContact.equals(_self))
+            return;
+
+        synchronized (this) {
+            _contact = aContact;
+        }
+
+        send(Collections.singletonList(new Send(aContact, JOIN, new Message(_self))));
+    }
+
+    /**
+     * @return the current active view
+     */
+    public synchronized Set<URI> getPeers() {
+        return new HashSet<>(_active);
+    }
+
+    /**
+     * @return the current passive view
+     */
+    public synchronized Set<URI> getPassive() {
+        return new HashSet<>(_passive);
+    }
+
+    public void add(Listener aListener) {
+        _listeners.add(aListener);
+    }
+
+    /**
+     * Implementors of this interface are told of changes to the active view. May be invoked from any thread.
+     */
+    public interface Listener {
+        public void changed(PartialView aView, Set<URI> anAdded, Set<URI> aRemoved);
+    }
+
+    /**
+     * Add a peer to the active view, ejecting a random neighbour to the passive view if the view is full.
+     * Must be called whilst holding the lock.
+     */
+    private void addActive(URI aPeer, List<Send> anOutbox) {
+        if ((aPeer.equals(_self)) || (_active.contains(aPeer)))
+            return;
+
+        if (_active.size() >= _activeSize) {
+            URI myDropped = random(_active, null);
+
+            _active.remove(myDropped);
+            addPassive(myDropped);
+            anOutbox.add(new Send(myDropped, DISCONNECT, new Message(_self)));
+        }
+
+        _passive.remove(aPeer);
+        _active.add(aPeer);
+    }
+
+    /**
+     * Add a peer to the passive view, ejecting a random member if the view is full.
+     * Must be called whilst holding the lock.
+     */
+    private void addPassive(URI aPeer) {
+        if ((aPeer.equals(_self)) || (_active.contains(aPeer)) || (_passive.contains(aPeer)))
+            return;
+
+        if (_passive.size() >= _passiveSize)
+            _passive.remove(random(_passive, null));
+
+        _passive.add(aPeer);
+    }
+
+    /**
+     * Attempt to fill a vacancy in the active view from the passive view. Must be called whilst holding the lock.
+     */
+    private void promote(List<Send> anOutbox) {
+        if (_active.size() + _pending.size() >= _activeSize)
+            return;
+
+        Set<URI> myCandidates = new HashSet<>(_passive);
+        myCandidates.removeAll(_pending);
+
+        if (myCandidates.isEmpty())
+            return;
+
+        URI myCandidate = random(myCandidates, null);
+        Message myRequest = new Message(_self);
+
+        // Request must be accepted if we've no neighbours at all
+        //
+        myRequest._priority = _active.isEmpty();
+
+        _pending.add(myCandidate);
+        anOutbox.add(new Send(myCandidate, NEIGHBOR, myRequest));
+    }
+
+    /**
+     * @return a sample of up to <code>aCount</code> members of <code>aSet</code>
+     */
+    private List<String> sample(Set<URI> aSet, int aCount) {
+        List<URI> myMembers = new ArrayList<>(aSet);
+        List<String> mySample = new ArrayList<>();
+
+        Collections.shuffle(myMembers, _rng);
+
+        for (URI myMember : myMembers.subList(0, Math.min(aCount, myMembers.size())))
+            mySample.add(myMember.toString());
+
+        return mySample;
+    }
+
+    /**
+     * Add the members of a shuffle sample to the passive view, preferring to make space by ejecting peers that we
+     * sent to the other party. Must be called whilst holding the lock.
+     */
+    private void integrate(List<String> aSample, List<String> aSent) {
+        LinkedList<URI> myEjectable = new LinkedList<>();
+
+        for (String mySent : aSent)
+            myEjectable.add(URI.create(mySent));
+
+        for (String myMember : aSample) {
+            URI myPeer = URI.create(myMember);
+
+            if ((myPeer.equals(_self)) || (_active.contains(myPeer)) || (_passive.contains(myPeer)))
+                continue;
+
+            while ((_passive.size() >= _passiveSize) && (! myEjectable.isEmpty()))
+                _passive.remove(myEjectable.removeFirst());
+
+            addPassive(myPeer);
+        }
+    }
+
+    private URI random(Set<URI> aSet, URI anExcluded) {
+        List<URI> myMembers = new ArrayList<>(aSet);
+
+        if (anExcluded != null)
+            myMembers.remove(anExcluded);
+
+        return myMembers.isEmpty() ? null : myMembers.get(_rng.nextInt(myMembers.size()));
+    }
+
+    /**
+     * Notify listeners of any change to the active view since <code>aBefore</code> and then send any messages
+     * generated whilst making the change.
+     */
+    private void complete(Set<URI> aBefore, List<Send> anOutbox) {
+        Set<URI> myAdded;
+        Set<URI> myRemoved = new HashSet<>(aBefore);
+
+        synchronized (this) {
+            myAdded = new HashSet<>(_active);
+            myAdded.removeAll(aBefore);
+            myRemoved.removeAll(_active);
+        }
+
+        if ((! myAdded.isEmpty()) || (! myRemoved.isEmpty())) {
+            _logger.debug("Active view of " + _self + " added: " + myAdded + " removed: " + myRemoved);
+
+            for (Listener l : _listeners)
+                l.changed(this, myAdded, myRemoved);
+        }
+
+        send(anOutbox);
+    }
+
+    private void send(List<Send> anOutbox) {
+        for (final Send mySend : anOutbox) {
+            try {
+                _peer.getClient().preparePost(mySend._target.toString() + MOUNT_POINT + mySend._op)
+                        .setBody(GSON.toJson(mySend._message))
+                        .execute(new AsyncCompletionHandler<Response>() {
+                            public Response onCompleted(Response aResponse) throws Exception {
+                                if (aResponse.getHeader(VIEW_HEADER) == null)
+                                    sent(mySend, Outcome.FAILED);
+                                else if (aResponse.getStatusCode() == 200)
+                                    sent(mySend, Outcome.ACCEPTED);
+                                else
+                                    sent(mySend, Outcome.REJECTED);
+
+                                return aResponse;
+                            }
+
+                            public void onThrowable(Throwable aT) {
+                                sent(mySend, Outcome.FAILED);
+                            }
+                        });
+            } catch (IOException anIOE) {
+                sent(mySend, Outcome.FAILED);
+            }
+        }
+    }
+
+    /**
+     * Process the outcome of sending a message to another peer.
+     */
+    private void sent(Send aSend, Outcome anOutcome) {
+        List<Send> myOutbox = new LinkedList<>();
+        Set<URI> myBefore;
+        URI myTarget = aSend._target;
+
+        synchronized (this) {
+            myBefore = new HashSet<>(_active);
+
+            if (aSend._op.equals(NEIGHBOR))
+                _pending.remove(myTarget);
+
+            if (anOutcome == Outcome.FAILED) {
+                _logger.debug("Peer " + myTarget + " failed " + aSend._op + " from " + _self);
+
+                _active.remove(myTarget);
+                _passive.remove(myTarget);
+                promote(myOutbox);
+            } else {
+                switch (aSend._op) {
+                    case JOIN :
+                        addActive(myTarget, myOutbox);
+                        break;
+
+                    case NEIGHBOR :
+                        if (anOutcome == Outcome.ACCEPTED)
+                            addActive(myTarget, myOutbox);
+                        break;
+
+                    case PING :
+                        // Neighbour no longer considers us a neighbour, restore symmetry
+                        //
+                        if ((anOutcome == Outcome.REJECTED) && (_active.remove(myTarget))) {
+                            addPassive(myTarget);
+                            promote(myOutbox);
+                        }
+                        break;
+                }
+            }
+        }
+
+        complete(myBefore, myOutbox);
+    }
+
+    /**
+     * Process a message received from another peer.
+     *
+     * @return <code>true</code> if the message was accepted
+     */
+    private boolean received(String anOp, Message aMessage) {
+        List<Send> myOutbox = new LinkedList<>();
+        Set<URI> myBefore;
+        URI mySender = URI.create(aMessage._sender);
+        boolean isAccepted = true;
+
+        synchronized (this) {
+            myBefore = new HashSet<>(_active);
+
+            switch (anOp) {
+                case JOIN : {
+                    addActive(mySender, myOutbox);
+
+                    for (URI myNeighbour : _active) {
+                        if (! myNeighbour.equals(mySender)) {
+                            Message myForward = new Message(_self);
+
+                            myForward._subject = aMessage._sender;
+                            myForward._ttl = ACTIVE_WALK;
+                            myOutbox.add(new Send(myNeighbour, FORWARD_JOIN, myForward));
+                        }
+                    }
+
+                    break;
+                }
+
+                case FORWARD_JOIN : {
+                    URI mySubject = URI.create(aMessage._subject);
+
+                    if ((aMessage._ttl == 0) || (_active.size() <= 1)) {
+                        if ((! mySubject.equals(_self)) && (! _active.contains(mySubject))) {
+                            Message myRequest = new Message(_self);
+
+                            myRequest._priority = true;
+                            addActive(mySubject, myOutbox);
+                            myOutbox.add(new Send(mySubject, NEIGHBOR, myRequest));
+                        }
+                    } else {
+                        if (aMessage._ttl == PASSIVE_WALK)
+                            addPassive(mySubject);
+
+                        Set<URI> myCandidates = new HashSet<>(_active);
+                        myCandidates.remove(mySubject);
+
+                        URI myNext = random(myCandidates, mySender);
+
+                        if (myNext != null) {
+                            Message myForward = new Message(_self);
+
+                            myForward._subject = aMessage._subject;
+                            myForward._ttl = aMessage._ttl - 1;
+                            myOutbox.add(new Send(myNext, FORWARD_JOIN, myForward));
+                        } else {
+                            addActive(mySubject, myOutbox);
+                        }
+                    }
+
+                    break;
+                }
+
+                case NEIGHBOR : {
+                    if ((aMessage._priority) || (_active.size() < _activeSize) || (_active.contains(mySender)))
+                        addActive(mySender, myOutbox);
+                    else
+                        isAccepted = false;
+
+                    break;
+                }
+
+                case DISCONNECT : {
+                    if (_active.remove(mySender))
+                        addPassive(mySender);
+
+                    break;
+                }
+
+                case SHUFFLE : {
+                    URI myOrigin = URI.create(aMessage._subject);
+                    URI myNext = ((aMessage._ttl > 0) && (_active.size() > 1)) ? random(_active, mySender) : null;
+
+                    if ((myNext != null) && (! myNext.equals(myOrigin))) {
+                        Message myForward = new Message(_self);
+
+                        myForward._subject = aMessage._subject;
+                        myForward._ttl = aMessage._ttl - 1;
+                        myForward._sample = aMessage._sample;
+                        myOutbox.add(new Send(myNext, SHUFFLE, myForward));
+                    } else if (! myOrigin.equals(_self)) {
+                        Message myReply = new Message(_self);
+
+                        myReply._sample = sample(_passive, aMessage._sample.size());
+                        myOutbox.add(new Send(myOrigin, SHUFFLE_REPLY, myReply));
+                        integrate(aMessage._sample, myReply._sample);
+                    }
+
+                    break;
+                }
+
+                case SHUFFLE_REPLY : {
+                    integrate(aMessage._sample, Collections.<String>emptyList());
+                    break;
+                }
+
+                case PING : {
+                    isAccepted = _active.contains(mySender);
+                    break;
+                }
+
+                default :
+                    isAccepted = false;
+            }
+        }
+
+        complete(myBefore, myOutbox);
+
+        return isAccepted;
+    }
+
+    private class MaintenanceTask implements Runnable {
+        public void run() {
+            try {
+                List<Send> myOutbox = new LinkedList<>();
+                Set<URI> myBefore;
+
+                synchronized (PartialView.this) {
+                    myBefore = new HashSet<>(_active);
+
+                    for (URI myNeighbour : _active)
+                        myOutbox.add(new Send(myNeighbour, PING, new Message(_self)));
+
+                    if ((_active.isEmpty()) && (_passive.isEmpty()) && (_pending.isEmpty()) && (_contact != null))
+                        myOutbox.add(new Send(_contact, JOIN, new Message(_self)));
+                    else
+                        promote(myOutbox);
+
+                    URI myPartner = random(_active, null);
+
+                    if (myPartner != null) {
+                        Message myShuffle = new Message(_self);
+
+                        myShuffle._subject = _self.toString();
+                        myShuffle._ttl = ACTIVE_WALK;
+                        myShuffle._sample = sample(_active, SHUFFLE_ACTIVE);
+                        myShuffle._sample.addAll(sample(_passive, SHUFFLE_PASSIVE));
+                        myShuffle._sample.add(_self.toString());
+
+                        myOutbox.add(new Send(myPartner, SHUFFLE, myShuffle));
+                    }
+                }
+
+                complete(myBefore, myOutbox);
+            } catch (Throwable aT) {
+                _logger.error("Maintenance failed", aT);
+            }
+        }
+    }
+
+    private class Dispatcher implements Peer.ServiceDispatcher {
+        public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+            aResponse.setHeader(VIEW_HEADER, _self.toString());
+
+            if (! aRequest.getMethod().equals(HttpMethod.POST)) {
+                aResponse.setStatus(HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+
+            Message myMessage =
+                    GSON.fromJson(aRequest.getContent().toString(CharsetUtil.UTF_8), Message.class);
+
+            if (received(aServicePath.substring(MOUNT_POINT.length()), myMessage))
+                aResponse.setStatus(HttpResponseStatus.OK);
+            else
+                aResponse.setStatus(HttpResponseStatus.CONFLICT);
+        }
+    }
+
+    private static class Send {
+        private final URI _target;
+        private final String _op;
+        private final Message _message;
+
+        Send(URI aTarget, String anOp, Message aMessage) {
+            _target = aTarget;
+            _op = anOp;
+            _message = aMessage;
+        }
+    }
+
+    /**
+     * Wire format for all operations, only the fields relevant to an operation are set.
+     */
+    private static class Message {
+        private String _sender;
+        private String _subject;
+        private int _ttl;
+        private boolean _priority;
+        private List<String> _sample = new ArrayList<>();
+
+        Message(URI aSender) {
+            _sender = aSender.toString();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.dancres.peers;
+
+import org.dancres.peers.primitives.VirtualScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ChangeLogTest {
+    private static final String PEER1 = "http://localhost:8080/peer1";
+    private static final String PEER2 = "http://localhost:8080/peer2";
+    private static final String PEER3 = "http://localhost:8080/peer3";
+
+    @Test
+    public void testSince() throws Exception {
+        ChangeLog myLog = new ChangeLog(4, new VirtualScheduler().lane("changes"));
+
+        Assert.assertEquals(0, myLog.getSequence());
+        Assert.assertTrue(myLog.since(0).isEmpty());
+
+        myLog.append(list(entry(PEER1), entry(PEER2)), none(), none());
+        myLog.append(none(), list(entry(PEER1)), list(entry(PEER2)));
+
+        Assert.assertEquals(4, myLog.getSequence());
+
+        List<ChangeLog.Change> myChanges = myLog.since(1);
+
+        Assert.assertEquals(3, myChanges.size());
+        Assert.assertEquals(ChangeLog.Kind.NEW, myChanges.get(0).getKind());
+        Assert.assertEquals(PEER2, myChanges.get(0).getEntry().getPeerName());
+        Assert.assertEquals(ChangeLog.Kind.UPDATED, myChanges.get(1).getKind());
+        Assert.assertEquals(ChangeLog.Kind.DEAD, myChanges.get(2).getKind());
+        Assert.assertEquals(4, myChanges.get(2).getSequence());
+
+        // From the future
+        //
+        Assert.assertNull(myLog.since(5));
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        ChangeLog myLog = new ChangeLog(2, new VirtualScheduler().lane("changes"));
+
+        myLog.append(list(entry(PEER1), entry(PEER2), entry(PEER3)), none(), none());
+
+        Assert.assertNull(myLog.since(0));
+        Assert.assertEquals(2, myLog.since(1).size());
+        Assert.assertEquals(PEER2, myLog.since(1).get(0).getEntry().getPeerName());
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+        VirtualScheduler myScheduler = new VirtualScheduler();
+        ChangeLog myLog = new ChangeLog(4, myScheduler.lane("changes"));
+        final AtomicReference<List<ChangeLog.Change>> myChanges = new AtomicReference<>();
+        final AtomicLong mySequence = new AtomicLong(-1);
+
+        ChangeLog.Waiter myWaiter = new ChangeLog.Waiter() {
+            public void changed(List<ChangeLog.Change> aChanges, long aSequence) {
+                myChanges.set(aChanges);
+                mySequence.set(aSequence);
+            }
+        };
+
+        // Nothing yet, the waiter should be held until there's a change
+        //
+        myLog.await(0, myWaiter);
+        Assert.assertEquals(-1, mySequence.get());
+
+        // Informed in the log's lane, not by the appender
+        //
+        myLog.append(list(entry(PEER1)), none(), none());
+        Assert.assertEquals(-1, mySequence.get());
+
+        myScheduler.advance(0);
+        Assert.assertEquals(1, mySequence.get());
+        Assert.assertEquals(1, myChanges.get().size());
+
+        // Behind, so informed immediately
+        //
+        mySequence.set(-1);
+        myLog.await(0, myWaiter);
+        Assert.assertEquals(1, mySequence.get());
+
+        // Cancelled, informed of no changes and not informed again
+        //
+        mySequence.set(-1);
+
+        Object myPending = myLog.await(1, myWaiter);
+
+        myLog.cancel(myPending);
+        Assert.assertEquals(1, mySequence.get());
+        Assert.assertTrue(myChanges.get().isEmpty());
+
+        mySequence.set(-1);
+        myLog.append(list(entry(PEER2)), none(), none());
+        myLog.cancel(myPending);
+        myScheduler.advance(0);
+        Assert.assertEquals(-1, mySequence.get());
+    }
+
+    private Directory.Entry entry(String aName) {
+        return new Directory.Entry(aName, Collections.<String, String>emptyMap(), 1, 0);
+    }
+
+    private List<Directory.Entry> list(Directory.Entry... anEntries) {
+        return Arrays.asList(anEntries);
+    }
+
+    private List<Directory.Entry> none() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,144 @@
+package org.dancres.peers;
+
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeNotifierTest {
+    private static final String PEER1 = "http://localhost:8080/peer1";
+    private static final String PEER2 = "http://localhost:8080/peer2";
+    private static final String PEER3 = "http://localhost:8080/peer3";
+
+    private final List<List<Directory.Entry>[]> _events = new CopyOnWriteArrayList<>();
+    private final List<Directory.Listener> _listeners = new CopyOnWriteArrayList<>();
+    private final List<Directory.GossipListener> _gossipListeners = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testCoalesce() throws Exception {
+        ChangeNotifier myNotifier = notifier();
+        CountDownLatch myFlushed = flushed(1);
+
+        myNotifier.merged(list(entry(PEER1, 1), entry(PEER2, 1)), none(), none());
+        myNotifier.merged(none(), list(entry(PEER1, 2), entry(PEER3, 2)), none());
+        myNotifier.merged(none(), none(), list(entry(PEER2, 1), entry(PEER3, 2)));
+
+        Assert.assertTrue(myFlushed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, _events.size());
+
+        List<Directory.Entry>[] myEvent = _events.get(0);
+
+        // Peer1 was new and updated, peer2 was new and died, peer3 was updated and died
+        //
+        Assert.assertEquals(1, myEvent[0].size());
+        Assert.assertEquals(PEER1, myEvent[0].get(0).getPeerName());
+        Assert.assertEquals(2, myEvent[0].get(0).getTimestamp());
+        Assert.assertEquals(0, myEvent[1].size());
+        Assert.assertEquals(1, myEvent[2].size());
+        Assert.assertEquals(PEER3, myEvent[2].get(0).getPeerName());
+    }
+
+    @Test
+    public void testDeadThenNew() throws Exception {
+        ChangeNotifier myNotifier = notifier();
+        CountDownLatch myFlushed = flushed(1);
+
+        myNotifier.merged(none(), none(), list(entry(PEER1, 1)));
+        myNotifier.merged(list(entry(PEER1, 5)), none(), none());
+
+        Assert.assertTrue(myFlushed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, _events.size());
+        Assert.assertEquals(1, _events.get(0)[2].size());
+        Assert.assertEquals(1, _events.get(1)[0].size());
+        Assert.assertEquals(5, _events.get(1)[0].get(0).getTimestamp());
+    }
+
+    @Test
+    public void testChangedKeys() throws Exception {
+        ChangeNotifier myNotifier = notifier();
+        CountDownLatch myFlushed = flushed(1);
+        Map<String, String> myAttrs = new HashMap<>();
+
+        myAttrs.put("ring", "positions");
+        myAttrs.put("load", "1");
+
+        myNotifier.merged(list(new Directory.Entry(entry(PEER1, 1, myAttrs), Collections.singleton("ring"))),
+                list(changed(PEER2, 1, "load")), none());
+        myNotifier.merged(none(), list(new Directory.Entry(entry(PEER1, 2, myAttrs), Collections.singleton("load")),
+                changed(PEER2, 2, "ring")), none());
+
+        Assert.assertTrue(myFlushed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, _events.size());
+
+        // A new peer reports all its keys, an updated peer those changed by any of the coalesced updates
+        //
+        List<Directory.Entry>[] myEvent = _events.get(0);
+
+        Assert.assertEquals(myAttrs.keySet(), myEvent[0].get(0).getChangedKeys());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("load", "ring")), myEvent[1].get(0).getChangedKeys());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ChangeNotifier myNotifier = notifier();
+        CountDownLatch myFlushed = flushed(1);
+
+        myNotifier.merged(none(), none(), none());
+
+        Assert.assertTrue(myFlushed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, _events.size());
+    }
+
+    private ChangeNotifier notifier() {
+        ChangeNotifier myNotifier = new ChangeNotifier(null, new ExecutorScheduler(), "notify", _listeners,
+                _gossipListeners);
+
+        myNotifier.setWindow(500);
+
+        _listeners.add(new Directory.Listener() {
+            @SuppressWarnings("unchecked")
+            public void updated(Directory aDirectory, List<Directory.Entry> aNewPeers,
+                                List<Directory.Entry> anUpdatedPeers, List<Directory.Entry> aDeadPeers) {
+                _events.add(new List[] {aNewPeers, anUpdatedPeers, aDeadPeers});
+            }
+        });
+
+        return myNotifier;
+    }
+
+    private CountDownLatch flushed(int aCount) {
+        final CountDownLatch myLatch = new CountDownLatch(aCount);
+
+        _gossipListeners.add(new Directory.GossipListener() {
+            public void gossiped(Directory aDirectory) {
+                myLatch.countDown();
+            }
+        });
+
+        return myLatch;
+    }
+
+    private Directory.Entry entry(String aName, long aTimestamp) {
+        return entry(aName, aTimestamp, Collections.<String, String>emptyMap());
+    }
+
+    private Directory.Entry entry(String aName, long aTimestamp, Map<String, String> anAttrs) {
+        return new Directory.Entry(aName, anAttrs, aTimestamp, 0);
+    }
+
+    private Directory.Entry changed(String aName, long aTimestamp, String aKey) {
+        return new Directory.Entry(entry(aName, aTimestamp), Collections.singleton(aKey));
+    }
+
+    private List<Directory.Entry> list(Directory.Entry... anEntries) {
+        return Arrays.asList(anEntries);
+    }
+
+    private List<Directory.Entry> none() {
+        return Collections.emptyList();
+    }
+}
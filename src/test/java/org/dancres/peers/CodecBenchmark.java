@@ -0,0 +1,145 @@
+package org.dancres.peers;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compares the size and the cost of encoding and decoding a directory as JSON (via a <code>String</code> and streamed
+ * with <code>JsonEntryCodec</code>) and with <code>EntryCodec</code>.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=CodecBenchmark</code>
+ */
+public class CodecBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(CodecBenchmark.class);
+
+    private static final int[] SIZES = {10, 100, 1000};
+    private static final int ENTRIES = 2000000;
+    private static final Type DIRECTORY_TYPE = new TypeToken<Map<String, Directory.Entry>>() {}.getType();
+
+    private final Interner _interner = new Interner(8192);
+
+    @Test
+    public void codecCost() {
+        Gson myGson = new Gson();
+
+        for (int mySize : SIZES) {
+            Map<String, Directory.Entry> myDirectory = directory(mySize);
+            int myRounds = ENTRIES / mySize;
+
+            ChannelBuffer myJson = ChannelBuffers.copiedBuffer(myGson.toJson(myDirectory), CharsetUtil.UTF_8);
+            ChannelBuffer myBinary = EntryCodec.encode(myDirectory.values(), mySize);
+
+            // Warm up
+            //
+            json(myGson, myDirectory, myRounds / 10);
+            streamed(myDirectory, myRounds / 10);
+            binary(myDirectory, myRounds / 10);
+
+            long myStart = System.nanoTime();
+            long myAllocated = allocated();
+            json(myGson, myDirectory, myRounds);
+            long myJsonTime = System.nanoTime() - myStart;
+            long myJsonAllocated = allocated() - myAllocated;
+
+            myStart = System.nanoTime();
+            myAllocated = allocated();
+            streamed(myDirectory, myRounds);
+            long myStreamedTime = System.nanoTime() - myStart;
+            long myStreamedAllocated = allocated() - myAllocated;
+
+            myStart = System.nanoTime();
+            binary(myDirectory, myRounds);
+            long myBinaryTime = System.nanoTime() - myStart;
+
+            _logger.info("Directory size: " + mySize +
+                    " JSON bytes/entry: " + (myJson.readableBytes() / mySize) +
+                    " ns/entry: " + (myJsonTime / ENTRIES) +
+                    " allocated/entry: " + (myJsonAllocated / ENTRIES) +
+                    " streamed ns/entry: " + (myStreamedTime / ENTRIES) +
+                    " allocated/entry: " + (myStreamedAllocated / ENTRIES) +
+                    " binary bytes/entry: " + (myBinary.readableBytes() / mySize) +
+                    " ns/entry: " + (myBinaryTime / ENTRIES));
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread to date (HotSpot only)
+     */
+    private long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private Map<String, Directory.Entry> directory(int aSize) {
+        Map<String, Directory.Entry> myDirectory = new HashMap<>();
+        long myNow = System.currentTimeMillis();
+
+        for (int i = 0; i < aSize; i++) {
+            String myName = "http://10.0.0." + (i % 250) + ":8080/peer" + i;
+            Map<String, String> myAttrs = new HashMap<>();
+
+            myAttrs.put("role", (i % 2 == 0) ? "storage" : "compute");
+            myAttrs.put("zone", "zone-" + (i % 4));
+            myAttrs.put("ring", "[" + i + "]");
+
+            myDirectory.put(myName, new Directory.Entry(myName, myAttrs, myNow + i, myNow - 3600000));
+        }
+
+        return myDirectory;
+    }
+
+    private int json(Gson aGson, Map<String, Directory.Entry> aDirectory, int aRounds) {
+        int myTotal = 0;
+
+        for (int i = 0; i < aRounds; i++) {
+            ChannelBuffer myBuffer = ChannelBuffers.copiedBuffer(aGson.toJson(aDirectory), CharsetUtil.UTF_8);
+            Map<String, Directory.Entry> myDecoded = aGson.fromJson(myBuffer.toString(CharsetUtil.UTF_8),
+                    DIRECTORY_TYPE);
+
+            myTotal += myDecoded.size();
+        }
+
+        return myTotal;
+    }
+
+    private int streamed(Map<String, Directory.Entry> aDirectory, int aRounds) {
+        int myTotal = 0;
+
+        for (int i = 0; i < aRounds; i++)
+            myTotal += count(JsonEntryCodec.decode(JsonEntryCodec.encode(aDirectory.values(), aDirectory.size()),
+                    _interner));
+
+        return myTotal;
+    }
+
+    private int binary(Map<String, Directory.Entry> aDirectory, int aRounds) {
+        int myTotal = 0;
+
+        for (int i = 0; i < aRounds; i++)
+            myTotal += count(EntryCodec.decode(EntryCodec.encode(aDirectory.values(), aDirectory.size()),
+                    _interner));
+
+        return myTotal;
+    }
+
+    private int count(Iterator<Directory.Entry> anEntries) {
+        int myCount = 0;
+
+        for (; anEntries.hasNext(); anEntries.next())
+            ++myCount;
+
+        return myCount;
+    }
+}
@@ -0,0 +1,131 @@
+package org.dancres.peers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the compression ratio and CPU cost of <code>RequestCompression</code> for directories of various sizes,
+ * in JSON and binary form, against plain deflate (no dictionary). Entries carry a consistent hash ring as
+ * <code>ConsistentHash</code> would publish it. A directory of size 1 is typical of a delta exchange once gossip has
+ * converged.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=CompressionBenchmark</code>
+ */
+public class CompressionBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(CompressionBenchmark.class);
+
+    private static final int[] SIZES = {1, 10, 100, 1000};
+    private static final int POSITIONS = 4;
+    private static final int ENTRIES = 200000;
+
+    @Test
+    public void compressionCost() throws Exception {
+        for (int mySize : SIZES) {
+            Map<String, Directory.Entry> myDirectory = directory(mySize);
+
+            measure("JSON", mySize, bytes(JsonEntryCodec.encode(myDirectory.values(), mySize)));
+            measure("binary", mySize, bytes(EntryCodec.encode(myDirectory.values(), mySize)));
+        }
+    }
+
+    private void measure(String aForm, int aSize, byte[] aBody) throws Exception {
+        int myRounds = Math.max(100, ENTRIES / aSize);
+        byte[] myCompressed = RequestCompression.deflate(aBody);
+        int myPlain = plain(aBody).length;
+
+        // Warm up
+        //
+        run(aBody, myCompressed, myRounds / 10);
+
+        long myStart = System.nanoTime();
+
+        for (int i = 0; i < myRounds; i++)
+            RequestCompression.deflate(aBody);
+
+        long myDeflate = System.nanoTime() - myStart;
+
+        myStart = System.nanoTime();
+
+        for (int i = 0; i < myRounds; i++)
+            RequestCompression.inflate(ChannelBuffers.wrappedBuffer(myCompressed));
+
+        long myInflate = System.nanoTime() - myStart;
+
+        _logger.info("Directory size: " + aSize + " " + aForm + " bytes: " + aBody.length +
+                " plain deflate: " + myPlain + " (" + percent(myPlain, aBody.length) + "%)" +
+                " dictionary: " + myCompressed.length + " (" + percent(myCompressed.length, aBody.length) + "%)" +
+                " deflate us: " + (myDeflate / myRounds / 1000.0) +
+                " inflate us: " + (myInflate / myRounds / 1000.0));
+    }
+
+    private void run(byte[] aBody, byte[] aCompressed, int aRounds) throws Exception {
+        for (int i = 0; i < aRounds; i++) {
+            RequestCompression.deflate(aBody);
+            RequestCompression.inflate(ChannelBuffers.wrappedBuffer(aCompressed));
+        }
+    }
+
+    private long percent(long aPart, long aWhole) {
+        return aPart * 100 / aWhole;
+    }
+
+    private byte[] plain(byte[] aBody) {
+        Deflater myDeflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] myBuffer = new byte[aBody.length + 64];
+
+        myDeflater.setInput(aBody);
+        myDeflater.finish();
+
+        int myLength = myDeflater.deflate(myBuffer);
+        byte[] myCompressed = new byte[myLength];
+
+        System.arraycopy(myBuffer, 0, myCompressed, 0, myLength);
+        myDeflater.end();
+
+        return myCompressed;
+    }
+
+    private byte[] bytes(ChannelBuffer aBuffer) {
+        byte[] myBytes = new byte[aBuffer.readableBytes()];
+
+        aBuffer.readBytes(myBytes);
+        return myBytes;
+    }
+
+    private Map<String, Directory.Entry> directory(int aSize) {
+        Map<String, Directory.Entry> myDirectory = new HashMap<>();
+        Random myRandom = new Random(0);
+        long myNow = System.currentTimeMillis();
+
+        for (int i = 0; i < aSize; i++) {
+            String myName = "http://10.0.0." + (i % 250) + ":8080/peer" + i;
+            long myBorn = myNow - myRandom.nextInt(3600000);
+            StringBuilder myRing = new StringBuilder("{\"_generation\":" + POSITIONS + ",\"_positions\":[");
+
+            for (int j = 0; j < POSITIONS; j++) {
+                if (j != 0)
+                    myRing.append(",");
+
+                myRing.append("[\"").append(myName).append("\",\"").append(myRandom.nextInt()).append("\",")
+                        .append(myBorn).append("]");
+            }
+
+            myRing.append("]}");
+
+            Map<String, String> myAttrs = new HashMap<>();
+
+            myAttrs.put("org.dancres.peers.ring.consistentHash.ringMembership.DefaultRing", myRing.toString());
+            myDirectory.put(myName, new Directory.Entry(myName, myAttrs, myNow - myRandom.nextInt(5000), myBorn));
+        }
+
+        return myDirectory;
+    }
+}
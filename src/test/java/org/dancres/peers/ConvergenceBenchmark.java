@@ -0,0 +1,113 @@
+package org.dancres.peers;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.peers.metrics.Metrics;
+import org.dancres.peers.metrics.SimpleMetrics;
+import org.dancres.peers.primitives.InMemoryPeer;
+import org.dancres.peers.primitives.InMemoryProvider;
+import org.dancres.peers.primitives.StaticPeerSet;
+import org.dancres.peers.primitives.VirtualScheduler;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Measures how a population of directories, all starting out knowing only of themselves, converges on a complete
+ * view. Directories exchange over an <code>InMemoryProvider</code> and are driven by a <code>VirtualScheduler</code>
+ * such that thousands can be run in a single JVM on a single thread, gossip period being no constraint. Reports, for
+ * each population size, the rounds and wall-clock time taken to converge, bytes sent per node per round and CPU per
+ * merge.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=ConvergenceBenchmark</code>. Population sizes and
+ * the form of exchange can be set with <code>-Dsizes=1000,10000</code> and <code>-Dexchange=DIGEST</code>. Each
+ * directory ends up holding an entry for every peer thus memory required grows with the square of the population,
+ * 10,000 peers needs a heap of several gigabytes.
+ */
+public class ConvergenceBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(ConvergenceBenchmark.class);
+
+    private static final String SIZES = "1000,2000";
+    private static final long PERIOD = 1000;
+    private static final int MAX_ROUNDS = 100;
+    private static final long OVERDUE = 30 * PERIOD;
+
+    @Test
+    public void convergence() throws Exception {
+        Directory.Exchange myExchange = Directory.Exchange.valueOf(System.getProperty("exchange", "DELTA"));
+
+        for (String mySize : System.getProperty("sizes", SIZES).split(","))
+            run(Integer.parseInt(mySize.trim()), myExchange);
+    }
+
+    private void run(int aSize, Directory.Exchange anExchange) throws Exception {
+        VirtualScheduler myScheduler = new VirtualScheduler();
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+        SimpleMetrics myMetrics = new SimpleMetrics();
+        List<Peer> myPeers = new ArrayList<>();
+        Set<URI> myURIs = new HashSet<>();
+
+        for (int i = 0; i < aSize; i++) {
+            Peer myPeer = new InMemoryPeer(myProvider, myClient, "/peer" + i, myScheduler);
+
+            myPeers.add(myPeer);
+            myURIs.add(myPeer.getURI());
+        }
+
+        PeerSet myPeerSet = new StaticPeerSet(myURIs);
+        List<Directory> myDirs = new ArrayList<>();
+
+        // Directories take their time from the virtual scheduler so liveness is judged as it would be in a real
+        // deployment, the overdue time allowing for a peer going unheard of for a number of rounds
+        //
+        for (Peer myPeer : myPeers) {
+            Directory myDir = new Directory(myPeer, myPeerSet, PERIOD, OVERDUE);
+
+            myDir.setExchange(anExchange);
+            myDir.setMetrics(myMetrics);
+            myDirs.add(myDir);
+        }
+
+        ThreadMXBean myBean = ManagementFactory.getThreadMXBean();
+        long myStartCpu = myBean.getCurrentThreadCpuTime();
+        long myStart = System.nanoTime();
+        int myRounds = 0;
+
+        for (Directory myDir : myDirs)
+            myDir.start();
+
+        while ((! converged(myDirs, aSize)) && (myRounds < MAX_ROUNDS)) {
+            myScheduler.advance(PERIOD);
+            ++myRounds;
+        }
+
+        long myElapsed = System.nanoTime() - myStart;
+        long myCpu = myBean.getCurrentThreadCpuTime() - myStartCpu;
+        Metrics.Histogram myMerges = myMetrics.histogram("directory.merge.time");
+        Metrics.Histogram mySent = myMetrics.histogram("directory.exchange.sent");
+
+        _logger.info("Peers: " + aSize + " exchange: " + anExchange + " converged: " + converged(myDirs, aSize) +
+                " rounds: " + myRounds + " wall ms: " + (myElapsed / 1000000) +
+                " bytes/node/round: " + (mySent.getSum() / aSize / Math.max(1, myRounds)) +
+                " merges: " + myMerges.getCount() +
+                " cpu us/merge: " + (myCpu / 1000 / Math.max(1, myMerges.getCount())) +
+                " merge us (mean/max): " + (myMerges.getSum() / Math.max(1, myMerges.getCount())) + "/" +
+                myMerges.getMax());
+
+        myScheduler.shutdown();
+        myClient.close();
+    }
+
+    private boolean converged(List<Directory> aDirs, int aSize) {
+        for (Directory myDir : aDirs)
+            if (myDir.getDirectory().size() != aSize)
+                return false;
+
+        return true;
+    }
+}
@@ -1,19 +1,36 @@
 package org.dancres.peers;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.ning.http.client.AsyncHttpClient;
 import org.junit.Assert;
+import org.dancres.peers.metrics.MetricsService;
+import org.dancres.peers.metrics.SimpleMetrics;
 import org.dancres.peers.primitives.GossipBarrier;
 import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.dancres.peers.primitives.InMemoryPeer;
+import org.dancres.peers.primitives.InMemoryProvider;
 import org.dancres.peers.primitives.InProcessPeer;
+import org.dancres.peers.primitives.PhiAccrualDetector;
 import org.dancres.peers.primitives.StaticPeerSet;
+import org.dancres.peers.primitives.VirtualScheduler;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DirTest {
     private Logger _logger = LoggerFactory.getLogger(DirTest.class);
@@ -23,8 +40,8 @@ public class DirTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8081));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -73,7 +90,7 @@ public class DirTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8082));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -100,13 +117,64 @@ public class DirTest {
         myServer.terminate();
     }
 
+    @Test
+    public void testVersionedAttributes() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8087));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(Collections.singleton(myPeer1.getURI())),
+                2000, 12000);
+        final AtomicInteger myVersion = new AtomicInteger(0);
+        final AtomicInteger myProduced = new AtomicInteger(0);
+
+        myPeer1Dir.add(new Directory.VersionedAttributeProducer() {
+            public long getVersion() {
+                return myVersion.get();
+            }
+
+            public Map<String, String> produce() {
+                myProduced.incrementAndGet();
+                return Collections.singletonMap("testAttr", Integer.toString(myVersion.get()));
+            }
+        });
+
+        Map<String, String> myAttrs = myPeer1Dir.getAttributes();
+
+        Assert.assertEquals("0", myAttrs.get("testAttr"));
+        Assert.assertSame(myAttrs, myPeer1Dir.getAttributes());
+        Assert.assertEquals(1, myProduced.get());
+
+        myVersion.incrementAndGet();
+
+        Assert.assertEquals("1", myPeer1Dir.getAttributes().get("testAttr"));
+        Assert.assertEquals("1", myPeer1Dir.getDirectory().get(myPeer1.getAddress()).getAttributes().get("testAttr"));
+        Assert.assertEquals(2, myProduced.get());
+
+        myPeer1Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("otherAttr", "otherValue");
+            }
+        });
+
+        myAttrs = myPeer1Dir.getAttributes();
+
+        Assert.assertEquals("1", myAttrs.get("testAttr"));
+        Assert.assertEquals("otherValue", myAttrs.get("otherAttr"));
+        Assert.assertEquals(2, myProduced.get());
+
+        myPeer1.stop();
+        myServer.terminate();
+    }
+
     @Test
     public void testListener() throws Exception {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8083));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -116,7 +184,8 @@ public class DirTest {
 
         Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 2000, 6000);
         Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 2000, 6000);
-        final AtomicInteger myEventCount = new AtomicInteger(0);
+        final AtomicInteger myNewCount = new AtomicInteger(0);
+        final AtomicInteger myEmptyCount = new AtomicInteger(0);
         final AtomicInteger myDeadCount = new AtomicInteger(0);
 
         GossipBarrier myBarrier1 = new GossipBarrier(myPeer1Dir);
@@ -128,10 +197,14 @@ public class DirTest {
                 _logger.info("Listener update: " + aNewPeers.size() + ", " + anUpdatedPeers.size() + ", " +
                     aDeadPeers.size());
 
+                if (aNewPeers.size() > 0)
+                    myNewCount.incrementAndGet();
+
                 if (aDeadPeers.size() > 0)
                     myDeadCount.incrementAndGet();
 
-                myEventCount.incrementAndGet();
+                if (aNewPeers.isEmpty() && anUpdatedPeers.isEmpty() && aDeadPeers.isEmpty())
+                    myEmptyCount.incrementAndGet();
             }
         });
 
@@ -151,7 +224,7 @@ public class DirTest {
         Assert.assertEquals(2, myPeer1Dir.getDirectory().size());
         Assert.assertEquals(2, myPeer2Dir.getDirectory().size());
 
-        Assert.assertEquals(1, myEventCount.get());
+        Assert.assertEquals(1, myNewCount.get());
 
         // Stop a peer and make sure we find out about it
         //
@@ -166,7 +239,1043 @@ public class DirTest {
 
         Assert.assertEquals(1, myPeer1Dir.getDirectory().size());
         Assert.assertEquals(1, myDeadCount.get());
+        Assert.assertEquals(0, myEmptyCount.get());
+
+        myServer.terminate();
+    }
+
+    @Test
+    public void testDeltaGossip() throws Exception {
+        gossipWith(Directory.Exchange.DELTA, 8084);
+
+        // Once partners agree, only what has changed since the last exchange is sent
+        //
+        long[] myFull = quietExchange(Directory.Exchange.FULL);
+        long[] myDelta = quietExchange(Directory.Exchange.DELTA);
+
+        _logger.info("Quiet exchange full: " + Arrays.toString(myFull) + " delta: " + Arrays.toString(myDelta));
+
+        Assert.assertTrue(myDelta[0] * 4 < myFull[0]);
+        Assert.assertTrue(myDelta[1] * 4 < myFull[1]);
+    }
+
+    @Test
+    public void testDeltaRestart() throws Exception {
+        VirtualScheduler myScheduler1 = new VirtualScheduler();
+        VirtualScheduler myScheduler2 = new VirtualScheduler();
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", myScheduler1);
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", myScheduler2);
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(myPeers), 1000, 60000);
+        Directory myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(myPeers), 1000, 60000);
+
+        myPeer1Dir.setExchange(Directory.Exchange.DELTA);
+        myPeer2Dir.setExchange(Directory.Exchange.DELTA);
+        myPeer1Dir.merge(fillers(50, 0));
+        myPeer1Dir.start();
+
+        // An unknown partner is sent everything
+        //
+        advance(5000, myScheduler1, myScheduler2);
+
+        Assert.assertEquals(52, myPeer2Dir.getDirectory().size());
+
+        // The partner restarts having lost it all, the next exchange discovers that and the one after sends
+        // everything again
+        //
+        myPeer2.stop();
+
+        VirtualScheduler myRestarted = new VirtualScheduler();
+
+        myRestarted.advance(myScheduler1.now());
+        myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", myRestarted);
+        myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(myPeers), 1000, 60000);
+        myPeer2Dir.setExchange(Directory.Exchange.DELTA);
+
+        Assert.assertEquals(1, myPeer2Dir.getDirectory().size());
+
+        advance(3000, myScheduler1, myRestarted);
+
+        Assert.assertEquals(52, myPeer2Dir.getDirectory().size());
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    @Test
+    public void testDigestGossip() throws Exception {
+        gossipWith(Directory.Exchange.DIGEST, 8085);
+
+        // Once partners agree, the digest carries names and timestamps and only the odd entry comes back
+        //
+        long[] myFull = quietExchange(Directory.Exchange.FULL);
+        long[] myDigest = quietExchange(Directory.Exchange.DIGEST);
+
+        _logger.info("Quiet exchange full: " + Arrays.toString(myFull) + " digest: " + Arrays.toString(myDigest));
+
+        Assert.assertTrue(myDigest[0] * 2 < myFull[0]);
+        Assert.assertTrue(myDigest[1] * 4 < myFull[1]);
+    }
+
+    @Test
+    public void testFanout() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8086));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+        Peer myPeer3 = new InProcessPeer(myServer, myClient, "/peer3", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+        myPeers.add(myPeer3.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 2000, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 2000, 12000);
+        Directory myPeer3Dir = new Directory(myPeer3, myPeerSet, 2000, 12000);
+
+        myPeer1Dir.setFanout(2, 4, 1000);
+
+        GossipBarrier myBarrier2 = new GossipBarrier(myPeer2Dir);
+        GossipBarrier myBarrier3 = new GossipBarrier(myPeer3Dir);
+
+        int myBarr2 = myBarrier2.current();
+        int myBarr3 = myBarrier3.current();
+
+        myPeer1Dir.start();
+
+        // A single round should reach both other peers
+        //
+        myBarrier2.await(myBarr2);
+        myBarrier3.await(myBarr3);
+
+        Assert.assertTrue(myPeer2Dir.getDirectory().containsKey(myPeer1.getAddress()));
+        Assert.assertTrue(myPeer3Dir.getDirectory().containsKey(myPeer1.getAddress()));
+        Assert.assertTrue(myPeer1Dir.getStatistics().getRounds() >= 1);
+
+        myPeer1.stop();
+        myPeer2.stop();
+        myPeer3.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8088));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 500, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 500, 12000);
+        final AtomicReference<String> myRole = new AtomicReference<>("storage");
+
+        myPeer1Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("role", "compute");
+            }
+        });
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("role", myRole.get());
+            }
+        });
+
+        GossipBarrier myBarrier1 = new GossipBarrier(myPeer1Dir);
+
+        myPeer1Dir.start();
+
+        for (int i = 0; i < 2; i++)
+            myBarrier1.await(myBarrier1.current());
 
+        Assert.assertEquals(Collections.singleton(myPeer2.getAddress()),
+                myPeer1Dir.find("role", "storage").keySet());
+        Assert.assertEquals(Collections.singleton(myPeer1.getAddress()),
+                myPeer1Dir.find("role", "compute").keySet());
+        Assert.assertTrue(myPeer1Dir.find("role", "unknown").isEmpty());
+        Assert.assertTrue(myPeer1Dir.find("other", "storage").isEmpty());
+
+        String myBody = myClient.prepareGet(myPeer1.getAddress() + "/directory/query?key=role&value=storage")
+                .execute().get().getResponseBody();
+
+        Assert.assertTrue(myBody.contains(myPeer2.getAddress()));
+        Assert.assertFalse(myBody.contains(myPeer1.getAddress()));
+
+        myRole.set("compute");
+
+        for (int i = 0; i < 2; i++)
+            myBarrier1.await(myBarrier1.current());
+
+        Assert.assertTrue(myPeer1Dir.find("role", "storage").isEmpty());
+        Assert.assertEquals(2, myPeer1Dir.find("role", "compute").size());
+
+        myPeer1.stop();
+        myPeer2.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8089));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+        File mySnapshot = File.createTempFile("directory", ".snapshot");
+
+        mySnapshot.deleteOnExit();
+        mySnapshot.delete();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 500, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 500, 12000);
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("role", "storage");
+            }
+        });
+
+        myPeer1Dir.enableSnapshots(mySnapshot, 200, 5000);
+        Assert.assertEquals(1, myPeer1Dir.getDirectory().size());
+
+        GossipBarrier myBarrier1 = new GossipBarrier(myPeer1Dir);
+
+        myPeer1Dir.start();
+
+        for (int i = 0; i < 2; i++)
+            myBarrier1.await(myBarrier1.current());
+
+        Thread.sleep(500);
+
+        Assert.assertTrue(mySnapshot.exists());
+
+        // Restart peer1 and check it comes back with peer2 in its directory
+        //
+        myPeer1.stop();
+
+        Peer myRestarted = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Directory myRestartedDir = new Directory(myRestarted, myPeerSet, 500, 12000);
+        final CountDownLatch myAnnounced = new CountDownLatch(1);
+
+        myRestartedDir.add(new Directory.Listener() {
+            public void updated(Directory aDirectory, List<Directory.Entry> aNewPeers,
+                                List<Directory.Entry> anUpdatedPeers, List<Directory.Entry> aDeadPeers) {
+                if (aNewPeers.size() == 1)
+                    myAnnounced.countDown();
+            }
+        });
+
+        myRestartedDir.enableSnapshots(mySnapshot, 200, 5000);
+
+        Directory.Entry myRestored = myRestartedDir.getDirectory().get(myPeer2.getAddress());
+
+        Assert.assertNotNull(myRestored);
+        Assert.assertTrue(myRestored.isSuspect());
+        Assert.assertEquals("storage", myRestored.getAttributes().get("role"));
+        Assert.assertEquals(1, myRestartedDir.find("role", "storage").size());
+
+        GossipBarrier myRestartedBarrier = new GossipBarrier(myRestartedDir);
+
+        myRestartedDir.start();
+
+        Assert.assertTrue(myAnnounced.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 2; i++)
+            myRestartedBarrier.await(myRestartedBarrier.current());
+
+        Assert.assertFalse(myRestartedDir.getDirectory().get(myPeer2.getAddress()).isSuspect());
+
+        // A corrupt snapshot is ignored
+        //
+        try (FileOutputStream myOutput = new FileOutputStream(mySnapshot)) {
+            myOutput.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        }
+
+        Peer myPeer3 = new InProcessPeer(myServer, myClient, "/peer3", new ExecutorScheduler());
+        Directory myPeer3Dir = new Directory(myPeer3, myPeerSet, 500, 12000);
+
+        myPeer3Dir.enableSnapshots(mySnapshot, 200, 5000);
+        Assert.assertEquals(1, myPeer3Dir.getDirectory().size());
+
+        myRestarted.stop();
+        myPeer2.stop();
+        myPeer3.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testAdaptivePeriod() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8094));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 50, 20000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 50, 20000);
+        final AtomicReference<String> myRole = new AtomicReference<>("storage");
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("role", myRole.get());
+            }
+        });
+
+        myPeer1Dir.setAdaptivePeriod(50, 1600);
+        myPeer2Dir.setAdaptivePeriod(50, 1600);
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+
+        // Heartbeats alone shouldn't count as change, both should back off to the maximum
+        //
+        long myDeadline = System.currentTimeMillis() + 10000;
+
+        while ((System.currentTimeMillis() < myDeadline) && ((myPeer1Dir.getStatistics().getPeriod() != 1600) ||
+                (myPeer2Dir.getStatistics().getPeriod() != 1600)))
+            Thread.sleep(50);
+
+        Assert.assertEquals(1600, myPeer1Dir.getStatistics().getPeriod());
+        Assert.assertEquals(1600, myPeer2Dir.getStatistics().getPeriod());
+        Assert.assertEquals("storage",
+                myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("role"));
+
+        // A change should be gossiped well within the maximum period
+        //
+        long myStart = System.currentTimeMillis();
+
+        myRole.set("compute");
+        myPeer2Dir.attributesChanged();
+
+        while (! "compute".equals(myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("role")))
+            Thread.sleep(10);
+
+        long myElapsed = System.currentTimeMillis() - myStart;
+
+        _logger.info("Change propagated in: " + myElapsed);
+
+        Assert.assertTrue(myElapsed < 1600);
+        Assert.assertTrue(myPeer1Dir.getStatistics().getPeriod() < 1600);
+
+        myPeer1.stop();
+        myPeer2.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testSharedAttributes() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8095));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(Collections.singleton(myPeer1.getURI())),
+                2000, 12000);
+        String myName = "http://localhost:8095/peer2";
+        long myNow = System.currentTimeMillis();
+
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(new String(myName),
+                new HashMap<>(Collections.singletonMap("role", "storage")), myNow + 1, myNow)));
+
+        Directory.Entry myFirst = myPeer1Dir.getDirectory().get(myName);
+
+        // An update with unchanged attributes should share the name and attributes of the existing entry
+        //
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(new String(myName),
+                new HashMap<>(Collections.singletonMap("role", "storage")), myNow + 2, myNow)));
+
+        Directory.Entry mySecond = myPeer1Dir.getDirectory().get(myName);
+
+        Assert.assertEquals(myNow + 2, mySecond.getTimestamp());
+        Assert.assertSame(myFirst.getPeerName(), mySecond.getPeerName());
+        Assert.assertSame(myFirst.getAttributes(), mySecond.getAttributes());
+
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(new String(myName),
+                new HashMap<>(Collections.singletonMap("role", "compute")), myNow + 3, myNow)));
+
+        Directory.Entry myThird = myPeer1Dir.getDirectory().get(myName);
+
+        Assert.assertEquals("compute", myThird.getAttributes().get("role"));
+        Assert.assertEquals(Collections.singleton(myName), myPeer1Dir.find("role", "compute").keySet());
+        Assert.assertTrue(myPeer1Dir.find("role", "storage").isEmpty());
+
+        myPeer1.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testPartialEntries() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(Collections.singleton(myPeer1.getURI())),
+                2000, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(Collections.singleton(myPeer2.getURI())),
+                2000, 12000);
+        String myName = "http://memory/peer3";
+        long myNow = System.currentTimeMillis();
+
+        Map<String, String> myAttrs = new HashMap<>();
+        Map<String, Long> myVersions = new HashMap<>();
+
+        myAttrs.put("ring", "positions");
+        myAttrs.put("load", "1");
+        myVersions.put("ring", myNow);
+        myVersions.put("load", myNow);
+
+        Directory.Entry myFirst = new Directory.Entry(myName, myAttrs, myVersions, myNow, myNow, 0);
+
+        myPeer1Dir.merge(Collections.singletonMap(myName, myFirst));
+        myPeer2Dir.merge(Collections.singletonMap(myName, myFirst));
+
+        long mySince = myPeer1Dir.getDirectory().get(myName).getVersion();
+
+        // Only the attribute that changed is sent to a partner that has seen the first entry
+        //
+        myAttrs = new HashMap<>(myAttrs);
+        myVersions = new HashMap<>(myVersions);
+        myAttrs.put("load", "2");
+        myVersions.put("load", myNow + 1);
+
+        myPeer1Dir.merge(Collections.singletonMap(myName,
+                new Directory.Entry(myName, myAttrs, myVersions, myNow + 1, myNow, 0)));
+
+        Directory.Entry mySecond = myPeer1Dir.getDirectory().get(myName);
+        Directory.Entry myPartial = myPeer1Dir.getDirectory(mySince).get(myName);
+
+        Assert.assertEquals(Collections.singleton("load"), mySecond.getChangedKeys());
+        Assert.assertTrue(myPartial.isPartial());
+        Assert.assertEquals(Collections.singletonMap("load", "2"), myPartial.getAttributes());
+
+        // A partner that hasn't said it supports partial entries is sent the entry in full
+        //
+        for (Directory.Entry myEntry : myPeer1Dir.entries(mySince, false))
+            Assert.assertFalse(myEntry.isPartial());
+
+        Assert.assertEquals(0, myPeer2Dir.merge(Collections.singletonList(myPartial).iterator()));
+        Assert.assertEquals(myAttrs, myPeer2Dir.getDirectory().get(myName).getAttributes());
+        Assert.assertEquals(Collections.singleton("load"), myPeer2Dir.getDirectory().get(myName).getChangedKeys());
+
+        // Removal of an attribute is sent as a version without a value
+        //
+        myAttrs = Collections.singletonMap("load", "2");
+        myVersions = new HashMap<>(myVersions);
+        myVersions.put("ring", myNow + 2);
+
+        myPeer1Dir.merge(Collections.singletonMap(myName,
+                new Directory.Entry(myName, myAttrs, myVersions, myNow + 2, myNow, 0)));
+
+        myPartial = myPeer1Dir.getDirectory(mySecond.getVersion()).get(myName);
+
+        Assert.assertTrue(myPartial.getAttributes().isEmpty());
+        Assert.assertEquals(Collections.singleton("ring"), myPartial.getAttributeVersions().keySet());
+
+        Assert.assertEquals(0, myPeer2Dir.merge(Collections.singletonList(myPartial).iterator()));
+        Assert.assertEquals(myAttrs, myPeer2Dir.getDirectory().get(myName).getAttributes());
+        Assert.assertEquals(Collections.singleton("ring"), myPeer2Dir.getDirectory().get(myName).getChangedKeys());
+
+        // Partial entries can't be applied without a recent enough copy of the entry
+        //
+        Assert.assertEquals(1, myPeer2Dir.merge(Collections.singletonList(new Directory.Entry(myName,
+                Collections.singletonMap("load", "4"), Collections.singletonMap("load", myNow + 4), myNow + 4, myNow,
+                myNow + 3)).iterator()));
+        Assert.assertEquals(1, myPeer2Dir.merge(Collections.singletonList(new Directory.Entry("http://memory/peer4",
+                Collections.singletonMap("load", "4"), Collections.singletonMap("load", myNow + 4), myNow + 4, myNow,
+                myNow + 3)).iterator()));
+        Assert.assertEquals(myAttrs, myPeer2Dir.getDirectory().get(myName).getAttributes());
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    @Test
+    public void testDetectorExpiry() throws Exception {
+        VirtualScheduler myScheduler = new VirtualScheduler();
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", myScheduler);
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(Collections.singleton(myPeer1.getURI())),
+                1000, new PhiAccrualDetector(1000));
+        String myName = "http://memory/peer2";
+
+        // Regular heartbeats, each merge also checking for dead peers
+        //
+        for (int i = 0; i < 30; i++) {
+            myScheduler.advance(1000);
+            myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(myName,
+                    Collections.<String, String>emptyMap(), myScheduler.now(), 0)));
+        }
+
+        myScheduler.advance(2000);
+        myPeer1Dir.merge(new HashMap<String, Directory.Entry>());
+
+        Assert.assertTrue(myPeer1Dir.getDirectory().containsKey(myName));
+
+        // Heartbeats have stopped
+        //
+        myScheduler.advance(10000);
+        myPeer1Dir.merge(new HashMap<String, Directory.Entry>());
+
+        Assert.assertFalse(myPeer1Dir.getDirectory().containsKey(myName));
+
+        myPeer1.stop();
+    }
+
+    @Test
+    public void testEchoedEntries() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(Collections.singleton(myPeer1.getURI())),
+                2000, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(Collections.singleton(myPeer2.getURI())),
+                2000, 12000);
+        String myName = "http://memory/peer3";
+        long myNow = System.currentTimeMillis();
+
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(myName,
+                Collections.singletonMap("load", "1"), Collections.singletonMap("load", myNow), myNow, myNow, 0)));
+
+        long mySince = myPeer1Dir.getDirectory().get(myName).getVersion();
+
+        // First exchange carries the entry to the partner which sends it back in the second
+        //
+        myPeer2Dir.merge(myPeer1Dir.getDirectory(0));
+        myPeer1Dir.merge(Collections.singletonMap(myName, myPeer2Dir.getDirectory(0).get(myName)));
+
+        Assert.assertEquals(mySince, myPeer1Dir.getDirectory().get(myName).getVersion());
+        Assert.assertEquals(Collections.singleton(myPeer1.getAddress()), myPeer1Dir.getDirectory(mySince).keySet());
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    @Test
+    public void testChangedKeys() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 100, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 100, 12000);
+        final AtomicInteger myLoad = new AtomicInteger(0);
+        final Set<String> myChanged = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        myPeer1Dir.setExchange(Directory.Exchange.DELTA);
+        myPeer2Dir.setExchange(Directory.Exchange.DELTA);
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                Map<String, String> myAttrs = new HashMap<>();
+
+                myAttrs.put("ring", "positions");
+                myAttrs.put("load", Integer.toString(myLoad.get()));
+                return myAttrs;
+            }
+        });
+
+        myPeer1Dir.add(new Directory.Listener() {
+            public void updated(Directory aDirectory, List<Directory.Entry> aNewPeers,
+                                List<Directory.Entry> anUpdatedPeers, List<Directory.Entry> aDeadPeers) {
+                for (Directory.Entry myEntry : anUpdatedPeers)
+                    myChanged.addAll(myEntry.getChangedKeys());
+            }
+        });
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+
+        awaitLoad(myPeer1Dir, myPeer2.getAddress(), "0");
+
+        myLoad.set(1);
+
+        awaitLoad(myPeer1Dir, myPeer2.getAddress(), "1");
+
+        long myDeadline = System.currentTimeMillis() + 10000;
+
+        while ((System.currentTimeMillis() < myDeadline) && (myChanged.isEmpty()))
+            Thread.sleep(10);
+
+        Directory.Entry myEntry = myPeer1Dir.getDirectory().get(myPeer2.getAddress());
+
+        Assert.assertEquals(Collections.singleton("load"), myChanged);
+        Assert.assertEquals("positions", myEntry.getAttributes().get("ring"));
+        Assert.assertTrue(myEntry.getAttributeVersions().get("load") > myEntry.getAttributeVersions().get("ring"));
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    private void awaitLoad(Directory aDirectory, String aPeer, String aLoad) throws InterruptedException {
+        long myDeadline = System.currentTimeMillis() + 10000;
+
+        while (System.currentTimeMillis() < myDeadline) {
+            Directory.Entry myEntry = aDirectory.getDirectory().get(aPeer);
+
+            if ((myEntry != null) && (aLoad.equals(myEntry.getAttributes().get("load"))))
+                return;
+
+            Thread.sleep(10);
+        }
+
+        Assert.fail("Load not seen: " + aLoad);
+    }
+
+    @Test
+    public void testFollow() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8096));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        final Directory myPeer1Dir = new Directory(myPeer1,
+                new StaticPeerSet(Collections.singleton(myPeer1.getURI())), 2000, 12000);
+        final String myName = "http://localhost:8096/peer2";
+        final long myNow = System.currentTimeMillis();
+        String myChanges = myPeer1.getURI().toString() + "/directory/changes";
+
+        // A new follower should be told to reset and be given the whole directory
+        //
+        JsonObject myFeed = new JsonParser().parse(
+                myClient.prepareGet(myChanges).execute().get().getResponseBody()).getAsJsonObject();
+
+        Assert.assertTrue(myFeed.get("_reset").getAsBoolean());
+        Assert.assertEquals(1, myFeed.get("_changes").getAsJsonArray().size());
+
+        long myBorn = myFeed.get("_born").getAsLong();
+        long mySequence = myFeed.get("_sequence").getAsLong();
+
+        // With nothing changing, a poll should time out with no changes
+        //
+        myFeed = new JsonParser().parse(myClient.prepareGet(myChanges + "?born=" + myBorn + "&since=" + mySequence +
+                "&wait=100").execute().get().getResponseBody()).getAsJsonObject();
+
+        Assert.assertFalse(myFeed.get("_reset").getAsBoolean());
+        Assert.assertEquals(0, myFeed.get("_changes").getAsJsonArray().size());
+        Assert.assertEquals(mySequence, myFeed.get("_sequence").getAsLong());
+
+        // A poll should be answered as soon as a peer joins
+        //
+        Future<com.ning.http.client.Response> myPoll = myClient.prepareGet(myChanges + "?born=" + myBorn +
+                "&since=" + mySequence + "&wait=10000").execute();
+
+        Thread.sleep(200);
+        Assert.assertFalse(myPoll.isDone());
+
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(myName,
+                Collections.singletonMap("role", "storage"), myNow + 1, myNow)));
+
+        myFeed = new JsonParser().parse(myPoll.get(5, TimeUnit.SECONDS).getResponseBody()).getAsJsonObject();
+
+        JsonArray myChangeList = myFeed.get("_changes").getAsJsonArray();
+
+        Assert.assertEquals(1, myChangeList.size());
+        Assert.assertEquals("NEW", myChangeList.get(0).getAsJsonObject().get("_kind").getAsString());
+        Assert.assertEquals(myName, myChangeList.get(0).getAsJsonObject().get("_entry").getAsJsonObject()
+                .get("_peerName").getAsString());
+
+        mySequence = myFeed.get("_sequence").getAsLong();
+
+        // A heartbeat isn't a change but new attributes are
+        //
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(myName,
+                Collections.singletonMap("role", "storage"), myNow + 2, myNow)));
+        myPeer1Dir.merge(Collections.singletonMap(myName, new Directory.Entry(myName,
+                Collections.singletonMap("role", "compute"), myNow + 3, myNow)));
+
+        myFeed = new JsonParser().parse(myClient.prepareGet(myChanges + "?born=" + myBorn + "&since=" + mySequence)
+                .execute().get().getResponseBody()).getAsJsonObject();
+        myChangeList = myFeed.get("_changes").getAsJsonArray();
+
+        Assert.assertEquals(1, myChangeList.size());
+        Assert.assertEquals("UPDATED", myChangeList.get(0).getAsJsonObject().get("_kind").getAsString());
+
+        // A follower of a previous incarnation must start over
+        //
+        myFeed = new JsonParser().parse(myClient.prepareGet(myChanges + "?born=" + (myBorn - 1) + "&since=" +
+                mySequence).execute().get().getResponseBody()).getAsJsonObject();
+
+        Assert.assertTrue(myFeed.get("_reset").getAsBoolean());
+        Assert.assertEquals(2, myFeed.get("_changes").getAsJsonArray().size());
+
+        Assert.assertEquals(400, myClient.prepareGet(myChanges + "?since=abc").execute().get().getStatusCode());
+
+        myPeer1.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8097));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 200, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 200, 12000);
+        SimpleMetrics myMetrics = new SimpleMetrics();
+
+        // Both directories share the metrics, each under its own names
+        //
+        myPeer1Dir.setMetrics(myMetrics);
+        myPeer2Dir.setMetrics(myMetrics, "peer2.directory");
+        new MetricsService(myPeer1, myMetrics);
+
+        GossipBarrier myBarrier = new GossipBarrier(myPeer1Dir);
+        int myBarr = myBarrier.current();
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+
+        myBarrier.await(myBarr);
+        myBarrier.await(myBarrier.current());
+
+        GossipStatistics myStats = myPeer1Dir.getStatistics();
+
+        Assert.assertTrue(myStats.getExchanges() > 0);
+        Assert.assertTrue(myStats.getBytesSent() > 0);
+        Assert.assertTrue(myStats.getBytesReceived() > 0);
+        Assert.assertTrue(myStats.getMerges() > 0);
+
+        JsonObject myExposed = new JsonParser().parse(myClient.prepareGet(myPeer1.getURI().toString() + "/metrics")
+                .execute().get().getResponseBody()).getAsJsonObject();
+
+        Assert.assertTrue(myExposed.get("directory.rounds").getAsLong() > 0);
+        Assert.assertTrue(myExposed.get("directory.exchange.time").getAsJsonObject().get("count").getAsLong() > 0);
+        Assert.assertEquals(200, myExposed.get("directory.period").getAsLong());
+        Assert.assertEquals(1, myExposed.get("directory.merge.new").getAsJsonObject().get("max").getAsLong());
+        Assert.assertTrue(myExposed.get("peer2.directory.rounds").getAsLong() > 0);
+        Assert.assertEquals(200, myExposed.get("peer2.directory.period").getAsLong());
+        Assert.assertEquals(myStats.getRounds(), myExposed.get("directory.rounds").getAsLong(), 1);
+
+        myPeer1.stop();
+        myPeer2.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testSwim() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8093));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+        Peer myPeer3 = new InProcessPeer(myServer, myClient, "/peer3", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+        myPeers.add(myPeer3.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 200, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 200, 12000);
+        Directory myPeer3Dir = new Directory(myPeer3, myPeerSet, 200, 12000);
+        final AtomicInteger myValue = new AtomicInteger(0);
+        final AtomicInteger myDeadCount = new AtomicInteger(0);
+
+        for (Directory myDir : new Directory[] {myPeer1Dir, myPeer2Dir, myPeer3Dir}) {
+            myDir.setExchange(Directory.Exchange.SWIM);
+            myDir.setSwim(1, 100, 1000);
+        }
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("testAttr", Integer.toString(myValue.get()));
+            }
+        });
+
+        myPeer1Dir.add(new Directory.Listener() {
+            public void updated(Directory aDirectory, List<Directory.Entry> aNewPeers,
+                                List<Directory.Entry> anUpdatedPeers, List<Directory.Entry> aDeadPeers) {
+                myDeadCount.addAndGet(aDeadPeers.size());
+            }
+        });
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+        myPeer3Dir.start();
+
+        for (int i = 0; (i < 50) && ((myPeer1Dir.getDirectory().size() < 3) ||
+                (myPeer2Dir.getDirectory().size() < 3) || (myPeer3Dir.getDirectory().size() < 3)); i++)
+            Thread.sleep(100);
+
+        Assert.assertEquals(3, myPeer1Dir.getDirectory().size());
+        Assert.assertEquals(3, myPeer2Dir.getDirectory().size());
+        Assert.assertEquals(3, myPeer3Dir.getDirectory().size());
+
+        // Stable membership doesn't advance timestamps
+        //
+        long myTimestamp = myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getTimestamp();
+
+        Thread.sleep(1000);
+
+        Assert.assertEquals(myTimestamp, myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getTimestamp());
+
+        // Attribute changes are disseminated
+        //
+        myValue.set(1);
+
+        for (int i = 0; (i < 50) &&
+                (! "1".equals(myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("testAttr")));
+             i++)
+            Thread.sleep(100);
+
+        Assert.assertEquals("1",
+                myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("testAttr"));
+
+        // Failed peers are suspected and then removed
+        //
+        myPeer3.stop();
+
+        for (int i = 0; (i < 100) &&
+                ((myPeer1Dir.getDirectory().size() > 2) || (myPeer2Dir.getDirectory().size() > 2)); i++)
+            Thread.sleep(100);
+
+        Assert.assertEquals(2, myPeer1Dir.getDirectory().size());
+        Assert.assertEquals(2, myPeer2Dir.getDirectory().size());
+        Assert.assertFalse(myPeer1Dir.getDirectory().containsKey(myPeer3.getAddress()));
+
+        Thread.sleep(200);
+
+        Assert.assertEquals(1, myDeadCount.get());
+
+        myPeer1.stop();
+        myPeer2.stop();
+        myServer.terminate();
+    }
+
+    @Test
+    public void testSwimOutsidePeerSet() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+        Peer myPeer3 = new InMemoryPeer(myProvider, myClient, "/peer3", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        // Peer3 joins via peer1 but is in no other peer's set
+        //
+        Set<URI> myJoin = new HashSet<>();
+        myJoin.add(myPeer1.getURI());
+        myJoin.add(myPeer3.getURI());
+
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(myPeers), 200, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(myPeers), 200, 12000);
+        Directory myPeer3Dir = new Directory(myPeer3, new StaticPeerSet(myJoin), 200, 12000);
+
+        for (Directory myDir : new Directory[] {myPeer1Dir, myPeer2Dir, myPeer3Dir}) {
+            myDir.setExchange(Directory.Exchange.SWIM);
+            myDir.setSwim(1, 100, 1000);
+        }
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+        myPeer3Dir.start();
+
+        for (int i = 0; (i < 50) && ((myPeer1Dir.getDirectory().size() < 3) ||
+                (myPeer2Dir.getDirectory().size() < 3) || (myPeer3Dir.getDirectory().size() < 3)); i++)
+            Thread.sleep(100);
+
+        Assert.assertEquals(3, myPeer1Dir.getDirectory().size());
+        Assert.assertEquals(3, myPeer2Dir.getDirectory().size());
+
+        // Nothing probes peer3 because of a peer set, it must still be found dead
+        //
+        myPeer3.stop();
+
+        for (int i = 0; (i < 100) &&
+                ((myPeer1Dir.getDirectory().size() > 2) || (myPeer2Dir.getDirectory().size() > 2)); i++)
+            Thread.sleep(100);
+
+        Assert.assertFalse(myPeer1Dir.getDirectory().containsKey(myPeer3.getAddress()));
+        Assert.assertFalse(myPeer2Dir.getDirectory().containsKey(myPeer3.getAddress()));
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    /**
+     * Gossip from a directory holding a number of other peers to a partner until both hold the same peers and then
+     * for some rounds in which nothing changes.
+     *
+     * @return the bytes sent and received per exchange in the quiet rounds
+     */
+    private long[] quietExchange(Directory.Exchange anExchange) throws Exception {
+        VirtualScheduler myScheduler1 = new VirtualScheduler();
+        VirtualScheduler myScheduler2 = new VirtualScheduler();
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", myScheduler1);
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", myScheduler2);
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        Directory myPeer1Dir = new Directory(myPeer1, new StaticPeerSet(myPeers), 1000, 60000);
+        Directory myPeer2Dir = new Directory(myPeer2, new StaticPeerSet(myPeers), 1000, 60000);
+
+        myPeer1Dir.setExchange(anExchange);
+        myPeer2Dir.setExchange(anExchange);
+        myPeer1Dir.merge(fillers(50, 0));
+        myPeer1Dir.start();
+
+        advance(5000, myScheduler1, myScheduler2);
+
+        Assert.assertEquals(52, myPeer2Dir.getDirectory().size());
+
+        GossipStatistics myStats = myPeer1Dir.getStatistics();
+        long mySent = myStats.getBytesSent();
+        long myReceived = myStats.getBytesReceived();
+        long myExchanges = myStats.getExchanges();
+
+        advance(10000, myScheduler1, myScheduler2);
+
+        myExchanges = myStats.getExchanges() - myExchanges;
+
+        Assert.assertTrue(myExchanges > 0);
+
+        myPeer1.stop();
+        myPeer2.stop();
+
+        return new long[] {(myStats.getBytesSent() - mySent) / myExchanges,
+                (myStats.getBytesReceived() - myReceived) / myExchanges};
+    }
+
+    /**
+     * @return entries for a number of peers, each with a few attributes
+     */
+    private Map<String, Directory.Entry> fillers(int aCount, long aTimestamp) {
+        Map<String, Directory.Entry> myFillers = new HashMap<>();
+
+        for (int i = 0; i < aCount; i++) {
+            String myName = "http://memory/filler" + i;
+            Map<String, String> myAttrs = new HashMap<>();
+
+            for (int j = 0; j < 4; j++)
+                myAttrs.put("attr" + j, "value" + j + "-" + i);
+
+            myFillers.put(myName, new Directory.Entry(myName, myAttrs, aTimestamp, aTimestamp));
+        }
+
+        return myFillers;
+    }
+
+    /**
+     * Advance peers' virtual clocks together, a period at a time.
+     */
+    private void advance(long aDuration, VirtualScheduler... aSchedulers) {
+        for (long i = 0; i < aDuration; i += 100)
+            for (VirtualScheduler myScheduler : aSchedulers)
+                myScheduler.advance(100);
+    }
+
+    private void gossipWith(Directory.Exchange anExchange, int aPort) throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", aPort));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 500, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 500, 12000);
+        final AtomicInteger myValue = new AtomicInteger(0);
+
+        myPeer1Dir.setExchange(anExchange);
+        myPeer2Dir.setExchange(anExchange);
+
+        myPeer2Dir.add(new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                Map<String, String> myAttrs = new HashMap<>();
+
+                myAttrs.put("testAttr", Integer.toString(myValue.get()));
+                return myAttrs;
+            }
+        });
+
+        GossipBarrier myBarrier1 = new GossipBarrier(myPeer1Dir);
+
+        myPeer1Dir.start();
+
+        for (int i = 0; i < 3; i++)
+            myBarrier1.await(myBarrier1.current());
+
+        Assert.assertEquals(2, myPeer1Dir.getDirectory().size());
+        Assert.assertEquals(2, myPeer2Dir.getDirectory().size());
+        Assert.assertEquals("0",
+                myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("testAttr"));
+
+        myValue.set(1);
+
+        for (int i = 0; i < 2; i++)
+            myBarrier1.await(myBarrier1.current());
+
+        Assert.assertEquals("1",
+                myPeer1Dir.getDirectory().get(myPeer2.getAddress()).getAttributes().get("testAttr"));
+
+        myPeer1.stop();
+        myPeer2.stop();
         myServer.terminate();
     }
 }
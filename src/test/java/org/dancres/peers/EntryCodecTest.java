@@ -0,0 +1,124 @@
+package org.dancres.peers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class EntryCodecTest {
+    @Test
+    public void roundTrip() {
+        Map<String, Directory.Entry> myDirectory = new HashMap<>();
+        long myNow = System.currentTimeMillis();
+
+        for (int i = 0; i < 100; i++) {
+            String myName = "http://localhost:8080/peer" + i;
+            Map<String, String> myAttrs = new HashMap<>();
+
+            myAttrs.put("role", (i % 2 == 0) ? "storage" : "compute");
+            myAttrs.put("zone", "\u00e9t\u00e9-" + (i % 3));
+
+            myDirectory.put(myName, new Directory.Entry(myName, myAttrs, myNow + i, myNow - 1000));
+        }
+
+        // Clock skew may give a timestamp earlier than born
+        //
+        myDirectory.put("skewed", new Directory.Entry("skewed", Collections.<String, String>emptyMap(), 5, 10));
+
+        Map<String, Directory.Entry> myDecoded = decode(EntryCodec.encode(myDirectory.values(), myDirectory.size()));
+
+        Assert.assertEquals(myDirectory.keySet(), myDecoded.keySet());
+
+        for (Directory.Entry myEntry : myDirectory.values()) {
+            Directory.Entry myOther = myDecoded.get(myEntry.getPeerName());
+
+            Assert.assertEquals(myEntry.getPeerName(), myOther.getPeerName());
+            Assert.assertEquals(myEntry.getTimestamp(), myOther.getTimestamp());
+            Assert.assertEquals(myEntry.getBorn(), myOther.getBorn());
+            Assert.assertEquals(myEntry.getAttributes(), myOther.getAttributes());
+        }
+    }
+
+    @Test
+    public void versions() {
+        long myNow = System.currentTimeMillis();
+        Map<String, String> myAttrs = Collections.singletonMap("load", "3");
+        Map<String, Long> myVersions = new HashMap<>();
+
+        // A removed attribute has a version but no value
+        //
+        myVersions.put("load", myNow + 5);
+        myVersions.put("zone", myNow - 5);
+
+        Directory.Entry myPartial = new Directory.Entry("partial", myAttrs, myVersions, myNow + 10, myNow, myNow - 10);
+        Directory.Entry myComplete = new Directory.Entry("complete", myAttrs, myVersions, myNow + 10, myNow, 0);
+        Map<String, Directory.Entry> myDecoded = decode(EntryCodec.encode(Arrays.asList(myPartial,
+                myComplete), 2));
+
+        Assert.assertEquals(myVersions, myDecoded.get("partial").getAttributeVersions());
+        Assert.assertEquals(myAttrs, myDecoded.get("partial").getAttributes());
+        Assert.assertEquals(myNow - 10, myDecoded.get("partial").getBase());
+        Assert.assertTrue(myDecoded.get("partial").isPartial());
+        Assert.assertEquals(myVersions, myDecoded.get("complete").getAttributeVersions());
+        Assert.assertFalse(myDecoded.get("complete").isPartial());
+    }
+
+    @Test
+    public void unversioned() {
+        // Format 1 lacks base and versions: one string ("peer"), one entry born at 2 with no attributes
+        //
+        byte[] myFormat1 = new byte[] {1, 1, 4, 'p', 'e', 'e', 'r', 1, 0, 2, 0, 0};
+        Directory.Entry myEntry = decode(ChannelBuffers.wrappedBuffer(myFormat1)).get("peer");
+
+        Assert.assertEquals(2, myEntry.getBorn());
+        Assert.assertNull(myEntry.getAttributeVersions());
+        Assert.assertFalse(myEntry.isPartial());
+
+        // As sent to a partner that hasn't advertised support for versions
+        //
+        Assert.assertEquals(ChannelBuffers.wrappedBuffer(myFormat1), EntryCodec.encode(Collections.singletonList(
+                new Directory.Entry("peer", Collections.<String, String>emptyMap(),
+                        Collections.singletonMap("role", 2L), 2, 2, 0)), 1, false));
+    }
+
+    @Test
+    public void empty() {
+        Assert.assertTrue(
+                decode(EntryCodec.encode(Collections.<Directory.Entry>emptyList(), 0)).isEmpty());
+    }
+
+    @Test
+    public void truncated() {
+        long myNow = System.currentTimeMillis();
+        ChannelBuffer myEncoded = EntryCodec.encode(Collections.singletonList(
+                new Directory.Entry("peer", Collections.singletonMap("role", "storage"), myNow, myNow)), 1);
+
+        for (int i = 0; i < myEncoded.readableBytes() - 1; i++) {
+            try {
+                decode(ChannelBuffers.copiedBuffer(myEncoded.slice(0, i)));
+                Assert.fail("Decoded truncated encoding of length: " + i);
+            } catch (IllegalArgumentException anIAE) {
+                // Expected
+            }
+        }
+    }
+
+    private Map<String, Directory.Entry> decode(ChannelBuffer aBuffer) {
+        Map<String, Directory.Entry> myDecoded = new HashMap<>();
+        Iterator<Directory.Entry> myEntries = EntryCodec.decode(aBuffer, new Interner(1024));
+
+        while (myEntries.hasNext()) {
+            Directory.Entry myEntry = myEntries.next();
+
+            myDecoded.put(myEntry.getPeerName(), myEntry);
+        }
+
+        return myDecoded;
+    }
+}
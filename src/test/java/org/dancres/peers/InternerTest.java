@@ -0,0 +1,43 @@
+package org.dancres.peers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InternerTest {
+    @Test
+    public void deduplicates() {
+        Interner myInterner = new Interner(64);
+        String myName = myInterner.intern(new String("http://localhost:8080/peer1"));
+
+        Assert.assertSame(myName, myInterner.intern(new String("http://localhost:8080/peer1")));
+
+        ChannelBuffer myBuffer = ChannelBuffers.copiedBuffer("xxhttp://localhost:8080/peer1", CharsetUtil.UTF_8);
+
+        Assert.assertSame(myName, myInterner.intern(myBuffer, 2, myBuffer.readableBytes() - 2));
+
+        // Non-ASCII strings are decoded but still de-duplicated
+        //
+        String myAccented = myInterner.intern(new String("r\u00f4le"));
+        ChannelBuffer myAccentedBuffer = ChannelBuffers.copiedBuffer("r\u00f4le", CharsetUtil.UTF_8);
+
+        Assert.assertSame(myAccented, myInterner.intern(myAccentedBuffer, 0, myAccentedBuffer.readableBytes()));
+    }
+
+    @Test
+    public void bounded() {
+        Interner myInterner = new Interner(16);
+
+        for (int i = 0; i < 1000; i++) {
+            String myString = "peer" + i;
+
+            Assert.assertEquals(myString, myInterner.intern(myString));
+
+            ChannelBuffer myBuffer = ChannelBuffers.copiedBuffer(myString, CharsetUtil.UTF_8);
+
+            Assert.assertEquals(myString, myInterner.intern(myBuffer, 0, myBuffer.readableBytes()));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.dancres.peers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class JsonEntryCodecTest {
+    private static final Type DIRECTORY_TYPE = new TypeToken<Map<String, Directory.Entry>>() {}.getType();
+
+    @Test
+    public void compatibleWithGson() {
+        Map<String, Directory.Entry> myDirectory = new HashMap<>();
+        long myNow = System.currentTimeMillis();
+
+        for (int i = 0; i < 20; i++) {
+            String myName = "http://localhost:8080/peer" + i;
+            Map<String, String> myAttrs = new HashMap<>();
+
+            myAttrs.put("role", (i % 2 == 0) ? "storage" : "compute");
+            myAttrs.put("quoted", "\"<" + i + ">\"");
+            myAttrs.put("unicode", "\u00e9\u20ac\ud83d\ude00" + i);
+
+            // Some entries carry attribute versions, a few of them partial
+            //
+            if (i % 2 == 0) {
+                myDirectory.put(myName, new Directory.Entry(myName, myAttrs, myNow + i, myNow - 1000));
+            } else {
+                Map<String, Long> myVersions = new HashMap<>();
+
+                for (String myKey : myAttrs.keySet())
+                    myVersions.put(myKey, myNow - i);
+
+                myVersions.put("removed", myNow);
+
+                myDirectory.put(myName, new Directory.Entry(myName, myAttrs, myVersions, myNow + i, myNow - 1000,
+                        (i % 4 == 1) ? myNow - 500 : 0));
+            }
+        }
+
+        Gson myGson = new Gson();
+
+        // What we encode Gson can decode and vice versa
+        //
+        ChannelBuffer myEncoded = JsonEntryCodec.encode(myDirectory.values(), myDirectory.size());
+        Map<String, Directory.Entry> myFromGson = myGson.fromJson(myEncoded.toString(CharsetUtil.UTF_8),
+                DIRECTORY_TYPE);
+
+        assertSame(myDirectory, myFromGson);
+        assertSame(myDirectory, decode(myEncoded));
+        assertSame(myDirectory,
+                decode(ChannelBuffers.copiedBuffer(myGson.toJson(myDirectory, DIRECTORY_TYPE), CharsetUtil.UTF_8)));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void malformed() {
+        decode(ChannelBuffers.copiedBuffer("{\"peer\": {\"_peerName\": \"peer\", ", CharsetUtil.UTF_8));
+    }
+
+    private void assertSame(Map<String, Directory.Entry> anExpected, Map<String, Directory.Entry> anActual) {
+        Assert.assertEquals(anExpected.keySet(), anActual.keySet());
+
+        for (Directory.Entry myEntry : anExpected.values()) {
+            Directory.Entry myOther = anActual.get(myEntry.getPeerName());
+
+            Assert.assertEquals(myEntry.getTimestamp(), myOther.getTimestamp());
+            Assert.assertEquals(myEntry.getBorn(), myOther.getBorn());
+            Assert.assertEquals(myEntry.getAttributes(), myOther.getAttributes());
+            Assert.assertEquals(myEntry.getAttributeVersions(), myOther.getAttributeVersions());
+            Assert.assertEquals(myEntry.getBase(), myOther.getBase());
+        }
+    }
+
+    private Map<String, Directory.Entry> decode(ChannelBuffer aBuffer) {
+        Map<String, Directory.Entry> myDecoded = new HashMap<>();
+        Iterator<Directory.Entry> myEntries = JsonEntryCodec.decode(aBuffer, new Interner(1024));
+
+        while (myEntries.hasNext()) {
+            Directory.Entry myEntry = myEntries.next();
+
+            myDecoded.put(myEntry.getPeerName(), myEntry);
+        }
+
+        return myDecoded;
+    }
+}
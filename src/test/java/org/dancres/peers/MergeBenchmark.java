@@ -0,0 +1,118 @@
+package org.dancres.peers;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.dancres.peers.primitives.InMemoryPeer;
+import org.dancres.peers.primitives.InMemoryProvider;
+import org.dancres.peers.primitives.StaticPeerSet;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measures the cost of merging into directories of increasing size. Each merge carries an updated entry and an entry
+ * that is already overdue such that every merge also expires a peer. With dead node expiry driven by
+ * <code>ExpiryIndex</code> the cost per merge should remain flat as the directory grows.
+ *
+ * For comparison, the cost of the O(N) scan for overdue entries that merge previously performed is reported alongside,
+ * run against a map of the same population.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=MergeBenchmark</code>
+ */
+public class MergeBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(MergeBenchmark.class);
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+    private static final int WARMUP = 20000;
+    private static final int MERGES = 100000;
+    private static final int SCANS = 1000;
+    private static final long OVERDUE = 60000;
+
+    @Test
+    public void mergeCost() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        for (int mySize : SIZES) {
+            Peer myPeer = new InMemoryPeer(myProvider, myClient, "/bench" + mySize, new ExecutorScheduler());
+            Directory myDir = new Directory(myPeer, new StaticPeerSet(Collections.singleton(myPeer.getURI())),
+                    5000, OVERDUE);
+            Map<String, Directory.Entry> myPopulation = population(mySize);
+
+            myDir.merge(myPopulation);
+
+            run(myDir, WARMUP);
+
+            long myStart = System.nanoTime();
+            run(myDir, MERGES);
+            long myElapsed = System.nanoTime() - myStart;
+
+            ConcurrentMap<String, Directory.Entry> myScanned = new ConcurrentHashMap<>(myPopulation);
+
+            scan(myScanned, SCANS / 10);
+
+            myStart = System.nanoTime();
+            scan(myScanned, SCANS);
+            long myScanElapsed = System.nanoTime() - myStart;
+
+            _logger.info("Directory size: " + mySize + " index ns/merge: " + (myElapsed / MERGES) +
+                    " scan ns/merge: " + (myScanElapsed / SCANS));
+
+            myPeer.stop();
+        }
+    }
+
+    private Map<String, Directory.Entry> population(int aSize) {
+        Map<String, Directory.Entry> myPopulation = new HashMap<>();
+        long myNow = System.currentTimeMillis();
+
+        for (int i = 0; i < aSize; i++) {
+            String myName = "http://bench/peer" + i;
+
+            myPopulation.put(myName, new Directory.Entry(myName, Collections.<String, String>emptyMap(),
+                    myNow, myNow));
+        }
+
+        return myPopulation;
+    }
+
+    private void run(Directory aDir, int aCount) {
+        for (int i = 0; i < aCount; i++)
+            aDir.merge(updates(i));
+    }
+
+    /**
+     * The dead node hunt that merge performed before <code>ExpiryIndex</code>, visiting every entry.
+     */
+    private void scan(ConcurrentMap<String, Directory.Entry> aDirectory, int aCount) {
+        for (int i = 0; i < aCount; i++) {
+            aDirectory.putAll(updates(i));
+
+            for (Map.Entry<String, Directory.Entry> kv : aDirectory.entrySet()) {
+                if ((kv.getValue().getTimestamp() + OVERDUE) < System.currentTimeMillis())
+                    aDirectory.remove(kv.getKey(), kv.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return an update to one of the first hundred peers and a new peer that is already overdue
+     */
+    private Map<String, Directory.Entry> updates(int anIteration) {
+        Map<String, Directory.Entry> myUpdates = new HashMap<>();
+        String myName = "http://bench/peer" + (anIteration % 100);
+        String myOverdue = "http://bench/overdue" + anIteration;
+        long myNow = System.currentTimeMillis();
+        long myPast = myNow - OVERDUE - 1;
+
+        myUpdates.put(myName, new Directory.Entry(myName, Collections.<String, String>emptyMap(), myNow, myNow));
+        myUpdates.put(myOverdue, new Directory.Entry(myOverdue, Collections.<String, String>emptyMap(), myPast,
+                myPast));
+
+        return myUpdates;
+    }
+}
@@ -0,0 +1,135 @@
+package org.dancres.peers;
+
+import org.dancres.peers.primitives.StaticPeerSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PeerSelectorTest {
+    private static final URI LOCAL = URI.create("http://localhost:8080/local");
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        Set<URI> myPeers = peers(10);
+        PeerSelector mySelector = new PeerSelector(new StaticPeerSet(myPeers), LOCAL, PeerSelector.Strategy.ROUND_ROBIN);
+
+        myPeers.remove(LOCAL);
+
+        // Every peer is selected once in each N selections
+        //
+        for (int i = 0; i < 5; i++) {
+            Set<URI> mySelected = new HashSet<>();
+
+            for (int j = 0; j < myPeers.size(); j++)
+                Assert.assertTrue(mySelected.add(mySelector.select()));
+
+            Assert.assertEquals(myPeers, mySelected);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            List<URI> mySelected = mySelector.select(4);
+
+            Assert.assertEquals(4, mySelected.size());
+            Assert.assertEquals(4, new HashSet<>(mySelected).size());
+        }
+
+        Assert.assertEquals(myPeers, new HashSet<>(mySelector.select(20)));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Set<URI> myPeers = peers(10);
+        PeerSelector mySelector = new PeerSelector(new StaticPeerSet(myPeers), LOCAL, PeerSelector.Strategy.RANDOM);
+
+        for (int i = 0; i < 100; i++) {
+            List<URI> mySelected = mySelector.select(3);
+
+            Assert.assertEquals(3, new HashSet<>(mySelected).size());
+            Assert.assertFalse(mySelected.contains(LOCAL));
+        }
+
+        Assert.assertNull(new PeerSelector(new StaticPeerSet(peers(0)), LOCAL, PeerSelector.Strategy.RANDOM).select());
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        Set<URI> myPeers = peers(5);
+        PeerSelector mySelector = new PeerSelector(new StaticPeerSet(myPeers), LOCAL, PeerSelector.Strategy.LATENCY);
+        URI myFast = URI.create("http://localhost:8080/peer0");
+        Map<URI, Integer> myCounts = new HashMap<>();
+
+        for (URI myPeer : myPeers)
+            mySelector.answered(myPeer, 100);
+
+        for (int i = 0; i < 20; i++)
+            mySelector.answered(myFast, 1);
+
+        mySelector.failed(URI.create("http://localhost:8080/peer1"));
+
+        for (int i = 0; i < 1000; i++) {
+            URI mySelected = mySelector.select();
+            Integer myCount = myCounts.get(mySelected);
+
+            myCounts.put(mySelected, (myCount == null) ? 1 : myCount + 1);
+        }
+
+        Assert.assertTrue(myCounts.get(myFast) > 500);
+        Assert.assertEquals(5, new HashSet<>(mySelector.select(5)).size());
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        final Set<URI> myPeers = peers(3);
+        PeerSelector mySelector = new PeerSelector(new PeerSet() {
+            public Set<URI> getPeers() {
+                return new HashSet<>(myPeers);
+            }
+        }, LOCAL, PeerSelector.Strategy.ROUND_ROBIN);
+
+        Assert.assertEquals(3, mySelector.select(5).size());
+
+        myPeers.add(URI.create("http://localhost:8080/peer3"));
+
+        Assert.assertEquals(4, mySelector.select(5).size());
+
+        // A versioned set is only read again when its version changes
+        //
+        final long[] myVersion = {0};
+        mySelector = new PeerSelector(new VersionedPeerSet() {
+            public Set<URI> getPeers() {
+                return new HashSet<>(myPeers);
+            }
+
+            public long getVersion() {
+                return myVersion[0];
+            }
+        }, LOCAL, PeerSelector.Strategy.ROUND_ROBIN);
+
+        Assert.assertEquals(4, mySelector.select(5).size());
+
+        myPeers.add(URI.create("http://localhost:8080/peer4"));
+
+        Assert.assertEquals(4, mySelector.select(5).size());
+
+        ++myVersion[0];
+
+        Assert.assertEquals(5, mySelector.select(5).size());
+    }
+
+    private Set<URI> peers(int aCount) {
+        Set<URI> myPeers = new HashSet<>();
+
+        myPeers.add(LOCAL);
+
+        for (int i = 0; i < aCount; i++)
+            myPeers.add(URI.create("http://localhost:8080/peer" + i));
+
+        return myPeers;
+    }
+}
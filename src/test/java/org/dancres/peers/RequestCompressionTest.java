@@ -0,0 +1,142 @@
+package org.dancres.peers;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.dancres.peers.primitives.InMemoryPeer;
+import org.dancres.peers.primitives.InMemoryProvider;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.zip.DataFormatException;
+
+public class RequestCompressionTest {
+    private static final String BODY;
+
+    static {
+        StringBuilder myBody = new StringBuilder();
+
+        for (int i = 0; i < 50; i++)
+            myBody.append("{\"_peerName\":\"http://localhost:8080/peer").append(i).append("\",\"_attributes\":{}}");
+
+        BODY = myBody.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] myBody = bytes(BODY);
+        byte[] myCompressed = RequestCompression.deflate(myBody);
+
+        Assert.assertTrue(myCompressed.length < myBody.length / 4);
+        Assert.assertEquals(BODY,
+                RequestCompression.inflate(ChannelBuffers.wrappedBuffer(myCompressed)).toString(CharsetUtil.UTF_8));
+
+        Assert.assertEquals(0, RequestCompression.inflate(ChannelBuffers.wrappedBuffer(
+                RequestCompression.deflate(new byte[0]))).readableBytes());
+
+        // Deflated from the buffers of a composite (as produced by the binary codec) without first copying them
+        //
+        int myHalf = myBody.length / 2;
+
+        Assert.assertArrayEquals(myCompressed, RequestCompression.deflate(ChannelBuffers.wrappedBuffer(
+                ChannelBuffers.wrappedBuffer(myBody, 0, myHalf),
+                ChannelBuffers.wrappedBuffer(myBody, myHalf, myBody.length - myHalf))));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        byte[] myCompressed = RequestCompression.deflate(BODY.getBytes(CharsetUtil.UTF_8));
+
+        try {
+            RequestCompression.inflate(ChannelBuffers.wrappedBuffer(myCompressed, 0, myCompressed.length / 2));
+            Assert.fail();
+        } catch (DataFormatException aDFE) {
+        }
+
+        try {
+            RequestCompression.inflate(ChannelBuffers.wrappedBuffer(BODY.getBytes(CharsetUtil.UTF_8)));
+            Assert.fail();
+        } catch (DataFormatException aDFE) {
+        }
+    }
+
+    @Test
+    public void testNegotiation() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+        Peer myPeer = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        EchoImpl myEcho = new EchoImpl();
+        RequestCompression myCompression = new RequestCompression();
+        String myTarget = myPeer.getAddress() + "/echo";
+
+        myPeer.add(myEcho);
+
+        // Nothing is known of the partner, so the first request is sent as-is
+        //
+        AsyncHttpClient.BoundRequestBuilder myRequest = myClient.preparePost(myTarget);
+
+        Assert.assertEquals(BODY.length(), myCompression.setBody(myRequest, myPeer.getAddress(), bytes(BODY)));
+
+        Response myResponse = myRequest.execute().get();
+
+        Assert.assertEquals(BODY, myResponse.getResponseBody());
+
+        myCompression.answered(myPeer.getAddress(), myResponse);
+
+        // Service sees the decompressed body
+        //
+        myRequest = myClient.preparePost(myTarget);
+
+        Assert.assertTrue(myCompression.setBody(myRequest, myPeer.getAddress(), bytes(BODY)) < BODY.length());
+
+        myResponse = myRequest.execute().get();
+
+        Assert.assertEquals(BODY, myResponse.getResponseBody());
+        Assert.assertFalse(myEcho._encoded);
+
+        // Small bodies are sent as-is
+        //
+        Assert.assertEquals(5, myCompression.setBody(myClient.preparePost(myTarget), myPeer.getAddress(),
+                bytes("small")));
+
+        myCompression.failed(myPeer.getAddress());
+
+        Assert.assertEquals(BODY.length(), myCompression.setBody(myClient.preparePost(myTarget),
+                myPeer.getAddress(), bytes(BODY)));
+
+        // A body that can't be decompressed is rejected before reaching the service
+        //
+        myResponse = myClient.preparePost(myTarget).addHeader(HttpHeaders.Names.CONTENT_ENCODING,
+                RequestCompression.ENCODING).setBody(BODY).execute().get();
+
+        Assert.assertEquals(400, myResponse.getStatusCode());
+
+        myPeer.stop();
+    }
+
+    private byte[] bytes(String aBody) {
+        return aBody.getBytes(CharsetUtil.UTF_8);
+    }
+
+    private static class EchoImpl implements Peer.Service {
+        private volatile boolean _encoded;
+
+        public String getAddress() {
+            return "/echo";
+        }
+
+        public Peer.ServiceDispatcher getDispatcher() {
+            return new Peer.ServiceDispatcher() {
+                public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+                    _encoded = aRequest.containsHeader(HttpHeaders.Names.CONTENT_ENCODING);
+                    aResponse.setContent(ChannelBuffers.copiedBuffer(aRequest.getContent()));
+                }
+            };
+        }
+    }
+}
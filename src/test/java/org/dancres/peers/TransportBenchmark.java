@@ -0,0 +1,80 @@
+package org.dancres.peers;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.dancres.peers.primitives.InMemoryPeer;
+import org.dancres.peers.primitives.InMemoryProvider;
+import org.dancres.peers.primitives.InProcessPeer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Measures the per-call latency of a trivial service invoked over http (via <code>InProcessPeer</code>) and in
+ * memory (via <code>InMemoryPeer</code>), the difference being the overhead of http and the loopback network.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=TransportBenchmark</code>
+ */
+public class TransportBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(TransportBenchmark.class);
+
+    private static final int WARMUP = 5000;
+    private static final int CALLS = 20000;
+    private static final byte[] BODY = new byte[256];
+
+    @Test
+    public void transportCost() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8098));
+        AsyncHttpClient myHttpClient = new AsyncHttpClient();
+        Peer myHttpPeer = new InProcessPeer(myServer, myHttpClient, "/bench", new ExecutorScheduler());
+
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myMemoryClient = new AsyncHttpClient(myProvider);
+        Peer myMemoryPeer = new InMemoryPeer(myProvider, myMemoryClient, "/bench", new ExecutorScheduler());
+
+        myHttpPeer.add(new NullService());
+        myMemoryPeer.add(new NullService());
+
+        _logger.info("Http us/call: " + measure(myHttpPeer));
+        _logger.info("In-memory us/call: " + measure(myMemoryPeer));
+
+        myHttpPeer.stop();
+        myMemoryPeer.stop();
+        myHttpClient.close();
+        myServer.terminate();
+    }
+
+    private long measure(Peer aPeer) throws Exception {
+        String myUrl = aPeer.getAddress() + "/null";
+
+        for (int i = 0; i < WARMUP; i++)
+            aPeer.getClient().preparePost(myUrl).setBody(BODY).execute().get();
+
+        long myStart = System.nanoTime();
+
+        for (int i = 0; i < CALLS; i++)
+            aPeer.getClient().preparePost(myUrl).setBody(BODY).execute().get();
+
+        return (System.nanoTime() - myStart) / CALLS / 1000;
+    }
+
+    private static class NullService implements Peer.Service {
+        public String getAddress() {
+            return "/null";
+        }
+
+        public Peer.ServiceDispatcher getDispatcher() {
+            return new Peer.ServiceDispatcher() {
+                public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+                    aResponse.setContent(ChannelBuffers.copiedBuffer(aRequest.getContent()));
+                }
+            };
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.dancres.peers.Peer;
 import org.dancres.peers.PeerSet;
 import org.dancres.peers.primitives.GossipBarrier;
 import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.primitives.ExecutorScheduler;
 import org.dancres.peers.primitives.InProcessPeer;
 import org.dancres.peers.primitives.StaticPeerSet;
 import org.dancres.peers.ring.ConsistentHash;
@@ -56,7 +57,7 @@ public class LimitTest {
         _logger.info("Peers and Accs");
 
         for (int i = 0; i < MAX_PEERS; i++) {
-            Peer myPeer = new InProcessPeer(_server, myClient, "/peer" + Integer.toString(i), new Timer());
+            Peer myPeer = new InProcessPeer(_server, myClient, "/peer" + Integer.toString(i), new ExecutorScheduler());
 
             _peers.add(myPeer);
             _accs.add(new DecayingAccumulators(myPeer, WINDOW_SIZE));
@@ -135,7 +136,7 @@ public class LimitTest {
 
         // Use the local peer's timer to schedule our count updates
         //
-        _peers.getFirst().getTimer().schedule(new Snapshotter(), 0, SAMPLE);
+        _peers.getFirst().getScheduler().lane("snapshotter").schedule(new Snapshotter(), 0, SAMPLE, 0);
     }
 
     @After
@@ -203,7 +204,7 @@ public class LimitTest {
     /**
      * Is run every so often to log collected counts with a consistent hash of DecayingAccumulator servers.
      */
-    private class Snapshotter extends TimerTask {
+    private class Snapshotter implements Runnable {
         public void run() {
             try {
                 DecayingAccumulators myLocal = _accs.getFirst();
@@ -3,19 +3,19 @@ package org.dancres.peers.acc;
 import com.ning.http.client.AsyncHttpClient;
 import org.dancres.peers.Peer;
 import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.primitives.ExecutorScheduler;
 import org.dancres.peers.primitives.InProcessPeer;
 import org.junit.Test;
 import org.junit.Assert;
 
 import java.net.InetSocketAddress;
-import java.util.Timer;
 
 public class LoopbackTest {
     @Test
     public void loopback() throws Exception {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8081));
         AsyncHttpClient myClient = new AsyncHttpClient();
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
 
         DecayingAccumulators myCounts = new DecayingAccumulators(myPeer1, 2000);
 
@@ -0,0 +1,62 @@
+package org.dancres.peers.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class SimpleMetricsTest {
+    @Test
+    public void testSameInstrument() throws Exception {
+        SimpleMetrics myMetrics = new SimpleMetrics();
+
+        myMetrics.counter("a").increment();
+        myMetrics.counter("a").add(2);
+        myMetrics.gauge("b").set(5);
+
+        Assert.assertSame(myMetrics.histogram("c"), myMetrics.histogram("c"));
+        Assert.assertEquals(3, myMetrics.counter("a").get());
+
+        Map<String, Object> mySnapshot = myMetrics.snapshot();
+
+        Assert.assertEquals(3L, mySnapshot.get("a"));
+        Assert.assertEquals(5L, mySnapshot.get("b"));
+        Assert.assertTrue(mySnapshot.get("c") instanceof Map);
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        // Every value must fall in a bucket whose upper bound is at least the value and within 25% of it
+        //
+        long[] myValues = {0, 1, 3, 4, 5, 7, 8, 100, 1000, 65535, 65536, 1L << 40, Long.MAX_VALUE};
+
+        for (long myValue : myValues) {
+            long myBound = SimpleMetrics.SimpleHistogram.upperBound(SimpleMetrics.SimpleHistogram.bucket(myValue));
+
+            Assert.assertTrue(myBound >= myValue);
+            Assert.assertTrue(myBound - myValue <= myValue / 4);
+        }
+
+        Assert.assertEquals(0, SimpleMetrics.SimpleHistogram.bucket(-10));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        SimpleMetrics.SimpleHistogram myHistogram = (SimpleMetrics.SimpleHistogram)
+                new SimpleMetrics().histogram("latency");
+
+        Assert.assertEquals(0, myHistogram.percentile(0.5));
+
+        for (int i = 1; i <= 1000; i++)
+            myHistogram.record(i);
+
+        Assert.assertEquals(1000, myHistogram.getCount());
+        Assert.assertEquals(500500, myHistogram.getSum());
+        Assert.assertEquals(1000, myHistogram.getMax());
+
+        long myMedian = myHistogram.percentile(0.5);
+
+        Assert.assertTrue((myMedian >= 500) && (myMedian <= 625));
+        Assert.assertEquals(1000, myHistogram.percentile(0.99));
+    }
+}
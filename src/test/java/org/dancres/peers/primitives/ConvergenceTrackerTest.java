@@ -0,0 +1,100 @@
+package org.dancres.peers.primitives;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.peers.Directory;
+import org.dancres.peers.Peer;
+import org.dancres.peers.PeerSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConvergenceTrackerTest {
+    @Test
+    public void testAwait() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 100, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 100, 12000);
+        final AtomicInteger myRelease1 = new AtomicInteger(1);
+        final AtomicInteger myRelease2 = new AtomicInteger(1);
+
+        myPeer1Dir.add(release(myRelease1));
+        myPeer2Dir.add(release(myRelease2));
+
+        final ConvergenceTracker myTracker = new ConvergenceTracker(myPeer1Dir);
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+
+        // Only known peers are considered, so wait for the other one to be known
+        //
+        Assert.assertTrue(myTracker.await(new ConvergenceTracker.Predicate() {
+            public boolean converged(Collection<Directory.Entry> aLivePeers) {
+                return aLivePeers.size() == 2;
+            }
+        }, 10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(myTracker.await(ConvergenceTracker.attributeAtLeast("release", 1), 10, TimeUnit.SECONDS));
+
+        // Many waiters on the same predicate are all released, one on an unmet predicate times out
+        //
+        final AtomicInteger myConverged = new AtomicInteger(0);
+        final CountDownLatch myDone = new CountDownLatch(4);
+
+        for (int i = 0; i < 4; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        if (myTracker.await(ConvergenceTracker.attributeAtLeast("release", 2), 10, TimeUnit.SECONDS))
+                            myConverged.incrementAndGet();
+                    } catch (InterruptedException anIE) {
+                    }
+
+                    myDone.countDown();
+                }
+            }.start();
+        }
+
+        myRelease1.set(2);
+
+        Assert.assertFalse(myTracker.await(ConvergenceTracker.attributeAtLeast("release", 2), 300,
+                TimeUnit.MILLISECONDS));
+
+        myRelease2.set(2);
+
+        Assert.assertTrue(myDone.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4, myConverged.get());
+        Assert.assertFalse(myTracker.await(ConvergenceTracker.attributeAtLeast("release", 3), 300,
+                TimeUnit.MILLISECONDS));
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    private Directory.AttributeProducer release(final AtomicInteger aRelease) {
+        return new Directory.AttributeProducer() {
+            public Map<String, String> produce() {
+                return Collections.singletonMap("release", Integer.toString(aRelease.get()));
+            }
+        };
+    }
+}
@@ -0,0 +1,166 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Scheduler;
+import org.dancres.peers.metrics.SimpleMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorSchedulerTest {
+    @Test
+    public void testFailureDoesNotStopPeriodic() throws Exception {
+        SimpleMetrics myMetrics = new SimpleMetrics();
+        Scheduler myScheduler = new ExecutorScheduler(myMetrics);
+        final CountDownLatch myLatch = new CountDownLatch(3);
+
+        myScheduler.lane("test").schedule(new Runnable() {
+            public void run() {
+                myLatch.countDown();
+                throw new RuntimeException("Deliberate");
+            }
+        }, 0, 10, 0);
+
+        Assert.assertTrue(myLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(myMetrics.counter("scheduler.test.failures").get() >= 2);
+
+        myScheduler.shutdown();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Scheduler myScheduler = new ExecutorScheduler();
+        final AtomicInteger myRuns = new AtomicInteger();
+        Runnable myCounter = new Runnable() {
+            public void run() {
+                myRuns.incrementAndGet();
+            }
+        };
+
+        Scheduler.Task myOneShot = myScheduler.lane("test").schedule(myCounter, 200);
+
+        Assert.assertTrue(myOneShot.cancel());
+        Assert.assertFalse(myOneShot.cancel());
+
+        Scheduler.Task myPeriodic = myScheduler.lane("test").schedule(myCounter, 0, 10, 0);
+
+        Thread.sleep(100);
+        Assert.assertTrue(myPeriodic.cancel());
+
+        int mySeen = myRuns.get();
+
+        Thread.sleep(300);
+
+        Assert.assertTrue(mySeen > 0);
+        Assert.assertTrue(myRuns.get() <= mySeen + 1);
+
+        myScheduler.shutdown();
+    }
+
+    @Test
+    public void testJitter() throws Exception {
+        Scheduler myScheduler = new ExecutorScheduler();
+        final List<Long> myStarts = new ArrayList<>();
+        final CountDownLatch myLatch = new CountDownLatch(10);
+
+        long myBegin = System.currentTimeMillis();
+
+        myScheduler.lane("test").schedule(new Runnable() {
+            public void run() {
+                synchronized(myStarts) {
+                    myStarts.add(System.currentTimeMillis());
+                }
+
+                myLatch.countDown();
+            }
+        }, 20, 20, 20);
+
+        Assert.assertTrue(myLatch.await(5, TimeUnit.SECONDS));
+        myScheduler.shutdown();
+
+        // Each delay is at least the period and no more than period plus jitter (plus some scheduling slack)
+        //
+        long myLast = myBegin;
+
+        synchronized(myStarts) {
+            for (long myStart : myStarts) {
+                Assert.assertTrue(myStart - myLast >= 20);
+                Assert.assertTrue(myStart - myLast <= 40 + 200);
+                myLast = myStart;
+            }
+        }
+    }
+
+    @Test
+    public void testLanesAreIndependent() throws Exception {
+        SimpleMetrics myMetrics = new SimpleMetrics();
+        Scheduler myScheduler = new ExecutorScheduler(myMetrics);
+        final CountDownLatch myBlocked = new CountDownLatch(1);
+        final CountDownLatch myRan = new CountDownLatch(1);
+
+        myScheduler.lane("slow").schedule(new Runnable() {
+            public void run() {
+                try {
+                    myBlocked.await();
+                } catch (InterruptedException anIE) {
+                }
+            }
+        }, 0, 10, 0);
+
+        myScheduler.lane("fast").schedule(new Runnable() {
+            public void run() {
+                myRan.countDown();
+            }
+        }, 0);
+
+        Assert.assertTrue(myRan.await(5, TimeUnit.SECONDS));
+
+        // Slow task took longer than its period
+        //
+        Thread.sleep(50);
+        myBlocked.countDown();
+        Thread.sleep(50);
+
+        Assert.assertTrue(myMetrics.counter("scheduler.slow.overruns").get() >= 1);
+        Assert.assertTrue(myMetrics.histogram("scheduler.slow.time").getMax() >= 50);
+        Assert.assertEquals(1, myMetrics.histogram("scheduler.fast.delay").getCount());
+
+        myScheduler.shutdown();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        Scheduler myScheduler = new ExecutorScheduler();
+
+        myScheduler.lane("test").schedule(new Runnable() {
+            public void run() {
+            }
+        }, 0);
+
+        myScheduler.shutdown();
+
+        try {
+            myScheduler.lane("test").schedule(new Runnable() {
+                public void run() {
+                }
+            }, 0);
+
+            Assert.fail();
+        } catch (IllegalStateException anISE) {
+        }
+
+        try {
+            myScheduler.lane("other").schedule(new Runnable() {
+                public void run() {
+                }
+            }, 0);
+
+            Assert.fail();
+        } catch (IllegalStateException anISE) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.dancres.peers.primitives;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Response;
+import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.Directory;
+import org.dancres.peers.Peer;
+import org.dancres.peers.PeerSet;
+import org.dancres.peers.Scheduler;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class InMemoryPeerTest {
+    @Test
+    public void testDispatch() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+        Peer myPeer = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+
+        myPeer.add(new EchoImpl());
+
+        Response myResponse = myClient.preparePost(myPeer.getAddress() + "/echo?x=1").setBody("hello")
+                .addHeader("X-Test", "header").execute().get();
+
+        Assert.assertEquals(200, myResponse.getStatusCode());
+        Assert.assertEquals("/echo?x=1 header hello", myResponse.getResponseBody());
+        Assert.assertEquals("text/plain", myResponse.getContentType());
+
+        Assert.assertEquals(404, myClient.prepareGet("http://memory/peer2/echo").execute().get().getStatusCode());
+
+        myPeer.stop();
+
+        Assert.assertEquals(404, myClient.prepareGet(myPeer.getAddress() + "/echo").execute().get()
+                .getStatusCode());
+    }
+
+    @Test
+    public void testDeferred() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+        Peer myPeer = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+
+        myPeer.add(new DeferringImpl());
+
+        Future<Response> myResponse = myClient.prepareGet(myPeer.getAddress() + "/deferred").execute();
+
+        Assert.assertEquals("deferred", myResponse.get(5, TimeUnit.SECONDS).getResponseBody());
+
+        myPeer.stop();
+    }
+
+    @Test
+    public void testLatencyAndLoss() throws Exception {
+        Scheduler myScheduler = new ExecutorScheduler();
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory", myScheduler);
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+        Peer myPeer = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+
+        myPeer.add(new EchoImpl());
+        myProvider.setLatency(100, 150);
+
+        long myStart = System.currentTimeMillis();
+        Future<Response> myResponse = myClient.preparePost(myPeer.getAddress() + "/echo").setBody("hello").execute();
+
+        Assert.assertFalse(myResponse.isDone());
+        Assert.assertEquals(200, myResponse.get(5, TimeUnit.SECONDS).getStatusCode());
+
+        // Latency applies to both request and response
+        //
+        Assert.assertTrue(System.currentTimeMillis() - myStart >= 200);
+
+        myProvider.setLatency(0, 0);
+        myProvider.setLoss(1.0);
+
+        try {
+            myClient.preparePost(myPeer.getAddress() + "/echo").setBody("hello").execute().get();
+            Assert.fail();
+        } catch (ExecutionException anEE) {
+            Assert.assertTrue(anEE.getCause().getMessage().startsWith("Request lost"));
+        }
+
+        myPeer.stop();
+        myScheduler.shutdown();
+    }
+
+    @Test
+    public void testGossip() throws Exception {
+        InMemoryProvider myProvider = new InMemoryProvider("http://memory");
+        AsyncHttpClient myClient = new AsyncHttpClient(myProvider);
+
+        Peer myPeer1 = new InMemoryPeer(myProvider, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InMemoryPeer(myProvider, myClient, "/peer2", new ExecutorScheduler());
+
+        Set<URI> myPeers = new HashSet<>();
+        myPeers.add(myPeer1.getURI());
+        myPeers.add(myPeer2.getURI());
+
+        PeerSet myPeerSet = new StaticPeerSet(myPeers);
+
+        Directory myPeer1Dir = new Directory(myPeer1, myPeerSet, 100, 12000);
+        Directory myPeer2Dir = new Directory(myPeer2, myPeerSet, 100, 12000);
+
+        myPeer1Dir.start();
+        myPeer2Dir.start();
+
+        long myDeadline = System.currentTimeMillis() + 10000;
+
+        while ((System.currentTimeMillis() < myDeadline) &&
+                ((myPeer1Dir.getDirectory().size() != 2) || (myPeer2Dir.getDirectory().size() != 2)))
+            Thread.sleep(10);
+
+        Assert.assertTrue(myPeer1Dir.getDirectory().containsKey(myPeer2.getAddress()));
+        Assert.assertTrue(myPeer2Dir.getDirectory().containsKey(myPeer1.getAddress()));
+
+        myPeer1.stop();
+        myPeer2.stop();
+    }
+
+    private static class EchoImpl implements Peer.Service {
+        public String getAddress() {
+            return "/echo";
+        }
+
+        public Peer.ServiceDispatcher getDispatcher() {
+            return new Peer.ServiceDispatcher() {
+                public void dispatch(String aServicePath, HttpRequest aRequest, HttpResponse aResponse) {
+                    aResponse.setHeader("Content-Type", "text/plain");
+                    aResponse.setContent(ChannelBuffers.copiedBuffer(aServicePath + " " +
+                            aRequest.getHeader("X-Test") + " " + aRequest.getContent().toString(CharsetUtil.UTF_8),
+                            CharsetUtil.UTF_8));
+                }
+            };
+        }
+    }
+
+    private static class DeferringImpl implements Peer.Service {
+        public String getAddress() {
+            return "/deferred";
+        }
+
+        public Peer.ServiceDispatcher getDispatcher() {
+            return new Peer.ServiceDispatcher() {
+                public void dispatch(String aServicePath, HttpRequest aRequest, final HttpResponse aResponse) {
+                    final HttpServer.Deferred myDeferred = HttpServer.defer();
+
+                    new Thread() {
+                        public void run() {
+                            try {
+                                Thread.sleep(100);
+                            } catch (InterruptedException anIE) {
+                            }
+
+                            aResponse.setStatus(HttpResponseStatus.OK);
+                            aResponse.setContent(ChannelBuffers.copiedBuffer("deferred", CharsetUtil.UTF_8));
+                            myDeferred.complete();
+                        }
+                    }.start();
+                }
+            };
+        }
+    }
+}
@@ -15,7 +15,6 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Timer;
 
 public class InProcessPeerTest {
     private static final String TEST_RESPONSE = "test response";
@@ -27,7 +26,7 @@ public class InProcessPeerTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8081));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
 
         myPeer1.add(new TestImpl());
 
@@ -0,0 +1,70 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Directory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class PhiAccrualDetectorTest {
+    private static final String PEER = "http://localhost:8080/peer1";
+
+    @Test
+    public void testPhiAtDeadline() {
+        PhiAccrualDetector myDetector = new PhiAccrualDetector(1000);
+        long myDeadline = heartbeats(myDetector, 0, 1000, 0, 100);
+        long myLast = 100 * 1000;
+
+        Assert.assertTrue(myDeadline > myLast + 1000);
+        Assert.assertTrue(myDeadline < myLast + 10000);
+
+        Assert.assertTrue(myDetector.phi(PEER, myLast + 1000) < 1.0);
+        Assert.assertEquals(myDetector.getThreshold(), myDetector.phi(PEER, myDeadline), 0.1);
+        Assert.assertTrue(myDetector.phi(PEER, myDeadline + 1000) > myDetector.getThreshold());
+    }
+
+    @Test
+    public void testErraticPeerGetsLonger() {
+        PhiAccrualDetector myRegular = new PhiAccrualDetector(1000);
+        PhiAccrualDetector myErratic = new PhiAccrualDetector(1000);
+
+        long myRegularDeadline = heartbeats(myRegular, 0, 1000, 0, 100) - (100 * 1000);
+        long myErraticDeadline = heartbeats(myErratic, 0, 1000, 800, 100) - (100 * 1000);
+
+        Assert.assertTrue(myErraticDeadline > myRegularDeadline);
+    }
+
+    @Test
+    public void testForget() {
+        PhiAccrualDetector myDetector = new PhiAccrualDetector(1000);
+
+        heartbeats(myDetector, 0, 1000, 0, 10);
+
+        Assert.assertTrue(myDetector.phi(PEER, 60000) > myDetector.getThreshold());
+
+        myDetector.forget(PEER);
+
+        Assert.assertEquals(0.0, myDetector.phi(PEER, 60000), 0.0);
+    }
+
+    /**
+     * Feed the detector a series of heartbeats, alternately early and late by <code>aJitter</code>
+     *
+     * @return the deadline yielded by the last heartbeat
+     */
+    private long heartbeats(PhiAccrualDetector aDetector, long aStart, long anInterval, long aJitter, int aCount) {
+        long myDeadline = 0;
+
+        for (int i = 1; i <= aCount; i++) {
+            long myTimestamp = aStart + (i * anInterval) + (((i % 2) == 0) ? aJitter : -aJitter);
+
+            if (i == aCount)
+                myTimestamp = aStart + (i * anInterval);
+
+            myDeadline = aDetector.deadline(new Directory.Entry(PEER, Collections.<String, String>emptyMap(),
+                    myTimestamp, aStart));
+        }
+
+        return myDeadline;
+    }
+}
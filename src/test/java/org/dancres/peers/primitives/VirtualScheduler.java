@@ -0,0 +1,153 @@
+package org.dancres.peers.primitives;
+
+import org.dancres.peers.Scheduler;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A <code>Scheduler</code> driven by a virtual clock rather than the passage of time. Tasks from all lanes run on the
+ * thread that invokes <code>advance</code>, in order of their (virtual) due time and, for equal times, the order in
+ * which they were scheduled. A single instance can thus drive thousands of peers from one thread, deterministically
+ * (for a given seed) and as fast as the tasks themselves run.
+ */
+public class VirtualScheduler implements Scheduler {
+    private final PriorityQueue<VirtualTask> _queue = new PriorityQueue<>();
+    private final Random _random;
+    private long _now = 0;
+    private long _sequence = 0;
+    private boolean _shutdown = false;
+
+    public VirtualScheduler() {
+        this(0);
+    }
+
+    /**
+     * @param aSeed is the seed for the random number generator used to apply jitter
+     */
+    public VirtualScheduler(long aSeed) {
+        _random = new Random(aSeed);
+    }
+
+    public Lane lane(String aName) {
+        return new Lane() {
+            public Task schedule(Runnable aTask, long aDelay) {
+                return schedule(aTask, aDelay, 0, 0);
+            }
+
+            public Task schedule(Runnable aTask, long aDelay, long aPeriod, long aJitter) {
+                if ((aDelay < 0) || (aPeriod < 0) || (aJitter < 0))
+                    throw new IllegalArgumentException("Delay, period and jitter must not be negative");
+
+                VirtualTask myTask = new VirtualTask(aTask, aPeriod, aJitter);
+
+                add(myTask, aDelay);
+                return myTask;
+            }
+        };
+    }
+
+    /**
+     * @return the current virtual time in milliseconds, starting from 0
+     */
+    public synchronized long now() {
+        return _now;
+    }
+
+    public synchronized void shutdown() {
+        _shutdown = true;
+        _queue.clear();
+    }
+
+    /**
+     * Advance the virtual clock, running the tasks that fall due on the way.
+     *
+     * @param aDuration is the time in milliseconds to advance by
+     * @return the number of tasks run
+     */
+    public int advance(long aDuration) {
+        long myTarget;
+        int myRun = 0;
+
+        synchronized(this) {
+            myTarget = _now + aDuration;
+        }
+
+        while (true) {
+            VirtualTask myNext;
+
+            synchronized(this) {
+                myNext = _queue.peek();
+
+                if ((myNext == null) || (myNext._due > myTarget)) {
+                    _now = myTarget;
+                    return myRun;
+                }
+
+                _queue.poll();
+                _now = myNext._due;
+
+                if (myNext._period == 0)
+                    myNext._done = true;
+            }
+
+            myNext._task.run();
+            ++myRun;
+
+            // As per ExecutorScheduler, period is measured from the end of one run to the start of the next
+            //
+            synchronized(this) {
+                if ((myNext._period > 0) && (! myNext._cancelled) && (! _shutdown))
+                    add(myNext, myNext._period);
+            }
+        }
+    }
+
+    private synchronized void add(VirtualTask aTask, long aDelay) {
+        if (_shutdown)
+            throw new IllegalStateException("Scheduler has been shutdown");
+
+        long myJitter = (aTask._jitter == 0) ? 0 : (long) (_random.nextDouble() * (aTask._jitter + 1));
+
+        aTask._due = _now + aDelay + myJitter;
+        aTask._sequence = _sequence++;
+        _queue.add(aTask);
+    }
+
+    private synchronized boolean cancel(VirtualTask aTask) {
+        if ((aTask._cancelled) || (aTask._done))
+            return false;
+
+        aTask._cancelled = true;
+        _queue.remove(aTask);
+
+        return true;
+    }
+
+    private class VirtualTask implements Task, Comparable<VirtualTask> {
+        private final Runnable _task;
+        private final long _period;
+        private final long _jitter;
+        private long _due;
+        private long _sequence;
+        private boolean _cancelled = false;
+        private boolean _done = false;
+
+        VirtualTask(Runnable aTask, long aPeriod, long aJitter) {
+            _task = aTask;
+            _period = aPeriod;
+            _jitter = aJitter;
+        }
+
+        public boolean cancel() {
+            return VirtualScheduler.this.cancel(this);
+        }
+
+        public int compareTo(VirtualTask anOther) {
+            if (_due != anOther._due)
+                return (_due < anOther._due) ? -1 : 1;
+
+            return (_sequence < anOther._sequence) ? -1 : ((_sequence == anOther._sequence) ? 0 : 1);
+        }
+    }
+}
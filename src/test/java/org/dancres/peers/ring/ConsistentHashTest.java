@@ -24,8 +24,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8081));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -129,8 +129,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8083));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -198,8 +198,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8084));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -321,8 +321,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8085));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -382,8 +382,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8086));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -451,8 +451,8 @@ public class ConsistentHashTest {
         HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8087));
         AsyncHttpClient myClient = new AsyncHttpClient();
 
-        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new Timer());
-        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new Timer());
+        Peer myPeer1 = new InProcessPeer(myServer, myClient, "/peer1", new ExecutorScheduler());
+        Peer myPeer2 = new InProcessPeer(myServer, myClient, "/peer2", new ExecutorScheduler());
 
         Set<URI> myPeers = new HashSet<>();
         myPeers.add(myPeer1.getURI());
@@ -0,0 +1,85 @@
+package org.dancres.peers.ring;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Measures the cost of allocating a key to a position in a ring of 10,000 positions (virtual nodes), via
+ * <code>RingSnapshot.allocate</code> and as it was previously done, copying the positions into a
+ * <code>TreeSet</code> and scanning for the first above the key.
+ *
+ * Excluded from the default build, run with <code>mvn test -Dtest=RingBenchmark</code>
+ */
+public class RingBenchmark {
+    private static final Logger _logger = LoggerFactory.getLogger(RingBenchmark.class);
+
+    private static final int PEERS = 100;
+    private static final int POSITIONS_PER_PEER = 100;
+    private static final int LOOKUPS = 2000000;
+    private static final int TREE_LOOKUPS = 2000;
+
+    @Test
+    public void allocationCost() {
+        Random myRandom = new Random(0);
+        RingSnapshot<Integer> mySnapshot = RingSnapshotTest.ring(myRandom, PEERS, POSITIONS_PER_PEER);
+        int[] myHashes = new int[1024];
+        long myChecksum = 0;
+
+        for (int i = 0; i < myHashes.length; i++)
+            myHashes[i] = myRandom.nextInt();
+
+        // Warm up
+        //
+        for (int i = 0; i < LOOKUPS / 10; i++) {
+            myChecksum += mySnapshot.allocate(myHashes[i & 1023]).getPosition();
+            myChecksum += mySnapshot.allocate(myHashes[i & 1023], 3).size();
+        }
+
+        for (int i = 0; i < TREE_LOOKUPS / 10; i++)
+            myChecksum += treeAllocate(mySnapshot, myHashes[i & 1023]).getPosition();
+
+        long myStart = System.nanoTime();
+
+        for (int i = 0; i < LOOKUPS; i++)
+            myChecksum += mySnapshot.allocate(myHashes[i & 1023]).getPosition();
+
+        long mySingle = System.nanoTime() - myStart;
+
+        myStart = System.nanoTime();
+
+        for (int i = 0; i < LOOKUPS; i++)
+            myChecksum += mySnapshot.allocate(myHashes[i & 1023], 3).size();
+
+        long myReplicated = System.nanoTime() - myStart;
+
+        myStart = System.nanoTime();
+
+        for (int i = 0; i < TREE_LOOKUPS; i++)
+            myChecksum += treeAllocate(mySnapshot, myHashes[i & 1023]).getPosition();
+
+        long myTree = System.nanoTime() - myStart;
+
+        _logger.info("Positions: " + (PEERS * POSITIONS_PER_PEER) +
+                " allocate ns: " + (mySingle / LOOKUPS) +
+                " allocate (3 replicas) ns: " + (myReplicated / LOOKUPS) +
+                " tree ns: " + (myTree / TREE_LOOKUPS) +
+                " (checksum " + myChecksum + ")");
+    }
+
+    private RingPosition<Integer> treeAllocate(RingSnapshot<Integer> aSnapshot, int aHash) {
+        TreeSet<RingPosition<Integer>> myPositions = new TreeSet<>(aSnapshot._newRing.values());
+
+        if (myPositions.last().getPosition().compareTo(aHash) < 1)
+            return myPositions.first();
+
+        for (RingPosition<Integer> myPos : myPositions)
+            if (myPos.getPosition().compareTo(aHash) >= 1)
+                return myPos;
+
+        throw new RuntimeException("Logical error in code");
+    }
+}
@@ -0,0 +1,94 @@
+package org.dancres.peers.ring;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class RingSnapshotTest {
+    @Test
+    public void testAllocate() {
+        Random myRandom = new Random(0);
+        RingSnapshot<Integer> mySnapshot = ring(myRandom, 10, 50);
+        List<RingPosition<Integer>> myPositions = new ArrayList<>(mySnapshot.getPositions());
+
+        for (int i = 0; i < 10000; i++)
+            check(mySnapshot, myPositions, myRandom.nextInt());
+
+        // Hashes equal to positions and beyond either end of the ring
+        //
+        for (RingPosition<Integer> myPosition : myPositions) {
+            check(mySnapshot, myPositions, myPosition.getPosition());
+            check(mySnapshot, myPositions, myPosition.getPosition() - 1);
+        }
+
+        check(mySnapshot, myPositions, Integer.MIN_VALUE);
+        check(mySnapshot, myPositions, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testLimits() {
+        RingSnapshot<Integer> mySnapshot = ring(new Random(0), 1, 1);
+
+        Assert.assertEquals(mySnapshot.getPositions().first(), mySnapshot.allocate(5));
+        Assert.assertEquals(1, mySnapshot.allocate(5, 1).size());
+
+        try {
+            mySnapshot.allocate(5, 2);
+            Assert.fail();
+        } catch (IllegalStateException anISE) {
+        }
+
+        try {
+            ring(new Random(0), 0, 0).allocate(5);
+            Assert.fail();
+        } catch (IllegalStateException anISE) {
+        }
+    }
+
+    /**
+     * Owner is the first position greater than the hash, wrapping around
+     */
+    private void check(RingSnapshot<Integer> aSnapshot, List<RingPosition<Integer>> aPositions, int aHash) {
+        int myOwner = 0;
+
+        while ((myOwner < aPositions.size()) && (aPositions.get(myOwner).getPosition() <= aHash))
+            ++myOwner;
+
+        List<RingPosition<Integer>> myExpected = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++)
+            myExpected.add(aPositions.get((myOwner + i) % aPositions.size()));
+
+        Assert.assertEquals(myExpected.get(0), aSnapshot.allocate(aHash));
+        Assert.assertEquals(myExpected, aSnapshot.allocate(aHash, 3));
+    }
+
+    static RingSnapshot<Integer> ring(Random aRandom, int aPeers, int aPositionsPerPeer) {
+        Map<String, RingPositions<Integer>> myRing = new HashMap<>();
+        HashSet<Integer> myUsed = new HashSet<>();
+
+        for (int i = 0; i < aPeers; i++) {
+            String myPeer = "http://localhost:8080/peer" + i;
+            HashSet<RingPosition<Integer>> myPositions = new HashSet<>();
+
+            while (myPositions.size() < aPositionsPerPeer) {
+                int myPosition = aRandom.nextInt();
+
+                if (myUsed.add(myPosition))
+                    myPositions.add(new RingPosition<>(myPeer, myPosition, 1));
+            }
+
+            myRing.put(myPeer, new RingPositions<>(1, myPositions));
+        }
+
+        // Positions are unique so the local peer never takes part in a conflict
+        //
+        return new RingSnapshot<>(myRing, null);
+    }
+}
@@ -0,0 +1,177 @@
+package org.dancres.peers.view;
+
+import com.ning.http.client.AsyncHttpClient;
+import org.dancres.net.netty.HttpServer;
+import org.dancres.peers.Directory;
+import org.dancres.peers.Peer;
+import org.dancres.peers.primitives.ExecutorScheduler;
+import org.dancres.peers.primitives.InProcessPeer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PartialViewTest {
+    private static final int PEERS = 10;
+    private static final int ACTIVE = 3;
+    private static final int PASSIVE = 6;
+    private static final long PERIOD = 200;
+
+    @Test
+    public void testOverlay() throws Exception {
+        HttpServer myServer = new HttpServer(new InetSocketAddress("localhost", 8091));
+        AsyncHttpClient myClient = new AsyncHttpClient();
+
+        List<Peer> myPeers = new ArrayList<>();
+        List<PartialView> myViews = new ArrayList<>();
+        List<Directory> myDirs = new ArrayList<>();
+
+        for (int i = 0; i < PEERS; i++) {
+            Peer myPeer = new InProcessPeer(myServer, myClient, "/peer" + i, new ExecutorScheduler());
+            PartialView myView = new PartialView(myPeer, ACTIVE, PASSIVE, PERIOD);
+            Directory myDir = new Directory(myPeer, myView, PERIOD, 10000);
+
+            myDir.setExchange(Directory.Exchange.DIGEST);
+
+            myPeers.add(myPeer);
+            myViews.add(myView);
+            myDirs.add(myDir);
+
+            myView.start();
+
+            if (i > 0)
+                myView.join(myPeers.get(0).getURI());
+
+            myDir.start();
+
+            Thread.sleep(50);
+        }
+
+        // Allow for the overlay to settle, under load it may take more than a few periods
+        //
+        long myDeadline = System.currentTimeMillis() + PERIOD * 50;
+
+        while ((System.currentTimeMillis() < myDeadline) &&
+                ((reachable(myPeers, myViews, myPeers.get(0).getURI()).size() != PEERS) || (! complete(myDirs))))
+            Thread.sleep(PERIOD);
+
+        // Active views are bounded and connected
+        //
+        for (PartialView myView : myViews) {
+            Set<URI> myActive = myView.getPeers();
+
+            Assert.assertTrue(myActive.size() >= 1);
+            Assert.assertTrue(myActive.size() <= ACTIVE);
+            Assert.assertTrue(myView.getPassive().size() <= PASSIVE);
+        }
+
+        Assert.assertEquals(PEERS, reachable(myPeers, myViews, myPeers.get(0).getURI()).size());
+
+        // Directory membership is complete despite gossip being limited to the active view
+        //
+        for (Directory myDir : myDirs)
+            Assert.assertEquals(PEERS, myDir.getDirectory().size());
+
+        // Stop a peer and make sure it's removed from active views and the overlay repaired
+        //
+        Peer myStopped = myPeers.remove(PEERS - 1);
+        myViews.remove(PEERS - 1);
+
+        // Neighbours of the stopped peer should fill the vacancy from their passive view
+        //
+        final Map<PartialView, Set<URI>> myCandidates = new ConcurrentHashMap<>();
+        final Map<PartialView, Set<URI>> myAdded = new ConcurrentHashMap<>();
+
+        for (PartialView myView : myViews) {
+            if (myView.getPeers().contains(myStopped.getURI())) {
+                myCandidates.put(myView, myView.getPassive());
+                myAdded.put(myView, Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>()));
+
+                myView.add(new PartialView.Listener() {
+                    public void changed(PartialView aView, Set<URI> anAdded, Set<URI> aRemoved) {
+                        myAdded.get(aView).addAll(anAdded);
+                    }
+                });
+            }
+        }
+
+        Assert.assertFalse(myCandidates.isEmpty());
+
+        myStopped.stop();
+
+        myDeadline = System.currentTimeMillis() + PERIOD * 50;
+
+        while ((System.currentTimeMillis() < myDeadline) &&
+                ((reachable(myPeers, myViews, myPeers.get(0).getURI()).size() != PEERS - 1) ||
+                        (contains(myViews, myStopped.getURI())) || (! promoted(myCandidates, myAdded))))
+            Thread.sleep(PERIOD);
+
+        for (PartialView myView : myViews) {
+            Assert.assertFalse(myView.getPeers().contains(myStopped.getURI()));
+            Assert.assertTrue(myView.getPeers().size() >= 1);
+        }
+
+        Assert.assertEquals(PEERS - 1, reachable(myPeers, myViews, myPeers.get(0).getURI()).size());
+        Assert.assertTrue(promoted(myCandidates, myAdded));
+
+        for (Peer myPeer : myPeers)
+            myPeer.stop();
+
+        myServer.terminate();
+    }
+
+    private boolean complete(List<Directory> aDirs) {
+        for (Directory myDir : aDirs)
+            if (myDir.getDirectory().size() != PEERS)
+                return false;
+
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if a view has added to its active view a peer that was in its passive view
+     */
+    private boolean promoted(Map<PartialView, Set<URI>> aCandidates, Map<PartialView, Set<URI>> anAdded) {
+        for (Map.Entry<PartialView, Set<URI>> kv : aCandidates.entrySet())
+            for (URI myAdded : anAdded.get(kv.getKey()))
+                if (kv.getValue().contains(myAdded))
+                    return true;
+
+        return false;
+    }
+
+    private boolean contains(List<PartialView> aViews, URI aPeer) {
+        for (PartialView myView : aViews)
+            if (myView.getPeers().contains(aPeer))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @return the peers reachable from <code>aStart</code> via active views
+     */
+    private Set<URI> reachable(List<Peer> aPeers, List<PartialView> aViews, URI aStart) {
+        Map<URI, PartialView> myViews = new HashMap<>();
+
+        for (int i = 0; i < aPeers.size(); i++)
+            myViews.put(aPeers.get(i).getURI(), aViews.get(i));
+
+        Set<URI> myReached = new HashSet<>();
+        LinkedList<URI> myFrontier = new LinkedList<>();
+
+        myFrontier.add(aStart);
+
+        while (! myFrontier.isEmpty()) {
+            URI myNext = myFrontier.removeFirst();
+
+            if ((myReached.add(myNext)) && (myViews.containsKey(myNext)))
+                myFrontier.addAll(myViews.get(myNext).getPeers());
+        }
+
+        return myReached;
+    }
+}